@@ -1,14 +1,25 @@
 package io.mwarzecha;
 
+import io.mwarzecha.config.Config;
+import io.mwarzecha.metrics.MetricsRegistry;
 import io.mwarzecha.persistence.Persistence;
 import io.mwarzecha.rest.ServerRunner;
+import io.mwarzecha.sequencer.TransferSequencer;
+import org.slf4j.LoggerFactory;
 
 public class Application {
 
   public static void main(String[] args) {
-    ServerRunner
-        .create(Persistence.persistenceService())
+    var config = Config.load();
+    LoggerFactory.getLogger(Application.class).info("Effective configuration: {}", config);
+    var metrics = new MetricsRegistry();
+    var persistenceService = Persistence.persistenceService(config, metrics);
+    int partitions = config.getInt("transfers.sequencer.partitions");
+    var transferSequencer = partitions > 0
+        ? TransferSequencer.create(persistenceService, partitions, 1024)
+        : null;
+    ServerRunner.create(persistenceService, transferSequencer, metrics, config)
         .addShutdownHook()
-        .start(8080);
+        .start(config.getInt("server.port"));
   }
-}
\ No newline at end of file
+}
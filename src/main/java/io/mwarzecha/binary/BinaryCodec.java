@@ -0,0 +1,251 @@
+package io.mwarzecha.binary;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Compact big-endian encoding of accounts, transfers, transfer results and daily rollups, shared
+ * by the server and its clients. Ids and amounts are fixed-width longs, amounts are in minor
+ * units, timestamps are microseconds since the epoch, dates are days since the epoch and a
+ * currency is a two-byte ordinal: the position of its code in {@code AAA..ZZZ}, which unlike a
+ * table index is stable across JVMs.
+ *
+ * <pre>
+ * account  := id:i64 currency:u16 balance:i64 owner:utf
+ * transfer := id:i64 from:i64 to:i64 currency:u16 amount:i64 timestampMicros:i64
+ * result   := 1:u8 transfer | 0:u8 error:utf
+ * rollup   := account:i64 epochDay:i64 currency:u16 inflow:i64 outflow:i64 transfers:i64
+ * list     := (1:u8 element)* 0:u8
+ * </pre>
+ */
+public final class BinaryCodec {
+
+  public static final String MEDIA_TYPE = "application/x-ledger-binary";
+
+  private static final int CURRENCY_ORDINALS = 26 * 26 * 26;
+  private static final String[] CURRENCY_CODES = currencyCodes();
+  private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+  private static final byte ELEMENT = 1;
+  private static final byte END = 0;
+  private static final byte SUCCESS = 1;
+  private static final byte FAILURE = 0;
+
+  private BinaryCodec() {}
+
+  /**
+   * Writes an account, a transfer, a transfer result, a daily rollup, or a collection of any of
+   * them.
+   */
+  public static void write(DataOutput out, Object value) throws IOException {
+    if (value instanceof Account) {
+      writeAccount(out, (Account) value);
+    } else if (value instanceof Transfer) {
+      writeTransfer(out, (Transfer) value);
+    } else if (value instanceof Try) {
+      @SuppressWarnings("unchecked")
+      var result = (Try<Transfer>) value;
+      writeTransferResult(out, result);
+    } else if (value instanceof DailyRollup) {
+      writeDailyRollup(out, (DailyRollup) value);
+    } else if (value instanceof Collection) {
+      for (var element : (Collection<?>) value) {
+        writeElement(out, element);
+      }
+      writeEnd(out);
+    } else {
+      throw new IllegalArgumentException("No binary encoding for " + value.getClass());
+    }
+  }
+
+  /**
+   * Writes a single list element; a list is finished with {@link #writeEnd(DataOutput)}.
+   */
+  public static void writeElement(DataOutput out, Object element) throws IOException {
+    out.writeByte(ELEMENT);
+    write(out, element);
+  }
+
+  public static void writeEnd(DataOutput out) throws IOException {
+    out.writeByte(END);
+  }
+
+  public static void writeAccount(DataOutput out, Account account) throws IOException {
+    out.writeLong(account.getId());
+    out.writeShort(currencyOrdinal(account.getCurrency()));
+    out.writeLong(account.getBalanceMinorUnits());
+    out.writeUTF(account.getOwner());
+  }
+
+  public static Account readAccount(DataInput in) throws IOException {
+    long id = in.readLong();
+    var currency = currencyCode(in.readUnsignedShort());
+    long balance = in.readLong();
+    return Account.newBuilder()
+        .id(id)
+        .balance(Money.ofMinorUnits(currency, balance))
+        .owner(in.readUTF())
+        .build();
+  }
+
+  public static void writeTransfer(DataOutput out, Transfer transfer) throws IOException {
+    out.writeLong(transfer.getId());
+    out.writeLong(transfer.getFromAccountId());
+    out.writeLong(transfer.getToAccountId());
+    out.writeShort(currencyOrdinal(transfer.getCurrency()));
+    out.writeLong(transfer.getAmountMinorUnits());
+    out.writeLong(toEpochMicros(transfer.getTimestamp()));
+  }
+
+  public static Transfer readTransfer(DataInput in) throws IOException {
+    return Transfer.newBuilder()
+        .id(in.readLong())
+        .fromAccountId(in.readLong())
+        .toAccountId(in.readLong())
+        .amount(Money.ofMinorUnits(currencyCode(in.readUnsignedShort()), in.readLong()))
+        .timestamp(fromEpochMicros(in.readLong()))
+        .build();
+  }
+
+  public static void writeTransferResult(DataOutput out, Try<Transfer> result)
+      throws IOException {
+    if (result.isSuccess()) {
+      out.writeByte(SUCCESS);
+      writeTransfer(out, result.getResult());
+    } else {
+      out.writeByte(FAILURE);
+      out.writeUTF(String.valueOf(result.getThrowable().getMessage()));
+    }
+  }
+
+  /**
+   * Decodes a failed result as a failure carrying an {@link IllegalStateException} with the
+   * server's message.
+   */
+  public static Try<Transfer> readTransferResult(DataInput in) throws IOException {
+    if (in.readByte() == SUCCESS) {
+      return Try.success(readTransfer(in));
+    }
+    return Try.failure(new IllegalStateException(in.readUTF()));
+  }
+
+  public static void writeDailyRollup(DataOutput out, DailyRollup rollup) throws IOException {
+    out.writeLong(rollup.getAccountId());
+    out.writeLong(rollup.getDate().toEpochDay());
+    out.writeShort(currencyOrdinal(rollup.getCurrency()));
+    out.writeLong(rollup.getInflowMinorUnits());
+    out.writeLong(rollup.getOutflowMinorUnits());
+    out.writeLong(rollup.getTransferCount());
+  }
+
+  public static DailyRollup readDailyRollup(DataInput in) throws IOException {
+    long accountId = in.readLong();
+    var date = LocalDate.ofEpochDay(in.readLong());
+    var currency = currencyCode(in.readUnsignedShort());
+    return DailyRollup.newBuilder()
+        .accountId(accountId)
+        .date(date)
+        .inflow(Money.ofMinorUnits(currency, in.readLong()))
+        .outflow(Money.ofMinorUnits(currency, in.readLong()))
+        .transferCount(in.readLong())
+        .build();
+  }
+
+  public static List<Account> readAccounts(InputStream in) throws IOException {
+    var accounts = new ArrayList<Account>();
+    readList(new DataInputStream(in), BinaryCodec::readAccount, accounts::add);
+    return accounts;
+  }
+
+  public static List<Transfer> readTransfers(InputStream in) throws IOException {
+    var transfers = new ArrayList<Transfer>();
+    readList(new DataInputStream(in), BinaryCodec::readTransfer, transfers::add);
+    return transfers;
+  }
+
+  public static List<Try<Transfer>> readTransferResults(InputStream in) throws IOException {
+    var results = new ArrayList<Try<Transfer>>();
+    readList(new DataInputStream(in), BinaryCodec::readTransferResult, results::add);
+    return results;
+  }
+
+  public static List<DailyRollup> readDailyRollups(InputStream in) throws IOException {
+    var rollups = new ArrayList<DailyRollup>();
+    readList(new DataInputStream(in), BinaryCodec::readDailyRollup, rollups::add);
+    return rollups;
+  }
+
+  /**
+   * Passes every element of a list to the action as soon as it has been decoded.
+   */
+  public static <T> void readList(DataInput in, ElementReader<T> reader, Consumer<T> action)
+      throws IOException {
+    byte tag;
+    while ((tag = in.readByte()) == ELEMENT) {
+      action.accept(reader.read(in));
+    }
+    if (tag != END) {
+      throw new IOException("Unexpected list tag " + tag);
+    }
+  }
+
+  @FunctionalInterface
+  public interface ElementReader<T> {
+
+    T read(DataInput in) throws IOException;
+  }
+
+  private static int currencyOrdinal(String currencyCode) {
+    int ordinal = 0;
+    for (int i = 0; i < 3; i++) {
+      ordinal = ordinal * 26 + currencyCode.charAt(i) - 'A';
+    }
+    return ordinal;
+  }
+
+  private static String currencyCode(int ordinal) {
+    var code = ordinal < CURRENCY_ORDINALS ? CURRENCY_CODES[ordinal] : null;
+    if (code == null) {
+      throw new IllegalArgumentException("Unknown currency ordinal " + ordinal);
+    }
+    return code;
+  }
+
+  private static String[] currencyCodes() {
+    var codes = new String[CURRENCY_ORDINALS];
+    for (var currency : Currency.getAvailableCurrencies()) {
+      codes[currencyOrdinal(currency.getCurrencyCode())] = currency.getCurrencyCode();
+    }
+    return codes;
+  }
+
+  private static long toEpochMicros(Instant timestamp) {
+    if (timestamp == null) {
+      return NO_TIMESTAMP;
+    }
+    return Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), 1_000_000L),
+        timestamp.getNano() / 1_000);
+  }
+
+  private static Instant fromEpochMicros(long micros) {
+    if (micros == NO_TIMESTAMP) {
+      return null;
+    }
+    return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+        Math.floorMod(micros, 1_000_000L) * 1_000);
+  }
+}
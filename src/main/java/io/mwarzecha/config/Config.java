@@ -0,0 +1,182 @@
+package io.mwarzecha.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Runtime settings. Every known key has a default in the {@code application.properties}
+ * resource, which can be overridden, in increasing precedence, by a properties file named by the
+ * {@code config.file} system property or the {@code CONFIG_FILE} environment variable, by an
+ * environment variable named after the key ({@code db.pool.maxTotal} becomes
+ * {@code DB_POOL_MAXTOTAL}) and by a system property with the key's name. Keys without a default
+ * are rejected, so that a misspelt override fails at startup instead of being ignored.
+ */
+public final class Config {
+
+  private static final String DEFAULTS_RESOURCE = "/application.properties";
+
+  private final Map<String, String> values;
+
+  private Config(Map<String, String> values) {
+    this.values = Collections.unmodifiableMap(new TreeMap<>(values));
+  }
+
+  /**
+   * Loads the settings from the defaults, the optional config file, the environment and the
+   * system properties.
+   */
+  public static Config load() {
+    return load(System.getenv(), System.getProperties());
+  }
+
+  /**
+   * Returns the built-in defaults, unaffected by the environment.
+   */
+  public static Config defaults() {
+    return load(Map.of(), new Properties());
+  }
+
+  static Config load(Map<String, String> environment, Properties systemProperties) {
+    var defaults = defaultValues();
+    var values = new TreeMap<>(defaults);
+    var configFile = systemProperties.getProperty("config.file",
+        environment.get("CONFIG_FILE"));
+    if (configFile != null) {
+      readFile(Path.of(configFile)).forEach((key, value) -> values.put(checkedKey(key, defaults),
+          value));
+    }
+    for (var key : defaults.keySet()) {
+      var fromEnvironment = environment.get(environmentName(key));
+      if (fromEnvironment != null) {
+        values.put(key, fromEnvironment);
+      }
+      var fromSystem = systemProperties.getProperty(key);
+      if (fromSystem != null) {
+        values.put(key, fromSystem);
+      }
+    }
+    return new Config(values);
+  }
+
+  /**
+   * Returns a copy with the given settings replaced.
+   */
+  public Config with(Map<String, String> overrides) {
+    var copy = new TreeMap<>(values);
+    overrides.forEach((key, value) -> copy.put(checkedKey(key, values), value));
+    return new Config(copy);
+  }
+
+  public String getString(String key) {
+    var value = values.get(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Unknown configuration key " + key);
+    }
+    return value.trim();
+  }
+
+  public int getInt(String key) {
+    return parse(key, Integer::parseInt);
+  }
+
+  public long getLong(String key) {
+    return parse(key, Long::parseLong);
+  }
+
+  public boolean getBoolean(String key) {
+    var value = getString(key);
+    if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+      throw invalid(key, value);
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  public <E extends Enum<E>> E getEnum(String key, Class<E> type) {
+    return parse(key, value -> Enum.valueOf(type, value.toUpperCase(Locale.ROOT)));
+  }
+
+  /**
+   * Renders every setting as {@code key=value}, with passwords masked, for logging.
+   */
+  @Override
+  public String toString() {
+    return values.entrySet().stream()
+        .map(entry -> entry.getKey() + "="
+            + (entry.getKey().endsWith("password") && !entry.getValue().isEmpty()
+                ? "****"
+                : entry.getValue()))
+        .collect(Collectors.joining(", "));
+  }
+
+  private <T> T parse(String key, Parser<T> parser) {
+    var value = getString(key);
+    try {
+      return parser.parse(value);
+    } catch (IllegalArgumentException e) {
+      throw invalid(key, value);
+    }
+  }
+
+  private static IllegalArgumentException invalid(String key, String value) {
+    return new IllegalArgumentException(
+        "Invalid value '" + value + "' for configuration key " + key);
+  }
+
+  private static String environmentName(String key) {
+    return key.replace('.', '_').toUpperCase(Locale.ROOT);
+  }
+
+  private static String checkedKey(String key, Map<String, String> known) {
+    if (!known.containsKey(key)) {
+      throw new IllegalArgumentException("Unknown configuration key " + key);
+    }
+    return key;
+  }
+
+  private static Map<String, String> defaultValues() {
+    try (InputStream in = Config.class.getResourceAsStream(DEFAULTS_RESOURCE)) {
+      if (in == null) {
+        throw new IllegalStateException("Missing " + DEFAULTS_RESOURCE);
+      }
+      var properties = new Properties();
+      properties.load(in);
+      return toMap(properties);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read " + DEFAULTS_RESOURCE, e);
+    }
+  }
+
+  private static Map<String, String> readFile(Path path) {
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      var properties = new Properties();
+      properties.load(reader);
+      return toMap(properties);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read configuration file " + path, e);
+    }
+  }
+
+  private static Map<String, String> toMap(Properties properties) {
+    var map = new TreeMap<String, String>();
+    properties.stringPropertyNames()
+        .forEach(name -> map.put(name, properties.getProperty(name)));
+    return map;
+  }
+
+  @FunctionalInterface
+  private interface Parser<T> {
+
+    T parse(String value);
+  }
+}
@@ -1,36 +1,66 @@
 package io.mwarzecha.json;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import io.mwarzecha.model.Account;
 import io.mwarzecha.model.Money;
-import java.lang.reflect.Type;
+import java.io.IOException;
 
-public class AccountSerde implements JsonSerializer<Account>, JsonDeserializer<Account> {
+public class AccountSerde extends TypeAdapter<Account> {
 
   @Override
-  public JsonElement serialize(Account account, Type type, JsonSerializationContext ctx) {
-    var jsonObject = new JsonObject();
-    jsonObject.addProperty("id", account.getId());
-    jsonObject.addProperty("owner", account.getOwner());
-    jsonObject.addProperty("balance", account.getBalance().toPlainString());
-    jsonObject.addProperty("currency", account.getCurrency());
-    return jsonObject;
+  public void write(JsonWriter out, Account account) throws IOException {
+    if (account == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    out.name("id").value(account.getId());
+    out.name("owner").value(account.getOwner());
+    out.name("balance").value(account.getBalancePlainString());
+    out.name("currency").value(account.getCurrency());
+    out.endObject();
   }
 
   @Override
-  public Account deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext ctx)
-      throws JsonParseException {
-    var jsonObject = jsonElement.getAsJsonObject();
+  public Account read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String owner = null;
+    String balance = null;
+    String currency = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "owner":
+          owner = in.nextString();
+          break;
+        case "balance":
+          balance = in.nextString();
+          break;
+        case "currency":
+          currency = in.nextString();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
     return Account.newBuilder()
-        .owner(jsonObject.get("owner").getAsString())
-        .balance(Money.of(jsonObject.get("currency").getAsString(),
-            jsonObject.get("balance").getAsBigDecimal()))
+        .owner(required("owner", owner))
+        .balance(Money.parse(required("currency", currency), required("balance", balance)))
         .build();
   }
-}
\ No newline at end of file
+
+  static String required(String name, String value) {
+    if (value == null) {
+      throw new JsonParseException("Missing field " + name);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,79 @@
+package io.mwarzecha.json;
+
+import static io.mwarzecha.json.AccountSerde.required;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Money;
+import java.io.IOException;
+import java.time.LocalDate;
+
+public class DailyRollupSerde extends TypeAdapter<DailyRollup> {
+
+  @Override
+  public void write(JsonWriter out, DailyRollup rollup) throws IOException {
+    if (rollup == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    out.name("account_id").value(rollup.getAccountId());
+    out.name("date").value(rollup.getDate().toString());
+    out.name("currency").value(rollup.getCurrency());
+    out.name("inflow").value(rollup.getInflowPlainString());
+    out.name("outflow").value(rollup.getOutflowPlainString());
+    out.name("transfer_count").value(rollup.getTransferCount());
+    out.endObject();
+  }
+
+  @Override
+  public DailyRollup read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String accountId = null;
+    String date = null;
+    String currency = null;
+    String inflow = null;
+    String outflow = null;
+    String transferCount = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "account_id":
+          accountId = in.nextString();
+          break;
+        case "date":
+          date = in.nextString();
+          break;
+        case "currency":
+          currency = in.nextString();
+          break;
+        case "inflow":
+          inflow = in.nextString();
+          break;
+        case "outflow":
+          outflow = in.nextString();
+          break;
+        case "transfer_count":
+          transferCount = in.nextString();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    required("currency", currency);
+    return DailyRollup.newBuilder()
+        .accountId(Long.parseLong(required("account_id", accountId)))
+        .date(LocalDate.parse(required("date", date)))
+        .inflow(Money.parse(currency, required("inflow", inflow)))
+        .outflow(Money.parse(currency, required("outflow", outflow)))
+        .transferCount(Long.parseLong(required("transfer_count", transferCount)))
+        .build();
+  }
+}
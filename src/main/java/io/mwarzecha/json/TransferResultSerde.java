@@ -0,0 +1,75 @@
+package io.mwarzecha.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.io.IOException;
+
+/**
+ * Writes the per-transfer results of a batch straight to the {@link JsonWriter}, one object per
+ * result, handing the transfer itself to whatever adapter Gson has registered for it. Reading
+ * turns the same objects back into results, with the error message of a failed one kept as the
+ * message of its throwable.
+ */
+public class TransferResultSerde implements TypeAdapterFactory {
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    if (!Try.class.isAssignableFrom(type.getRawType())) {
+      return null;
+    }
+    return (TypeAdapter<T>) new ResultAdapter(gson.getAdapter(Transfer.class)).nullSafe();
+  }
+
+  private static class ResultAdapter extends TypeAdapter<Try<Transfer>> {
+
+    private final TypeAdapter<Transfer> transferAdapter;
+
+    ResultAdapter(TypeAdapter<Transfer> transferAdapter) {
+      this.transferAdapter = transferAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Try<Transfer> result) throws IOException {
+      out.beginObject();
+      if (result.isSuccess()) {
+        out.name("status").value(201);
+        out.name("transfer");
+        transferAdapter.write(out, result.getResult());
+      } else {
+        out.name("status").value(400);
+        out.name("error").value(result.getThrowable().getMessage());
+      }
+      out.endObject();
+    }
+
+    @Override
+    public Try<Transfer> read(JsonReader in) throws IOException {
+      Transfer transfer = null;
+      String error = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "transfer":
+            transfer = transferAdapter.read(in);
+            break;
+          case "error":
+            error = in.nextString();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return transfer != null
+          ? Try.success(transfer)
+          : Try.failure(new IllegalArgumentException(error));
+    }
+  }
+}
@@ -1,39 +1,67 @@
 package io.mwarzecha.json;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
-import io.mwarzecha.model.Transfer;
+import static io.mwarzecha.json.AccountSerde.required;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import io.mwarzecha.model.Money;
-import java.lang.reflect.Type;
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
 
-public class TransferSerde implements JsonSerializer<Transfer>, JsonDeserializer<Transfer> {
+public class TransferSerde extends TypeAdapter<Transfer> {
 
   @Override
-  public JsonElement serialize(Transfer transfer, Type type, JsonSerializationContext ctx) {
-    var jsonObject = new JsonObject();
-    jsonObject.addProperty("id", transfer.getId());
-    jsonObject.addProperty("from_account", transfer.getFromAccountId());
-    jsonObject.addProperty("to_account", transfer.getToAccountId());
-    jsonObject.addProperty("amount", transfer.getAmount().toPlainString());
-    jsonObject.addProperty("currency", transfer.getCurrency());
-    jsonObject.addProperty("timestamp", transfer.getTimestamp().toString());
-    return jsonObject;
+  public void write(JsonWriter out, Transfer transfer) throws IOException {
+    if (transfer == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    out.name("id").value(transfer.getId());
+    out.name("from_account").value(transfer.getFromAccountId());
+    out.name("to_account").value(transfer.getToAccountId());
+    out.name("amount").value(transfer.getAmountPlainString());
+    out.name("currency").value(transfer.getCurrency());
+    out.name("timestamp").value(transfer.getTimestamp().toString());
+    out.endObject();
   }
 
   @Override
-  public Transfer deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext ctx)
-      throws JsonParseException {
-    var jsonObject = jsonElement.getAsJsonObject();
+  public Transfer read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String fromAccount = null;
+    String toAccount = null;
+    String amount = null;
+    String currency = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "from_account":
+          fromAccount = in.nextString();
+          break;
+        case "to_account":
+          toAccount = in.nextString();
+          break;
+        case "amount":
+          amount = in.nextString();
+          break;
+        case "currency":
+          currency = in.nextString();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
     return Transfer.newBuilder()
-        .fromAccountId(jsonObject.get("from_account").getAsLong())
-        .toAccountId(jsonObject.get("to_account").getAsLong())
-        .amount(Money.of(jsonObject.get("currency").getAsString(),
-            jsonObject.get("amount").getAsBigDecimal()))
+        .fromAccountId(Long.parseLong(required("from_account", fromAccount)))
+        .toAccountId(Long.parseLong(required("to_account", toAccount)))
+        .amount(Money.parse(required("currency", currency), required("amount", amount)))
         .build();
   }
 }
@@ -0,0 +1,58 @@
+package io.mwarzecha.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations into fixed buckets. Every bucket is a striped {@link LongAdder}, so
+ * concurrent observations do not contend on a shared counter.
+ */
+public class Histogram {
+
+  /**
+   * Bucket upper bounds for request latencies in seconds, from half a millisecond to ten seconds.
+   */
+  public static final double[] LATENCY_SECONDS = {
+      0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private final double[] upperBounds;
+  private final LongAdder[] counts;
+  private final DoubleAdder sum = new DoubleAdder();
+
+  Histogram(double[] upperBounds) {
+    this.upperBounds = upperBounds;
+    this.counts = new LongAdder[upperBounds.length + 1];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  public void observe(double value) {
+    int bucket = 0;
+    while (bucket < upperBounds.length && value > upperBounds[bucket]) {
+      bucket++;
+    }
+    counts[bucket].increment();
+    sum.add(value);
+  }
+
+  void writeTo(Writer writer, String name, Map<String, String> labels) throws IOException {
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i].sum();
+      var bucketLabels = new HashMap<>(labels);
+      bucketLabels.put("le", i < upperBounds.length
+          ? MetricsRegistry.formatValue(upperBounds[i])
+          : "+Inf");
+      MetricsRegistry.writeSample(writer, name + "_bucket", bucketLabels,
+          Long.toString(cumulative));
+    }
+    MetricsRegistry.writeSample(writer, name + "_sum", labels,
+        MetricsRegistry.formatValue(sum.sum()));
+    MetricsRegistry.writeSample(writer, name + "_count", labels, Long.toString(cumulative));
+  }
+}
@@ -0,0 +1,51 @@
+package io.mwarzecha.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Histograms of one metric, one per combination of label values.
+ */
+public class HistogramFamily {
+
+  private final String name;
+  private final double[] upperBounds;
+  private final String[] labelNames;
+  private final Map<List<String>, Histogram> children = new ConcurrentHashMap<>();
+
+  HistogramFamily(String name, double[] upperBounds, String... labelNames) {
+    this.name = name;
+    this.upperBounds = upperBounds.clone();
+    this.labelNames = labelNames.clone();
+  }
+
+  /**
+   * Returns the histogram for the given label values, in the order the label names were
+   * registered, creating it on first use.
+   */
+  public Histogram labels(String... labelValues) {
+    if (labelValues.length != labelNames.length) {
+      throw new IllegalArgumentException("Expected values for " + Arrays.toString(labelNames));
+    }
+    var key = List.of(labelValues);
+    var histogram = children.get(key);
+    return histogram != null
+        ? histogram
+        : children.computeIfAbsent(key, values -> new Histogram(upperBounds));
+  }
+
+  void writeTo(Writer writer) throws IOException {
+    for (var child : children.entrySet()) {
+      var labels = new LinkedHashMap<String, String>();
+      for (int i = 0; i < labelNames.length; i++) {
+        labels.put(labelNames[i], child.getKey().get(i));
+      }
+      child.getValue().writeTo(writer, name, labels);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package io.mwarzecha.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics exposed in the Prometheus text format. Counters and gauges are read from suppliers
+ * when the registry is scraped, so the code being measured keeps its own lock-free counters and
+ * the registry adds nothing to its hot path; {@link Histogram histograms} are recorded into
+ * directly. Registration is meant to happen at startup.
+ */
+public class MetricsRegistry {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final List<Family> families = new CopyOnWriteArrayList<>();
+
+  public void counter(String name, String help, LongSupplier value) {
+    counter(name, help, Map.of(), value);
+  }
+
+  public void counter(String name, String help, Map<String, String> labels,
+      LongSupplier value) {
+    family(name, help, "counter").samples.add(writer ->
+        writeSample(writer, name, labels, Long.toString(value.getAsLong())));
+  }
+
+  public void gauge(String name, String help, DoubleSupplier value) {
+    gauge(name, help, Map.of(), value);
+  }
+
+  public void gauge(String name, String help, Map<String, String> labels,
+      DoubleSupplier value) {
+    family(name, help, "gauge").samples.add(writer ->
+        writeSample(writer, name, labels, formatValue(value.getAsDouble())));
+  }
+
+  /**
+   * Registers a histogram with one child per combination of values of the given labels, each
+   * counting observations into buckets with the given upper bounds.
+   */
+  public HistogramFamily histogram(String name, String help, double[] upperBounds,
+      String... labelNames) {
+    var histograms = new HistogramFamily(name, upperBounds, labelNames);
+    family(name, help, "histogram").samples.add(histograms::writeTo);
+    return histograms;
+  }
+
+  public void writeTo(Writer writer) throws IOException {
+    for (var family : families) {
+      writer.write("# HELP " + family.name + " " + family.help + "\n");
+      writer.write("# TYPE " + family.name + " " + family.type + "\n");
+      for (var sample : family.samples) {
+        sample.writeTo(writer);
+      }
+    }
+  }
+
+  public String scrape() {
+    var writer = new StringWriter();
+    try {
+      writeTo(writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+
+  private synchronized Family family(String name, String help, String type) {
+    for (var family : families) {
+      if (family.name.equals(name)) {
+        if (!family.type.equals(type)) {
+          throw new IllegalArgumentException(
+              "Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+      }
+    }
+    var family = new Family(name, help, type);
+    families.add(family);
+    return family;
+  }
+
+  static void writeSample(Writer writer, String name, Map<String, String> labels, String value)
+      throws IOException {
+    writer.write(name);
+    if (!labels.isEmpty()) {
+      writer.write('{');
+      boolean first = true;
+      for (var label : new TreeMap<>(labels).entrySet()) {
+        if (!first) {
+          writer.write(',');
+        }
+        first = false;
+        writer.write(label.getKey());
+        writer.write("=\"");
+        writer.write(escape(label.getValue()));
+        writer.write('"');
+      }
+      writer.write('}');
+    }
+    writer.write(' ');
+    writer.write(value);
+    writer.write('\n');
+  }
+
+  static String formatValue(double value) {
+    if (value == Double.POSITIVE_INFINITY) {
+      return "+Inf";
+    } else if (value == Double.NEGATIVE_INFINITY) {
+      return "-Inf";
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  @FunctionalInterface
+  private interface Sample {
+
+    void writeTo(Writer writer) throws IOException;
+  }
+
+  private static class Family {
+
+    private final String name;
+    private final String help;
+    private final String type;
+    private final List<Sample> samples = new CopyOnWriteArrayList<>();
+
+    private Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+}
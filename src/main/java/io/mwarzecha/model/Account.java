@@ -30,6 +30,14 @@ public class Account {
     return balance.getValue();
   }
 
+  public long getBalanceMinorUnits() {
+    return balance.getMinorUnits();
+  }
+
+  public String getBalancePlainString() {
+    return balance.toPlainString();
+  }
+
   public String getCurrency() {
     return balance.getCurrencyCode();
   }
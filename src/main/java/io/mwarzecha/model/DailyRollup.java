@@ -0,0 +1,109 @@
+package io.mwarzecha.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Turnover of an account on one UTC day: the total amount it received, the total amount it sent
+ * and the number of transfers it took part in.
+ */
+public class DailyRollup {
+
+  private final long accountId;
+  private final LocalDate date;
+  private final Money inflow;
+  private final Money outflow;
+  private final long transferCount;
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  private DailyRollup(Builder builder) {
+    this.accountId = builder.accountId;
+    this.date = builder.date;
+    this.inflow = builder.inflow;
+    this.outflow = builder.outflow;
+    this.transferCount = builder.transferCount;
+  }
+
+  public long getAccountId() {
+    return accountId;
+  }
+
+  public LocalDate getDate() {
+    return date;
+  }
+
+  public String getCurrency() {
+    return inflow.getCurrencyCode();
+  }
+
+  public BigDecimal getInflow() {
+    return inflow.getValue();
+  }
+
+  public long getInflowMinorUnits() {
+    return inflow.getMinorUnits();
+  }
+
+  public String getInflowPlainString() {
+    return inflow.toPlainString();
+  }
+
+  public BigDecimal getOutflow() {
+    return outflow.getValue();
+  }
+
+  public long getOutflowMinorUnits() {
+    return outflow.getMinorUnits();
+  }
+
+  public String getOutflowPlainString() {
+    return outflow.toPlainString();
+  }
+
+  public long getTransferCount() {
+    return transferCount;
+  }
+
+  public static class Builder {
+
+    private long accountId;
+    private LocalDate date;
+    private Money inflow;
+    private Money outflow;
+    private long transferCount;
+
+    private Builder() {}
+
+    public Builder accountId(long accountId) {
+      this.accountId = accountId;
+      return this;
+    }
+
+    public Builder date(LocalDate date) {
+      this.date = date;
+      return this;
+    }
+
+    public Builder inflow(Money inflow) {
+      this.inflow = inflow;
+      return this;
+    }
+
+    public Builder outflow(Money outflow) {
+      this.outflow = outflow;
+      return this;
+    }
+
+    public Builder transferCount(long transferCount) {
+      this.transferCount = transferCount;
+      return this;
+    }
+
+    public DailyRollup build() {
+      return new DailyRollup(this);
+    }
+  }
+}
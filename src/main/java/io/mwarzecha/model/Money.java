@@ -3,30 +3,159 @@ package io.mwarzecha.model;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * An amount held as a {@code long} count of the currency's minor units, e.g. cents for USD.
+ * Currency metadata is looked up once per currency in a table built at class load, so creating,
+ * comparing and adding amounts never touches {@link Currency} or {@link BigDecimal}. Decimal
+ * values are only materialized at the edges, when parsing or printing.
+ */
 public class Money {
 
-  private final Currency currency;
-  private final BigDecimal value;
+  private static final Map<String, CurrencyUnit> CURRENCIES = currencyTable();
+
+  private final CurrencyUnit currency;
+  private final long minorUnits;
 
   public static Money zeroOf(String currency) {
-    return of(currency, BigDecimal.ZERO);
+    return ofMinorUnits(currency, 0L);
   }
 
+  /**
+   * Truncates any digits beyond the currency's minor unit, as the decimal representation did.
+   */
   public static Money of(String currencyCode, BigDecimal value) {
-    return new Money(Currency.getInstance(currencyCode), value);
+    var currency = currencyUnit(currencyCode);
+    try {
+      return new Money(currency, value.setScale(currency.fractionDigits, RoundingMode.DOWN)
+          .unscaledValue()
+          .longValueExact());
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Amount out of range: " + value.toPlainString());
+    }
+  }
+
+  public static Money ofMinorUnits(String currencyCode, long minorUnits) {
+    return new Money(currencyUnit(currencyCode), minorUnits);
+  }
+
+  /**
+   * Parses a plain decimal string such as {@code "-12.345"} straight into minor units, truncating
+   * extra fraction digits. Anything else, e.g. exponent notation, goes through {@link BigDecimal}.
+   */
+  public static Money parse(String currencyCode, String value) {
+    var currency = currencyUnit(currencyCode);
+    int length = value.length();
+    int i = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+    boolean negative = i == 1 && value.charAt(0) == '-';
+    long units = 0;
+    int fractionDigits = -1;
+    boolean anyDigit = false;
+    for (; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      } else if (c >= '0' && c <= '9') {
+        anyDigit = true;
+        if (fractionDigits < currency.fractionDigits) {
+          if (units > (Long.MAX_VALUE - 9) / 10) {
+            return of(currencyCode, new BigDecimal(value));
+          }
+          units = units * 10 + (c - '0');
+          if (fractionDigits >= 0) {
+            fractionDigits++;
+          }
+        }
+      } else {
+        return of(currencyCode, new BigDecimal(value));
+      }
+    }
+    if (!anyDigit) {
+      throw new NumberFormatException("Invalid amount: " + value);
+    }
+    try {
+      for (int scale = Math.max(fractionDigits, 0); scale < currency.fractionDigits; scale++) {
+        units = Math.multiplyExact(units, 10L);
+      }
+    } catch (ArithmeticException e) {
+      return of(currencyCode, new BigDecimal(value));
+    }
+    return new Money(currency, negative ? -units : units);
+  }
+
+  private static CurrencyUnit currencyUnit(String currencyCode) {
+    var currency = CURRENCIES.get(currencyCode);
+    if (currency == null) {
+      throw new IllegalArgumentException("Unknown currency " + currencyCode);
+    }
+    return currency;
+  }
+
+  private static Map<String, CurrencyUnit> currencyTable() {
+    var table = new HashMap<String, CurrencyUnit>();
+    for (var currency : Currency.getAvailableCurrencies()) {
+      table.put(currency.getCurrencyCode(), new CurrencyUnit(currency.getCurrencyCode(),
+          Math.max(currency.getDefaultFractionDigits(), 0)));
+    }
+    return Map.copyOf(table);
   }
 
-  private Money(Currency currency, BigDecimal value) {
+  private Money(CurrencyUnit currency, long minorUnits) {
     this.currency = currency;
-    this.value = value.setScale(currency.getDefaultFractionDigits(), RoundingMode.DOWN);
+    this.minorUnits = minorUnits;
   }
 
-  String getCurrencyCode() {
-    return currency.getCurrencyCode();
+  public String getCurrencyCode() {
+    return currency.code;
   }
 
-  BigDecimal getValue() {
-    return value;
+  public long getMinorUnits() {
+    return minorUnits;
+  }
+
+  public BigDecimal getValue() {
+    return BigDecimal.valueOf(minorUnits, currency.fractionDigits);
+  }
+
+  /**
+   * Formats the amount the way {@link BigDecimal#toPlainString()} would at the currency's scale.
+   */
+  public String toPlainString() {
+    int scale = currency.fractionDigits;
+    if (scale == 0) {
+      return Long.toString(minorUnits);
+    }
+    var digits = minorUnits == Long.MIN_VALUE
+        ? Long.toString(minorUnits).substring(1)
+        : Long.toString(Math.abs(minorUnits));
+    var result = new StringBuilder(digits.length() + scale + 3);
+    if (minorUnits < 0) {
+      result.append('-');
+    }
+    int integerDigits = digits.length() - scale;
+    if (integerDigits > 0) {
+      result.append(digits, 0, integerDigits).append('.').append(digits, integerDigits,
+          digits.length());
+    } else {
+      result.append("0.");
+      for (int i = integerDigits; i < 0; i++) {
+        result.append('0');
+      }
+      result.append(digits);
+    }
+    return result.toString();
+  }
+
+  private static class CurrencyUnit {
+
+    private final String code;
+    private final int fractionDigits;
+
+    private CurrencyUnit(String code, int fractionDigits) {
+      this.code = code;
+      this.fractionDigits = fractionDigits;
+    }
   }
-}
\ No newline at end of file
+}
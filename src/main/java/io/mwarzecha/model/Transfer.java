@@ -43,6 +43,14 @@ public class Transfer {
     return amount.getValue();
   }
 
+  public long getAmountMinorUnits() {
+    return amount.getMinorUnits();
+  }
+
+  public String getAmountPlainString() {
+    return amount.toPlainString();
+  }
+
   public Instant getTimestamp() {
     return timestamp;
   }
@@ -54,6 +62,17 @@ public class Transfer {
   public Transfer withIdAndTimestamp(long id, Instant timestamp) {
     return new Transfer(id, this.fromAccountId, this.toAccountId, this.amount, timestamp);
   }
+
+  /**
+   * Whether both transfers move the same amount between the same accounts, whatever their ids
+   * and timestamps.
+   */
+  public boolean hasSameDetailsAs(Transfer other) {
+    return fromAccountId == other.fromAccountId
+        && toAccountId == other.toAccountId
+        && getCurrency().equals(other.getCurrency())
+        && getAmountMinorUnits() == other.getAmountMinorUnits();
+  }
   
   public static class Builder {
 
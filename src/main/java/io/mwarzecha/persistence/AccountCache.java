@@ -0,0 +1,107 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recently used accounts, bounded to about {@code maxSize} entries. Lookups only read a
+ * concurrent map and set the entry's reference bit, so cache hits never contend on a lock.
+ * Adding an entry beyond {@code maxSize} evicts one by the CLOCK approximation of least recently
+ * used: a hand sweeps the entries, clearing set reference bits and evicting the first entry found
+ * without one.
+ *
+ * <p>Every invalidation bumps the generation of the account's stripe, and a loaded account is only
+ * stored if no invalidation happened in its stripe since the load started, so a read racing with
+ * a commit can never put the pre-commit balance back, while commits to accounts in other stripes
+ * leave the load alone. The check and the store run atomically for the account's key, so an
+ * invalidation either stops the store or removes what it stored.
+ */
+class AccountCache {
+
+  private static final int GENERATION_STRIPES = 1024;
+
+  private final int maxSize;
+  private final AccountCacheStats stats;
+  private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+  private Iterator<Entry> hand = Collections.emptyIterator();
+
+  AccountCache(int maxSize, AccountCacheStats stats) {
+    this.maxSize = maxSize;
+    this.stats = stats;
+  }
+
+  Account get(long accountId) {
+    var entry = entries.get(accountId);
+    if (entry == null) {
+      stats.recordMiss();
+      return null;
+    }
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+    stats.recordHit();
+    return entry.account;
+  }
+
+  long generation(long accountId) {
+    return generations.get(stripeOf(accountId));
+  }
+
+  void put(Account account) {
+    entries.put(account.getId(), new Entry(account));
+    evictWhileFull();
+  }
+
+  /**
+   * Stores an account loaded after {@link #generation(long)} returned {@code loadGeneration} for
+   * it, unless it may have been invalidated in the meantime.
+   */
+  void putIfCurrent(Account account, long loadGeneration) {
+    entries.compute(account.getId(), (accountId, current) ->
+        generation(accountId) == loadGeneration ? new Entry(account) : current);
+    evictWhileFull();
+  }
+
+  void invalidate(long accountId) {
+    generations.incrementAndGet(stripeOf(accountId));
+    if (entries.remove(accountId) != null) {
+      stats.recordInvalidation();
+    }
+  }
+
+  private static int stripeOf(long accountId) {
+    int hash = Long.hashCode(accountId);
+    return (hash ^ hash >>> 16) & (GENERATION_STRIPES - 1);
+  }
+
+  private synchronized void evictWhileFull() {
+    while (entries.size() > maxSize) {
+      if (!hand.hasNext()) {
+        hand = entries.values().iterator();
+        if (!hand.hasNext()) {
+          return;
+        }
+      }
+      var entry = hand.next();
+      if (entry.referenced) {
+        entry.referenced = false;
+      } else if (entries.remove(entry.account.getId(), entry)) {
+        stats.recordEviction();
+      }
+    }
+  }
+
+  private static class Entry {
+
+    private final Account account;
+    private volatile boolean referenced;
+
+    private Entry(Account account) {
+      this.account = account;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package io.mwarzecha.persistence;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookups served by the account cache, and entries it has dropped.
+ */
+public class AccountCacheStats {
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  void recordHit() {
+    hits.increment();
+  }
+
+  void recordMiss() {
+    misses.increment();
+  }
+
+  void recordEviction() {
+    evictions.increment();
+  }
+
+  void recordInvalidation() {
+    invalidations.increment();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public long getInvalidationCount() {
+    return invalidations.sum();
+  }
+
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long lookups = hitCount + misses.sum();
+    return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+  }
+}
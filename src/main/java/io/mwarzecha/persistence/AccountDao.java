@@ -1,17 +1,41 @@
 package io.mwarzecha.persistence;
 
 import io.mwarzecha.model.Account;
-import java.math.BigDecimal;
+import io.mwarzecha.model.Money;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.function.Supplier;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.mapper.RowMapper;
 import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
 
+/**
+ * Reads and updates accounts. The balance of an account may be split into
+ * {@code account.balance_slots} rows of {@code account_balance_slot}, so that concurrent
+ * transfers to and from a hot account update different rows instead of queueing on its row lock.
+ * Such an account keeps a zero balance in its own row; reads sum up its slots, and each update
+ * goes to a single slot, picked in turn for every update so that consecutive transfers spread
+ * over the slots whichever thread applies them, with debits moving on to the next slots when a
+ * slot does not hold the whole amount.
+ *
+ * <p>Locks are taken in account id order, the account row before its slots. A transfer updating
+ * a slot does not lock the account row, so one finding the slots changed under it by a
+ * concurrent {@link #setBalanceSlots} looks the number of slots up again and retries.
+ */
 class AccountDao {
 
   private static final RowMapper<Account> ACCOUNT_ROW_MAPPER = new AccountRowMapper();
+  private static final int SLOT_CHANGE_ATTEMPTS = 3;
+  private static final AtomicInteger SLOT_SEQUENCE = new AtomicInteger();
+  private static final String ACCOUNT_COLUMNS = "id, owner, currency, "
+      + "CASE WHEN balance_slots = 0 THEN balance ELSE (SELECT SUM(s.balance) "
+      + "FROM account_balance_slot s WHERE s.account_id = account.id) END AS balance";
 
   private final Handle handle;
 
@@ -25,61 +49,386 @@ class AccountDao {
 
   List<Account> getAllAccounts() {
     return handle
-        .select("SELECT * FROM account")
+        .select("SELECT " + ACCOUNT_COLUMNS + " FROM account")
         .map(ACCOUNT_ROW_MAPPER)
         .list();
   }
 
   Optional<Account> getAccountById(long accountId) {
     return handle
-        .select("SELECT * FROM account WHERE id = ?", accountId)
+        .select("SELECT " + ACCOUNT_COLUMNS + " FROM account WHERE id = ?", accountId)
         .map(ACCOUNT_ROW_MAPPER)
         .findFirst();
   }
 
+  /**
+   * Locks the accounts together with their balance slots and returns them with the balances read
+   * under those locks, so that no transfer can change a balance checked against them until the
+   * transaction ends. The rows are locked in runs ending at each account with slots, whose slots
+   * are locked right after it, keeping to id order.
+   */
+  Map<Long, Account> getAccountsByIdForUpdate(Collection<Long> accountIds) {
+    if (accountIds.isEmpty()) {
+      return Map.of();
+    }
+    var slotted = new HashSet<>(handle
+        .select("SELECT id FROM account WHERE id IN (<ids>) AND balance_slots > 0")
+        .bindList("ids", List.copyOf(accountIds))
+        .mapTo(Long.class)
+        .list());
+    var accounts = new HashMap<Long, Account>();
+    var run = new ArrayList<Long>();
+    for (long accountId : new TreeSet<>(accountIds)) {
+      run.add(accountId);
+      if (slotted.contains(accountId)) {
+        lockAccountRows(run, accounts);
+        run.clear();
+      }
+    }
+    lockAccountRows(run, accounts);
+    return accounts;
+  }
+
+  /**
+   * Locks the account rows, then the slots of every account split into them, adding the slots up
+   * into its balance.
+   */
+  private void lockAccountRows(List<Long> accountIds, Map<Long, Account> accounts) {
+    if (accountIds.isEmpty()) {
+      return;
+    }
+    var slotted = new ArrayList<Long>();
+    handle.select("SELECT id, owner, currency, balance, balance_slots FROM account "
+        + "WHERE id IN (<ids>) ORDER BY id FOR UPDATE")
+        .bindList("ids", List.copyOf(accountIds))
+        .map((rs, ctx) -> {
+          if (rs.getInt("balance_slots") > 0) {
+            slotted.add(rs.getLong("id"));
+          }
+          return ACCOUNT_ROW_MAPPER.map(rs, ctx);
+        })
+        .forEach(account -> accounts.put(account.getId(), account));
+    for (long accountId : slotted) {
+      var account = accounts.get(accountId);
+      long balance = handle
+          .select("SELECT balance FROM account_balance_slot WHERE account_id = ? "
+              + "ORDER BY slot FOR UPDATE", accountId)
+          .mapTo(Long.class)
+          .list()
+          .stream()
+          .mapToLong(Long::longValue)
+          .sum();
+      accounts.put(accountId, Account.newBuilder()
+          .id(accountId)
+          .owner(account.getOwner())
+          .balance(Money.ofMinorUnits(account.getCurrency(),
+              account.getBalanceMinorUnits() + balance))
+          .build());
+    }
+  }
+
   Account persistAccount(Account account) {
     long accountId = handle
         .createUpdate("INSERT INTO account (owner, currency, balance) VALUES (?, ?, ?)")
         .bind(0, account.getOwner())
         .bind(1, account.getCurrency())
-        .bind(2, account.getBalance())
+        .bind(2, account.getBalanceMinorUnits())
         .executeAndReturnGeneratedKeys()
         .mapTo(Long.class)
         .one();
     return account.withId(accountId);
   }
 
-  AccountDao debitAccount(long accountId, BigDecimal amount, String currency) {
-    int rowsUpdated = executeDebitUpdate(accountId, amount, currency);
-    assertOne(rowsUpdated, () -> invalidAccountIdOrCurrencyMessage(accountId, currency));
+  /**
+   * Inserts the accounts with one JDBC batch and returns them with their generated ids.
+   */
+  List<Account> persistAccounts(List<Account> accounts) {
+    if (accounts.isEmpty()) {
+      return List.of();
+    }
+    var batch = handle.prepareBatch(
+        "INSERT INTO account (owner, currency, balance) VALUES (?, ?, ?)");
+    accounts.forEach(account -> batch.add(account.getOwner(), account.getCurrency(),
+        account.getBalanceMinorUnits()));
+    List<Long> accountIds = batch
+        .executeAndReturnGeneratedKeys("id")
+        .mapTo(Long.class)
+        .list();
+    var persisted = new ArrayList<Account>(accounts.size());
+    for (int i = 0; i < accounts.size(); i++) {
+      persisted.add(accounts.get(i).withId(accountIds.get(i)));
+    }
+    return persisted;
+  }
+
+  /**
+   * Inserts accounts with the ids they already have.
+   */
+  AccountDao insertAccounts(List<Account> accounts) {
+    if (accounts.isEmpty()) {
+      return this;
+    }
+    var batch = handle.prepareBatch(
+        "INSERT INTO account (id, owner, currency, balance) VALUES (?, ?, ?, ?)");
+    accounts.forEach(account -> batch.add(account.getId(), account.getOwner(),
+        account.getCurrency(), account.getBalanceMinorUnits()));
+    batch.execute();
     return this;
   }
 
-  private int executeDebitUpdate(long accountId, BigDecimal amount, String currency) {
+  AccountDao debitAccount(long accountId, long amount, String currency) {
+    if (executeDebitUpdate(accountId, amount, currency) == 1
+        || executeSlotUpdate("balance - ?", " AND balance >= ?", accountId, amount,
+            currency) == 1) {
+      return this;
+    }
+    for (int attempt = 0; attempt < SLOT_CHANGE_ATTEMPTS; attempt++) {
+      int slots = balanceSlotsOf(accountId, currency);
+      if (slots == 0
+          ? executeDebitUpdate(accountId, amount, currency) == 1
+          : debitSlots(accountId, amount, slots)) {
+        return this;
+      }
+    }
+    throw slotsChanged(accountId);
+  }
+
+  private int executeDebitUpdate(long accountId, long amount, String currency) {
     try {
       return handle
-          .execute("UPDATE account SET balance = balance - ? WHERE id = ? AND currency = ?",
+          .execute("UPDATE account SET balance = balance - ? "
+                  + "WHERE id = ? AND currency = ? AND balance_slots = 0",
               amount, accountId, currency);
     } catch (UnableToExecuteStatementException ex) {
-      throw new IllegalStateException("Insufficient funds");
+      throw new InsufficientFundsException();
     }
   }
 
-  private static void assertOne(int value, Supplier<String> messageSupplier) {
-    if (value != 1) {
-      throw new IllegalStateException(messageSupplier.get());
+  AccountDao creditAccount(long accountId, long amount, String currency) {
+    if (executeCreditUpdate(accountId, amount, currency) == 1
+        || executeSlotUpdate("balance + ?", "", accountId, amount, currency) == 1) {
+      return this;
+    }
+    for (int attempt = 0; attempt < SLOT_CHANGE_ATTEMPTS; attempt++) {
+      int slots = balanceSlotsOf(accountId, currency);
+      if (slots == 0
+          ? executeCreditUpdate(accountId, amount, currency) == 1
+          : creditSlot(accountId, amount, slots)) {
+        return this;
+      }
     }
+    throw slotsChanged(accountId);
   }
 
-  private static String invalidAccountIdOrCurrencyMessage(long accountId, String currency) {
-    return String.format("Invalid account id %d or currency %s", accountId, currency);
+  private int executeCreditUpdate(long accountId, long amount, String currency) {
+    return handle
+        .execute("UPDATE account SET balance = balance + ? "
+                + "WHERE id = ? AND currency = ? AND balance_slots = 0",
+            amount, accountId, currency);
   }
 
-  AccountDao creditAccount(long accountId, BigDecimal amount, String currency) {
-    int rowsUpdated = handle
-        .execute("UPDATE account SET balance = balance + ? WHERE id = ? AND currency = ?",
-            amount, accountId, currency);
-    assertOne(rowsUpdated, () -> invalidAccountIdOrCurrencyMessage(accountId, currency));
+  /**
+   * Updates the next slot of an account whose balance is split, looking the number of slots up in
+   * the same statement; matches no row for any other account.
+   */
+  private int executeSlotUpdate(String balance, String condition, long accountId, long amount,
+      String currency) {
+    var update = handle.createUpdate("UPDATE account_balance_slot SET balance = " + balance
+        + " WHERE account_id = ? AND slot = MOD(?, (SELECT balance_slots FROM account "
+        + "WHERE id = ? AND currency = ? AND balance_slots > 0))" + condition)
+        .bind(0, amount)
+        .bind(1, accountId)
+        .bind(2, nextSlotHash())
+        .bind(3, accountId)
+        .bind(4, currency);
+    if (!condition.isEmpty()) {
+      update.bind(5, amount);
+    }
+    return update.execute();
+  }
+
+  AccountDao debitAccounts(Map<Long, Long> amountsByAccountId) {
+    return executeBatch("UPDATE account SET balance = balance - ? "
+        + "WHERE id = ? AND balance_slots = 0", amountsByAccountId, this::debitSlots);
+  }
+
+  AccountDao creditAccounts(Map<Long, Long> amountsByAccountId) {
+    return executeBatch("UPDATE account SET balance = balance + ? "
+        + "WHERE id = ? AND balance_slots = 0", amountsByAccountId, this::creditSlot);
+  }
+
+  /**
+   * Updates the accounts whose balance is not split with one JDBC batch, in id order, then the
+   * others slot by slot. The caller must hold the locks taken by
+   * {@link #getAccountsByIdForUpdate}, so that the slots cannot change meanwhile.
+   */
+  private AccountDao executeBatch(String sql, Map<Long, Long> amountsByAccountId,
+      SlotUpdate slotUpdate) {
+    if (amountsByAccountId.isEmpty()) {
+      return this;
+    }
+    var accountIds = List.copyOf(new TreeSet<>(amountsByAccountId.keySet()));
+    var batch = handle.prepareBatch(sql);
+    accountIds.forEach(accountId -> batch.add(amountsByAccountId.get(accountId), accountId));
+    int[] rowsUpdated = batch.execute();
+    for (int i = 0; i < rowsUpdated.length; i++) {
+      if (rowsUpdated[i] != 1) {
+        long accountId = accountIds.get(i);
+        int slots = balanceSlotsOf(accountId).orElseThrow(
+            () -> new IllegalStateException("Batch update did not match a single account"));
+        if (!slotUpdate.apply(accountId, amountsByAccountId.get(accountId), slots)) {
+          throw slotsChanged(accountId);
+        }
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Splits the balance of the account evenly into the given number of slots, or merges it back
+   * into the account row for a single slot. Locks the account and its current slots first, so
+   * that no transfer in flight is lost.
+   */
+  Optional<Account> setBalanceSlots(long accountId, int slots) {
+    var locked = handle.select("SELECT id FROM account WHERE id = ? FOR UPDATE", accountId)
+        .mapTo(Long.class)
+        .findFirst();
+    if (locked.isEmpty()) {
+      return Optional.empty();
+    }
+    handle.select("SELECT slot FROM account_balance_slot WHERE account_id = ? FOR UPDATE",
+        accountId)
+        .mapTo(Integer.class)
+        .list();
+    var account = getAccountById(accountId).orElseThrow();
+    long balance = account.getBalanceMinorUnits();
+    handle.execute("DELETE FROM account_balance_slot WHERE account_id = ?", accountId);
+    if (slots == 1) {
+      handle.execute("UPDATE account SET balance = ?, balance_slots = 0 WHERE id = ?",
+          balance, accountId);
+      return Optional.of(account);
+    }
+    handle.execute("UPDATE account SET balance = 0, balance_slots = ? WHERE id = ?",
+        slots, accountId);
+    var batch = handle.prepareBatch(
+        "INSERT INTO account_balance_slot (account_id, slot, balance) VALUES (?, ?, ?)");
+    for (int slot = 0; slot < slots; slot++) {
+      batch.add(accountId, slot, balance / slots + (slot == 0 ? balance % slots : 0));
+    }
+    batch.execute();
+    return Optional.of(account);
+  }
+
+  /**
+   * Locks the accounts with ids from {@code fromAccountId}, inclusive, to {@code toAccountId},
+   * exclusive, together with their balance slots, so that no transfer to or from them can be
+   * made until the transaction ends.
+   */
+  AccountDao lockAccounts(long fromAccountId, long toAccountId) {
+    handle.select("SELECT id FROM account WHERE id >= ? AND id < ? ORDER BY id FOR UPDATE",
+        fromAccountId, toAccountId)
+        .mapTo(Long.class)
+        .list();
+    handle.select("SELECT slot FROM account_balance_slot WHERE account_id >= ? "
+        + "AND account_id < ? ORDER BY account_id, slot FOR UPDATE", fromAccountId, toAccountId)
+        .mapTo(Integer.class)
+        .list();
     return this;
   }
-}
\ No newline at end of file
+
+  /**
+   * The number of slots of the account, zero if its balance is not split.
+   */
+  private int balanceSlotsOf(long accountId, String currency) {
+    return handle
+        .select("SELECT balance_slots FROM account WHERE id = ? AND currency = ?",
+            accountId, currency)
+        .mapTo(Integer.class)
+        .findFirst()
+        .orElseThrow(() -> new InvalidAccountException(accountId, currency));
+  }
+
+  private Optional<Integer> balanceSlotsOf(long accountId) {
+    return handle
+        .select("SELECT balance_slots FROM account WHERE id = ?", accountId)
+        .mapTo(Integer.class)
+        .findFirst()
+        .filter(slots -> slots > 0);
+  }
+
+  /**
+   * Credits the next slot. Returns false if the account no longer has it.
+   */
+  private boolean creditSlot(long accountId, long amount, int slots) {
+    return handle
+        .execute("UPDATE account_balance_slot SET balance = balance + ? "
+            + "WHERE account_id = ? AND slot = ?", amount, accountId, nextSlot(slots)) == 1;
+  }
+
+  /**
+   * Debits the first slot, starting from the next one, that holds the whole amount, or spreads
+   * the debit over several slots if none does. Returns false if the account no longer has slots.
+   */
+  private boolean debitSlots(long accountId, long amount, int slots) {
+    int next = nextSlot(slots);
+    for (int i = 0; i < slots; i++) {
+      int rowsUpdated = handle
+          .execute("UPDATE account_balance_slot SET balance = balance - ? "
+                  + "WHERE account_id = ? AND slot = ? AND balance >= ?",
+              amount, accountId, (next + i) % slots, amount);
+      if (rowsUpdated == 1) {
+        return true;
+      }
+    }
+    return drainSlots(accountId, amount);
+  }
+
+  private boolean drainSlots(long accountId, long amount) {
+    var balances = handle
+        .select("SELECT slot, balance FROM account_balance_slot WHERE account_id = ? "
+            + "ORDER BY slot FOR UPDATE", accountId)
+        .map((rs, ctx) -> new long[] {rs.getInt("slot"), rs.getLong("balance")})
+        .list();
+    if (balances.isEmpty()) {
+      return false;
+    }
+    if (balances.stream().mapToLong(slot -> slot[1]).sum() < amount) {
+      throw new InsufficientFundsException();
+    }
+    var batch = handle.prepareBatch("UPDATE account_balance_slot SET balance = balance - ? "
+        + "WHERE account_id = ? AND slot = ?");
+    long remaining = amount;
+    for (var slot : balances) {
+      long debited = Math.min(slot[1], remaining);
+      if (debited > 0) {
+        batch.add(debited, accountId, slot[0]);
+        remaining -= debited;
+      }
+    }
+    batch.execute();
+    return true;
+  }
+
+  private static int nextSlot(int slots) {
+    return nextSlotHash() % slots;
+  }
+
+  /**
+   * Taken in turn by every slot update, rather than from the applying thread, so that a single
+   * thread committing many transfers, like the group committer, spreads them over the slots too.
+   */
+  private static int nextSlotHash() {
+    return SLOT_SEQUENCE.getAndIncrement() & Integer.MAX_VALUE;
+  }
+
+  private static IllegalStateException slotsChanged(long accountId) {
+    return new IllegalStateException(
+        "Balance slots of account " + accountId + " changed during the transfer");
+  }
+
+  @FunctionalInterface
+  private interface SlotUpdate {
+
+    boolean apply(long accountId, long amount, int slots);
+  }
+}
@@ -14,8 +14,8 @@ class AccountRowMapper implements RowMapper<Account> {
     return Account.newBuilder()
         .id(rs.getLong("id"))
         .owner(rs.getString("owner"))
-        .balance(Money.of(rs.getString("currency"),
-            rs.getBigDecimal("balance")))
+        .balance(Money.ofMinorUnits(rs.getString("currency"),
+            rs.getLong("balance")))
         .build();
   }
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import io.mwarzecha.util.VirtualThreads;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs every call of a {@link PersistenceService} on a dedicated, bounded executor and returns its
+ * result as a future, so that callers never block on the database themselves.
+ *
+ * <p>The executor has a fixed number of threads, normally as many as there are pooled
+ * connections, and a bounded queue in front of them. A call arriving while the queue is full is
+ * not queued at all: its future fails straight away with a {@link RejectedExecutionException}.
+ * Created {@link #onVirtualThreads(PersistenceService, int)}, every call instead runs on a virtual
+ * thread of its own, with a semaphore bounding the calls in flight in place of the queue.
+ *
+ * <p>Transfers are handed to {@link PersistenceService#submitTransfer(Transfer)}, so with an
+ * engine committing them on threads of its own an executor thread is only held while the transfer
+ * is queued, not until it is committed.
+ */
+public class AsyncPersistenceService implements AutoCloseable {
+
+  private final PersistenceService delegate;
+  private final ExecutorService executor;
+  private final Semaphore permits;
+  private final int maxCalls;
+  private final LongAdder rejections = new LongAdder();
+
+  AsyncPersistenceService(PersistenceService delegate, int threads, int queueSize) {
+    this(delegate, "db-executor-", threads, queueSize);
+  }
+
+  /**
+   * Runs the calls on threads named after the given prefix. Without a queue, a call arriving while
+   * every thread is busy is rejected.
+   */
+  AsyncPersistenceService(PersistenceService delegate, String threadNamePrefix, int threads,
+      int queueSize) {
+    this(delegate, platformExecutor(threadNamePrefix, threads, queueSize), null, 0);
+  }
+
+  /**
+   * Runs every call on a new virtual thread, with at most {@code maxCalls} calls in flight.
+   * Further calls are rejected the same way as calls finding the queue full.
+   */
+  static AsyncPersistenceService onVirtualThreads(PersistenceService delegate, int maxCalls) {
+    return new AsyncPersistenceService(delegate, VirtualThreads.newVirtualThreadPerTaskExecutor(),
+        new Semaphore(maxCalls), maxCalls);
+  }
+
+  private AsyncPersistenceService(PersistenceService delegate, ExecutorService executor,
+      Semaphore permits, int maxCalls) {
+    this.delegate = delegate;
+    this.executor = executor;
+    this.permits = permits;
+    this.maxCalls = maxCalls;
+  }
+
+  private static ThreadPoolExecutor platformExecutor(String threadNamePrefix, int threads,
+      int queueSize) {
+    var threadCount = new AtomicInteger();
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+        runnable -> {
+          var thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  public CompletableFuture<List<Transfer>> getTransfersByAccountId(long accountId) {
+    return submit(service -> service.getTransfersByAccountId(accountId));
+  }
+
+  public CompletableFuture<List<Transfer>> getTransfersByAccountId(long accountId,
+      long afterTransferId, int limit) {
+    return submit(service -> service.getTransfersByAccountId(accountId, afterTransferId, limit));
+  }
+
+  /**
+   * Passes every transfer of the account to the action on an executor thread, completing once the
+   * last one has been passed.
+   */
+  public CompletableFuture<Void> forEachTransferByAccountId(long accountId,
+      Consumer<Transfer> action) {
+    return submit(service -> {
+      service.forEachTransferByAccountId(accountId, action);
+      return null;
+    });
+  }
+
+  public CompletableFuture<Optional<Transfer>> getTransferByIdAndAccountId(long transferId,
+      long accountId) {
+    return submit(service -> service.getTransferByIdAndAccountId(transferId, accountId));
+  }
+
+  public CompletableFuture<List<Account>> getAllAccounts() {
+    return submit(PersistenceService::getAllAccounts);
+  }
+
+  public CompletableFuture<Optional<Account>> getAccountById(long accountId) {
+    return submit(service -> service.getAccountById(accountId));
+  }
+
+  public CompletableFuture<Account> persistAccount(Account account) {
+    return submit(service -> service.persistAccount(account));
+  }
+
+  public CompletableFuture<List<Account>> persistAccounts(List<Account> accounts) {
+    return submit(service -> service.persistAccounts(accounts));
+  }
+
+  public CompletableFuture<Optional<Account>> setBalanceSlots(long accountId, int slots) {
+    return submit(service -> service.setBalanceSlots(accountId, slots));
+  }
+
+  public CompletableFuture<List<DailyRollup>> getDailyRollups(long accountId, LocalDate from,
+      LocalDate to) {
+    return submit(service -> service.getDailyRollups(accountId, from, to));
+  }
+
+  public CompletableFuture<Optional<Account>> getAccountBalanceAt(long accountId, Instant at) {
+    return submit(service -> service.getAccountBalanceAt(accountId, at));
+  }
+
+  public CompletableFuture<Try<Transfer>> makeTransfer(Transfer transfer) {
+    return submit(service -> service.submitTransfer(transfer))
+        .thenCompose(Function.identity());
+  }
+
+  public CompletableFuture<Try<Transfer>> makeTransfer(Transfer transfer,
+      String idempotencyKey) {
+    return submit(service -> service.submitTransfer(transfer, idempotencyKey))
+        .thenCompose(Function.identity());
+  }
+
+  public CompletableFuture<List<Try<Transfer>>> makeTransfers(List<Transfer> transfers) {
+    return submit(service -> service.makeTransfers(transfers));
+  }
+
+  /**
+   * Runs the call against the wrapped service on an executor thread, for callers that consume the
+   * results as they are read rather than once the call has returned.
+   */
+  public <T> CompletableFuture<T> submit(Function<PersistenceService, T> call) {
+    if (permits != null && !permits.tryAcquire()) {
+      return rejected(null);
+    }
+    try {
+      var future = CompletableFuture.supplyAsync(() -> call.apply(delegate), executor);
+      if (permits != null) {
+        future.whenComplete((result, throwable) -> permits.release());
+      }
+      return future;
+    } catch (RejectedExecutionException e) {
+      if (permits != null) {
+        permits.release();
+      }
+      return rejected(e);
+    }
+  }
+
+  private <T> CompletableFuture<T> rejected(RejectedExecutionException cause) {
+    rejections.increment();
+    return CompletableFuture.failedFuture(
+        new RejectedExecutionException("Database executor queue is full", cause));
+  }
+
+  /**
+   * Answered by the wrapped service directly, since it does not touch the database.
+   */
+  public OptionalLong getProjectionLag() {
+    return delegate.getProjectionLag();
+  }
+
+  /**
+   * Calls waiting for an executor thread, always zero on virtual threads, where calls wait for a
+   * connection instead.
+   */
+  public int getQueueSize() {
+    return permits == null ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+  }
+
+  public int getActiveCount() {
+    return permits == null
+        ? ((ThreadPoolExecutor) executor).getActiveCount()
+        : maxCalls - permits.availablePermits();
+  }
+
+  public long getRejectionCount() {
+    return rejections.sum();
+  }
+
+  /**
+   * Lets the calls already accepted finish, then stops the executor threads.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+  }
+}
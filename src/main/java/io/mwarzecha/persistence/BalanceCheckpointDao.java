@@ -0,0 +1,158 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import java.time.Instant;
+import java.util.Optional;
+import org.jdbi.v3.core.Handle;
+
+/**
+ * Reads and writes the balances of accounts as of past instants. A checkpoint in
+ * {@code balance_checkpoint} holds the balance of an account including every transfer with a
+ * timestamp up to its {@code as_of}; the balance at any later instant is the one of the latest
+ * checkpoint before it plus the transfers in between, which are found through the
+ * {@code (from_account, timestamp)} and {@code (to_account, timestamp)} indexes of
+ * {@code transfer}. Every account has an opening checkpoint as of the epoch, holding its balance
+ * before any transfer, which is derived from its current balance and ledger entries the first
+ * time it is needed, or by the {@link TransferArchiver} before the first of its transfers is
+ * archived, so that it never has to be derived from the archive. Transfers moved to the
+ * {@link TransferArchive} are summed up from there and only the later ones from the database, so
+ * callers must hold its read lock.
+ */
+class BalanceCheckpointDao {
+
+  private final Handle handle;
+  private final TransferArchive archive;
+
+  static BalanceCheckpointDao withHandle(Handle handle) {
+    return withHandle(handle, TransferArchive.none());
+  }
+
+  static BalanceCheckpointDao withHandle(Handle handle, TransferArchive archive) {
+    return new BalanceCheckpointDao(handle, archive);
+  }
+
+  private BalanceCheckpointDao(Handle handle, TransferArchive archive) {
+    this.handle = handle;
+    this.archive = archive;
+  }
+
+  /**
+   * Returns the account with the balance it had at the given instant, or empty if it does not
+   * exist.
+   */
+  Optional<Account> getAccountAt(long accountId, Instant at) {
+    return AccountDao.withHandle(handle).getAccountById(accountId).map(account -> {
+      var checkpoint = latestCheckpoint(accountId, at);
+      long balance = checkpoint.balance + changeOf(accountId, checkpoint.asOf, at).change;
+      return Account.newBuilder()
+          .id(account.getId())
+          .owner(account.getOwner())
+          .balance(Money.ofMinorUnits(account.getCurrency(), balance))
+          .build();
+    });
+  }
+
+  /**
+   * Adds a checkpoint of the account as of the given instant, unless fewer than
+   * {@code minTransfers} transfers were made since the latest one before it. Transfers with a
+   * timestamp up to {@code asOf} must no longer be in flight. Returns whether one was added.
+   */
+  boolean checkpoint(long accountId, Instant asOf, int minTransfers) {
+    var latest = latestCheckpoint(accountId, asOf);
+    var change = changeOf(accountId, latest.asOf, asOf);
+    if (change.transfers < Math.max(1, minTransfers)) {
+      return false;
+    }
+    handle.execute("INSERT INTO balance_checkpoint (account_id, as_of, balance) VALUES (?, ?, ?)",
+        accountId, asOf, latest.balance + change.change);
+    return true;
+  }
+
+  /**
+   * Adds the opening checkpoint of the account unless it has one already.
+   */
+  void ensureOpeningCheckpoint(long accountId) {
+    latestCheckpoint(accountId, Instant.EPOCH);
+  }
+
+  private Checkpoint latestCheckpoint(long accountId, Instant at) {
+    return handle
+        .select("SELECT as_of, balance FROM balance_checkpoint WHERE account_id = ? "
+            + "AND as_of <= ? ORDER BY as_of DESC LIMIT 1", accountId, at)
+        .map((rs, ctx) -> new Checkpoint(rs.getTimestamp("as_of").toInstant(),
+            rs.getLong("balance")))
+        .findFirst()
+        .orElseGet(() -> openingCheckpoint(accountId));
+  }
+
+  /**
+   * Derives the opening balance from the current one and the ledger entries of every transfer
+   * made, with the account locked so that both agree. None of them has been archived yet, since
+   * the archiver adds the checkpoint first.
+   */
+  private Checkpoint openingCheckpoint(long accountId) {
+    var accountDao = AccountDao.withHandle(handle).lockAccounts(accountId, accountId + 1);
+    long balance = accountDao.getAccountById(accountId).orElseThrow().getBalanceMinorUnits();
+    long transferred = handle
+        .select("SELECT COALESCE(SUM(amount), 0) FROM ledger_entry WHERE account_id = ?",
+            accountId)
+        .mapTo(Long.class)
+        .one();
+    var opening = new Checkpoint(Instant.EPOCH, balance - transferred);
+    handle.execute("MERGE INTO balance_checkpoint (account_id, as_of, balance) "
+        + "KEY (account_id, as_of) VALUES (?, ?, ?)", accountId, opening.asOf, opening.balance);
+    return opening;
+  }
+
+  /**
+   * Sums up the transfers of the account with a timestamp after {@code after} and up to
+   * {@code upTo}.
+   */
+  private Change changeOf(long accountId, Instant after, Instant upTo) {
+    var change = handle
+        .select("SELECT COALESCE(SUM(amount), 0) AS change, COUNT(*) AS transfers FROM ("
+                + "SELECT amount FROM transfer "
+                + "WHERE to_account = ? AND timestamp > ? AND timestamp <= ? AND id > ? "
+                + "UNION ALL SELECT -amount FROM transfer "
+                + "WHERE from_account = ? AND timestamp > ? AND timestamp <= ? AND id > ?)",
+            accountId, after, upTo, archive.maxTransferId(),
+            accountId, after, upTo, archive.maxTransferId())
+        .map((rs, ctx) -> new Change(rs.getLong("change"), rs.getLong("transfers")))
+        .one();
+    var archived = archivedChangeOf(accountId, after, upTo);
+    return new Change(change.change + archived.change, change.transfers + archived.transfers);
+  }
+
+  private Change archivedChangeOf(long accountId, Instant after, Instant upTo) {
+    long[] totals = new long[2];
+    archive.forEachTransferByAccountId(accountId, after, upTo, transfer -> {
+      totals[0] += transfer.getToAccountId() == accountId
+          ? transfer.getAmountMinorUnits() : -transfer.getAmountMinorUnits();
+      totals[1]++;
+    });
+    return new Change(totals[0], totals[1]);
+  }
+
+  private static class Checkpoint {
+
+    private final Instant asOf;
+    private final long balance;
+
+    private Checkpoint(Instant asOf, long balance) {
+      this.asOf = asOf;
+      this.balance = balance;
+    }
+  }
+
+  private static class Change {
+
+    private final long change;
+    private final long transfers;
+
+    private Change(long change, long transfers) {
+      this.change = change;
+      this.transfers = transfers;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package io.mwarzecha.persistence;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.jdbi.v3.core.Jdbi;
+
+/**
+ * Adds balance checkpoints on a background thread every {@code interval}: every account with at
+ * least {@code minTransfers} transfers since its latest checkpoint gets a new one as of
+ * {@code settle} ago, by when every transfer timestamped earlier is expected to have committed.
+ * Each account is checkpointed in a transaction of its own, and a failed run is made up for by
+ * the next one.
+ *
+ * <p>An account only becomes due through a new transfer, so after the first run, which goes
+ * through every account, a run only visits the accounts with transfers timestamped since the
+ * instant the previous successful run checkpointed up to.
+ */
+class BalanceCheckpointer implements AutoCloseable {
+
+  private static final int ACCOUNT_PAGE_SIZE = 1000;
+
+  private final Jdbi jdbi;
+  private final TransferArchive archive;
+  private final Clock clock;
+  private final Duration settle;
+  private final int minTransfers;
+  private final ScheduledExecutorService executor;
+  private final LongAdder checkpoints = new LongAdder();
+  private Instant checkpointedUpTo;
+
+  static BalanceCheckpointer start(Jdbi jdbi, TransferArchive archive, Clock clock,
+      Duration interval, Duration settle, int minTransfers) {
+    var checkpointer = new BalanceCheckpointer(jdbi, archive, clock, settle, minTransfers);
+    checkpointer.executor.scheduleWithFixedDelay(checkpointer::runQuietly, interval.toMillis(),
+        interval.toMillis(), TimeUnit.MILLISECONDS);
+    return checkpointer;
+  }
+
+  BalanceCheckpointer(Jdbi jdbi, TransferArchive archive, Clock clock, Duration settle,
+      int minTransfers) {
+    this.jdbi = jdbi;
+    this.archive = archive;
+    this.clock = clock;
+    this.settle = settle;
+    this.minTransfers = minTransfers;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      var thread = new Thread(runnable, "balance-checkpointer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Checkpoints every account due for it and returns the number of checkpoints added.
+   */
+  int run() {
+    var asOf = clock.instant().minus(settle);
+    var since = checkpointedUpTo;
+    int added = 0;
+    long afterAccountId = Long.MIN_VALUE;
+    List<Long> accountIds;
+    do {
+      long after = afterAccountId;
+      accountIds = jdbi.withHandle(handle -> since == null
+          ? handle.select("SELECT id FROM account WHERE id > ? ORDER BY id LIMIT ?", after,
+                  ACCOUNT_PAGE_SIZE)
+              .mapTo(Long.class)
+              .list()
+          : handle.select("SELECT DISTINCT account_id FROM ("
+                      + "SELECT from_account AS account_id FROM transfer "
+                      + "WHERE timestamp > ? AND timestamp <= ? "
+                      + "UNION ALL SELECT to_account FROM transfer "
+                      + "WHERE timestamp > ? AND timestamp <= ?) "
+                      + "WHERE account_id > ? ORDER BY account_id LIMIT ?",
+                  since, asOf, since, asOf, after, ACCOUNT_PAGE_SIZE)
+              .mapTo(Long.class)
+              .list());
+      for (long accountId : accountIds) {
+        if (archive.read(() -> jdbi.inTransaction(handle -> BalanceCheckpointDao
+            .withHandle(handle, archive)
+            .checkpoint(accountId, asOf, minTransfers)))) {
+          added++;
+        }
+        afterAccountId = accountId;
+      }
+    } while (accountIds.size() == ACCOUNT_PAGE_SIZE);
+    checkpointedUpTo = asOf;
+    checkpoints.add(added);
+    return added;
+  }
+
+  long getCheckpointCount() {
+    return checkpoints.sum();
+  }
+
+  private void runQuietly() {
+    try {
+      run();
+    } catch (RuntimeException e) {
+      // a failed run must not cancel the next ones, which take over its accounts
+    }
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+  }
+}
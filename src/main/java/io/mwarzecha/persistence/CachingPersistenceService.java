@@ -0,0 +1,151 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Serves {@link #getAccountById(long)} from an {@link AccountCache}. Writes go to the delegate
+ * first and only touch the cache once the delegate has returned, i.e. after the commit: new
+ * accounts are added and both sides of every attempted transfer are invalidated. Transfers are
+ * invalidated whatever their outcome, since a failed commit may still have reached the database.
+ */
+class CachingPersistenceService implements PersistenceService {
+
+  private final PersistenceService delegate;
+  private final AccountCache cache;
+
+  CachingPersistenceService(PersistenceService delegate, AccountCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId) {
+    return delegate.getTransfersByAccountId(accountId);
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
+    return delegate.getTransfersByAccountId(accountId, afterTransferId, limit);
+  }
+
+  @Override
+  public void forEachTransferByAccountId(long accountId, Consumer<Transfer> action) {
+    delegate.forEachTransferByAccountId(accountId, action);
+  }
+
+  @Override
+  public Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
+    return delegate.getTransferByIdAndAccountId(transferId, accountId);
+  }
+
+  @Override
+  public List<Account> getAllAccounts() {
+    return delegate.getAllAccounts();
+  }
+
+  @Override
+  public Optional<Account> getAccountById(long accountId) {
+    var cached = cache.get(accountId);
+    if (cached != null) {
+      return Optional.of(cached);
+    }
+    long generation = cache.generation(accountId);
+    var account = delegate.getAccountById(accountId);
+    account.ifPresent(loaded -> cache.putIfCurrent(loaded, generation));
+    return account;
+  }
+
+  @Override
+  public Account persistAccount(Account account) {
+    var persisted = delegate.persistAccount(account);
+    cache.put(persisted);
+    return persisted;
+  }
+
+  /**
+   * Leaves the accounts out of the cache, so that a bulk import does not evict the ones in use.
+   */
+  @Override
+  public List<Account> persistAccounts(List<Account> accounts) {
+    return delegate.persistAccounts(accounts);
+  }
+
+  @Override
+  public Optional<Account> setBalanceSlots(long accountId, int slots) {
+    try {
+      return delegate.setBalanceSlots(accountId, slots);
+    } finally {
+      cache.invalidate(accountId);
+    }
+  }
+
+  @Override
+  public List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to) {
+    return delegate.getDailyRollups(accountId, from, to);
+  }
+
+  @Override
+  public Optional<Account> getAccountBalanceAt(long accountId, Instant at) {
+    return delegate.getAccountBalanceAt(accountId, at);
+  }
+
+  @Override
+  public void forEachTransfer(long afterTransferId, Instant since, Instant until,
+      Consumer<Transfer> action) {
+    delegate.forEachTransfer(afterTransferId, since, until, action);
+  }
+
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer) {
+    try {
+      return delegate.makeTransfer(transfer);
+    } finally {
+      invalidate(transfer);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Try<Transfer>> submitTransfer(Transfer transfer) {
+    return delegate.submitTransfer(transfer)
+        .whenComplete((result, throwable) -> invalidate(transfer));
+  }
+
+  @Override
+  public CompletableFuture<Try<Transfer>> submitTransfer(Transfer transfer,
+      String idempotencyKey) {
+    return delegate.submitTransfer(transfer, idempotencyKey)
+        .whenComplete((result, throwable) -> invalidate(transfer));
+  }
+
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer, String idempotencyKey) {
+    try {
+      return delegate.makeTransfer(transfer, idempotencyKey);
+    } finally {
+      invalidate(transfer);
+    }
+  }
+
+  @Override
+  public List<Try<Transfer>> makeTransfers(List<Transfer> transfers) {
+    try {
+      return delegate.makeTransfers(transfers);
+    } finally {
+      transfers.forEach(this::invalidate);
+    }
+  }
+
+  private void invalidate(Transfer transfer) {
+    cache.invalidate(transfer.getFromAccountId());
+    cache.invalidate(transfer.getToAccountId());
+  }
+}
@@ -0,0 +1,64 @@
+package io.mwarzecha.persistence;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import org.jdbi.v3.core.Jdbi;
+
+/**
+ * Rebuilds the daily rollups of every account from the ledger entries, for a database holding
+ * transfers recorded before the rollups were kept. Accounts are split into ranges of
+ * {@code chunkSize} ids, each rebuilt from scratch in its own transaction on one of
+ * {@code threads} threads, so the job can simply be run again after a failed chunk. Transfers
+ * keep being recorded meanwhile; those of a range being rebuilt wait for its transaction.
+ *
+ * <p>Rollups of the days up to the latest one with archived transfers are left as they are,
+ * since the ledger entries of those transfers are gone.
+ */
+class DailyRollupBackfill {
+
+  private final Jdbi jdbi;
+  private final LocalDate fromDay;
+  private final int threads;
+  private final int chunkSize;
+
+  DailyRollupBackfill(Jdbi jdbi, int threads, int chunkSize) {
+    this(jdbi, TransferArchive.none(), threads, chunkSize);
+  }
+
+  DailyRollupBackfill(Jdbi jdbi, TransferArchive archive, int threads, int chunkSize) {
+    this.jdbi = jdbi;
+    this.fromDay = archive.maxTimestamp()
+        .map(timestamp -> LocalDate.ofInstant(timestamp, ZoneOffset.UTC).plusDays(1))
+        .orElse(LocalDate.EPOCH);
+    this.threads = threads;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Returns the number of rollups written.
+   */
+  long run() {
+    var bounds = jdbi.withHandle(handle -> handle
+        .select("SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM account")
+        .map((rs, ctx) -> new long[] {rs.getLong("min_id"), rs.getLong("max_id")})
+        .one());
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      var chunks = new ArrayList<CompletableFuture<Integer>>();
+      for (long from = bounds[0]; from <= bounds[1]; from += chunkSize) {
+        long chunkFrom = from;
+        chunks.add(CompletableFuture.supplyAsync(() -> jdbi.inTransaction(handle ->
+            DailyRollupDao.withHandle(handle).rebuild(chunkFrom, chunkFrom + chunkSize, fromDay)),
+            executor));
+      }
+      return chunks.stream()
+          .mapToLong(CompletableFuture::join)
+          .sum();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Transfer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.mapper.RowMapper;
+
+/**
+ * Reads and updates the daily turnover of accounts in {@code account_daily_rollup}. Transfers are
+ * added to the rollups of both their accounts in the transaction that records them. Like balances,
+ * the rollup of an account split into balance slots is kept in as many rows per day, each call
+ * taking the next one in turn, and reads sum them up.
+ */
+class DailyRollupDao {
+
+  private static final RowMapper<DailyRollup> DAILY_ROLLUP_ROW_MAPPER =
+      new DailyRollupRowMapper();
+  private static final int FETCH_SIZE = 1000;
+  private static final AtomicInteger SLOT_SEQUENCE = new AtomicInteger();
+
+  private final Handle handle;
+
+  static DailyRollupDao withHandle(Handle handle) {
+    return new DailyRollupDao(handle);
+  }
+
+  private DailyRollupDao(Handle handle) {
+    this.handle = handle;
+  }
+
+  /**
+   * Returns the rollups of the account for every day from {@code from} to {@code to}, both
+   * inclusive, on which it took part in a transfer, ordered by day.
+   */
+  List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to) {
+    return handle
+        .select("SELECT r.account_id, r.day, a.currency, SUM(r.inflow) AS inflow, "
+                + "SUM(r.outflow) AS outflow, SUM(r.transfer_count) AS transfer_count "
+                + "FROM account_daily_rollup r JOIN account a ON a.id = r.account_id "
+                + "WHERE r.account_id = ? AND r.day BETWEEN ? AND ? "
+                + "GROUP BY r.account_id, r.day, a.currency ORDER BY r.day",
+            accountId, from, to)
+        .map(DAILY_ROLLUP_ROW_MAPPER)
+        .list();
+  }
+
+  /**
+   * Adds the transfers to the rollups of their accounts with one statement per account and day,
+   * in account order.
+   */
+  DailyRollupDao addTransfers(List<Transfer> transfers) {
+    if (transfers.isEmpty()) {
+      return this;
+    }
+    var totals = new TreeMap<Long, Map<LocalDate, Totals>>();
+    transfers.forEach(transfer -> {
+      var date = dateOf(transfer.getTimestamp());
+      totalsOf(totals, transfer.getFromAccountId(), date).add(-transfer.getAmountMinorUnits());
+      totalsOf(totals, transfer.getToAccountId(), date).add(transfer.getAmountMinorUnits());
+    });
+    var batch = handle.prepareBatch("MERGE INTO account_daily_rollup r USING ("
+        + "SELECT a.id AS account_id, CAST(? AS DATE) AS day, "
+        + "MOD(?, GREATEST(a.balance_slots, 1)) AS slot, CAST(? AS BIGINT) AS inflow, "
+        + "CAST(? AS BIGINT) AS outflow, CAST(? AS BIGINT) AS transfer_count "
+        + "FROM account a WHERE a.id = ?) s "
+        + "ON (r.account_id = s.account_id AND r.day = s.day AND r.slot = s.slot) "
+        + "WHEN MATCHED THEN UPDATE SET inflow = r.inflow + s.inflow, "
+        + "outflow = r.outflow + s.outflow, transfer_count = r.transfer_count + s.transfer_count "
+        + "WHEN NOT MATCHED THEN INSERT (account_id, day, slot, inflow, outflow, transfer_count) "
+        + "VALUES (s.account_id, s.day, s.slot, s.inflow, s.outflow, s.transfer_count)");
+    int slotHash = SLOT_SEQUENCE.getAndIncrement() & Integer.MAX_VALUE;
+    totals.forEach((accountId, days) -> days.forEach((date, total) -> batch.add(date, slotHash,
+        total.inflow, total.outflow, total.count, accountId)));
+    batch.execute();
+    return this;
+  }
+
+  /**
+   * Rebuilds the rollups of the accounts with ids from {@code fromAccountId}, inclusive, to
+   * {@code toAccountId}, exclusive, for the days from {@code fromDay} on, from their ledger
+   * entries, and returns the number of rollups written. The accounts and their balance slots are
+   * locked first, so that no transfer to or from them is recorded meanwhile.
+   */
+  int rebuild(long fromAccountId, long toAccountId, LocalDate fromDay) {
+    AccountDao.withHandle(handle).lockAccounts(fromAccountId, toAccountId);
+    handle.execute("DELETE FROM account_daily_rollup WHERE account_id >= ? AND account_id < ? "
+        + "AND day >= ?", fromAccountId, toAccountId, fromDay);
+    var totals = handle.select("SELECT e.account_id, e.amount, t.timestamp FROM ledger_entry e "
+                + "JOIN transfer t ON t.id = e.transfer_id "
+                + "WHERE e.account_id >= ? AND e.account_id < ? AND t.timestamp >= ?",
+            fromAccountId, toAccountId, fromDay.atStartOfDay(ZoneOffset.UTC).toInstant())
+        .setFetchSize(FETCH_SIZE)
+        .reduceResultSet(new TreeMap<Long, Map<LocalDate, Totals>>(),
+            (accumulated, rs, ctx) -> {
+              totalsOf(accumulated, rs.getLong("account_id"),
+                  dateOf(rs.getTimestamp("timestamp").toInstant())).add(rs.getLong("amount"));
+              return accumulated;
+            });
+    var batch = handle.prepareBatch("INSERT INTO account_daily_rollup "
+        + "(account_id, day, slot, inflow, outflow, transfer_count) VALUES (?, ?, 0, ?, ?, ?)");
+    totals.forEach((accountId, days) -> days.forEach((date, total) -> batch.add(accountId, date,
+        total.inflow, total.outflow, total.count)));
+    return batch.size() == 0 ? 0 : batch.execute().length;
+  }
+
+  private static LocalDate dateOf(Instant timestamp) {
+    return LocalDate.ofInstant(timestamp, ZoneOffset.UTC);
+  }
+
+  private static Totals totalsOf(Map<Long, Map<LocalDate, Totals>> totals, long accountId,
+      LocalDate date) {
+    return totals.computeIfAbsent(accountId, id -> new TreeMap<>())
+        .computeIfAbsent(date, d -> new Totals());
+  }
+
+  private static class Totals {
+
+    private long inflow;
+    private long outflow;
+    private long count;
+
+    private void add(long amount) {
+      if (amount > 0) {
+        inflow += amount;
+      } else {
+        outflow -= amount;
+      }
+      count++;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Money;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+class DailyRollupRowMapper implements RowMapper<DailyRollup> {
+
+  @Override
+  public DailyRollup map(ResultSet rs, StatementContext ctx) throws SQLException {
+    var currency = rs.getString("currency");
+    return DailyRollup.newBuilder()
+        .accountId(rs.getLong("account_id"))
+        .date(rs.getDate("day").toLocalDate())
+        .inflow(Money.ofMinorUnits(currency, rs.getLong("inflow")))
+        .outflow(Money.ofMinorUnits(currency, rs.getLong("outflow")))
+        .transferCount(rs.getLong("transfer_count"))
+        .build();
+  }
+}
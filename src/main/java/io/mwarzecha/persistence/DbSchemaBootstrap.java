@@ -7,19 +7,62 @@ class DbSchemaBootstrap implements Consumer<Handle> {
 
   @Override
   public void accept(Handle handle) {
-    handle.execute("CREATE TABLE account ("
+    handle.execute("CREATE TABLE IF NOT EXISTS account ("
         + "id BIGINT AUTO_INCREMENT NOT NULL PRIMARY KEY, "
         + "owner VARCHAR(50) NOT NULL, "
         + "currency CHAR(3) NOT NULL, "
-        + "balance DECIMAL(19, 4) NOT NULL CHECK (balance>=0.0)"
+        + "balance BIGINT NOT NULL CHECK (balance>=0), "
+        + "balance_slots INT NOT NULL DEFAULT 0"
         + ")");
-    handle.execute("CREATE TABLE transfer ("
+    handle.execute("ALTER TABLE account ADD COLUMN IF NOT EXISTS "
+        + "balance_slots INT NOT NULL DEFAULT 0");
+    handle.execute("CREATE TABLE IF NOT EXISTS account_balance_slot ("
+        + "account_id BIGINT NOT NULL REFERENCES account(id), "
+        + "slot INT NOT NULL, "
+        + "balance BIGINT NOT NULL CHECK (balance>=0), "
+        + "PRIMARY KEY (account_id, slot)"
+        + ")");
+    handle.execute("CREATE TABLE IF NOT EXISTS transfer ("
         + "id BIGINT AUTO_INCREMENT NOT NULL PRIMARY KEY, "
         + "from_account BIGINT NOT NULL REFERENCES account(id), "
         + "to_account BIGINT NOT NULL REFERENCES account(id), "
         + "currency CHAR(3) NOT NULL, "
-        + "amount DECIMAL(19, 4) NOT NULL, "
+        + "amount BIGINT NOT NULL, "
         + "timestamp TIMESTAMP WITH TIME ZONE NOT NULL"
         + ")");
+    handle.execute("CREATE INDEX IF NOT EXISTS transfer_from_account_timestamp "
+        + "ON transfer(from_account, timestamp)");
+    handle.execute("CREATE INDEX IF NOT EXISTS transfer_to_account_timestamp "
+        + "ON transfer(to_account, timestamp)");
+    handle.execute("CREATE INDEX IF NOT EXISTS transfer_timestamp ON transfer(timestamp)");
+    handle.execute("CREATE TABLE IF NOT EXISTS ledger_entry ("
+        + "account_id BIGINT NOT NULL, "
+        + "transfer_id BIGINT NOT NULL REFERENCES transfer(id), "
+        + "amount BIGINT NOT NULL, "
+        + "PRIMARY KEY (account_id, transfer_id)"
+        + ")");
+    handle.execute("CREATE TABLE IF NOT EXISTS account_daily_rollup ("
+        + "account_id BIGINT NOT NULL REFERENCES account(id), "
+        + "day DATE NOT NULL, "
+        + "slot INT NOT NULL, "
+        + "inflow BIGINT NOT NULL, "
+        + "outflow BIGINT NOT NULL, "
+        + "transfer_count BIGINT NOT NULL, "
+        + "PRIMARY KEY (account_id, day, slot)"
+        + ")");
+    handle.execute("CREATE TABLE IF NOT EXISTS balance_checkpoint ("
+        + "account_id BIGINT NOT NULL REFERENCES account(id), "
+        + "as_of TIMESTAMP WITH TIME ZONE NOT NULL, "
+        + "balance BIGINT NOT NULL, "
+        + "PRIMARY KEY (account_id, as_of)"
+        + ")");
+    handle.execute("CREATE TABLE IF NOT EXISTS idempotency_key ("
+        + "idempotency_key VARCHAR(255) NOT NULL PRIMARY KEY, "
+        + "transfer_id BIGINT NOT NULL REFERENCES transfer(id)"
+        + ")");
+    handle.execute("CREATE TABLE IF NOT EXISTS projection_position ("
+        + "id INT NOT NULL PRIMARY KEY, "
+        + "journal_sequence BIGINT NOT NULL"
+        + ")");
   }
 }
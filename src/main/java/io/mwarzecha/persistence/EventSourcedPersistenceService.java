@@ -0,0 +1,113 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
+
+/**
+ * Uses a {@link LedgerJournal} as the system of record. Writes are validated against the
+ * in-memory state rebuilt from the journal and acknowledged once their journal record is durable;
+ * reads are served from the database tables, which a {@link LedgerProjector} updates
+ * asynchronously and which may therefore trail the journal by {@link #getProjectionLag()}
+ * records.
+ */
+class EventSourcedPersistenceService implements PersistenceService, AutoCloseable {
+
+  private final InMemoryPersistenceService writeModel;
+  private final JdbiPersistenceService projection;
+  private final LedgerProjector projector;
+
+  EventSourcedPersistenceService(InMemoryPersistenceService writeModel,
+      JdbiPersistenceService projection, LedgerProjector projector) {
+    this.writeModel = writeModel;
+    this.projection = projection;
+    this.projector = projector;
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId) {
+    return projection.getTransfersByAccountId(accountId);
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
+    return projection.getTransfersByAccountId(accountId, afterTransferId, limit);
+  }
+
+  @Override
+  public void forEachTransferByAccountId(long accountId, Consumer<Transfer> action) {
+    projection.forEachTransferByAccountId(accountId, action);
+  }
+
+  @Override
+  public Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
+    return projection.getTransferByIdAndAccountId(transferId, accountId);
+  }
+
+  @Override
+  public List<Account> getAllAccounts() {
+    return projection.getAllAccounts();
+  }
+
+  @Override
+  public Optional<Account> getAccountById(long accountId) {
+    return projection.getAccountById(accountId);
+  }
+
+  @Override
+  public Account persistAccount(Account account) {
+    return writeModel.persistAccount(account);
+  }
+
+  @Override
+  public List<Account> persistAccounts(List<Account> accounts) {
+    return writeModel.persistAccounts(accounts);
+  }
+
+  /**
+   * Balances are only contended in the write model, which keeps each of them in a single field,
+   * while the projection is written by a single thread, so neither is split.
+   */
+  @Override
+  public Optional<Account> setBalanceSlots(long accountId, int slots) {
+    return writeModel.setBalanceSlots(accountId, slots);
+  }
+
+  @Override
+  public List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to) {
+    return projection.getDailyRollups(accountId, from, to);
+  }
+
+  @Override
+  public Optional<Account> getAccountBalanceAt(long accountId, Instant at) {
+    return projection.getAccountBalanceAt(accountId, at);
+  }
+
+  @Override
+  public void forEachTransfer(long afterTransferId, Instant since, Instant until,
+      Consumer<Transfer> action) {
+    projection.forEachTransfer(afterTransferId, since, until, action);
+  }
+
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer) {
+    return writeModel.makeTransfer(transfer);
+  }
+
+  @Override
+  public OptionalLong getProjectionLag() {
+    return OptionalLong.of(projector.lag());
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    projector.close();
+  }
+}
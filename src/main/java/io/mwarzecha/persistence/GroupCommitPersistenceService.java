@@ -0,0 +1,398 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
+
+/**
+ * Coalesces concurrent {@link #makeTransfer(Transfer)} calls into shared transactions. Callers
+ * are queued and a single committer thread drains up to {@code maxBatchSize} of them, waiting at
+ * most {@code maxWait} after the first one for more to arrive. Each transfer runs under its own
+ * savepoint, so a rejected transfer is rolled back alone, and every caller gets its result only
+ * once the shared commit has finished.
+ *
+ * <p>With {@code netting}, a batch is instead applied like {@link #makeTransfers(List)}: every
+ * transfer is still recorded on its own, but the balances are updated once per account with the
+ * net change of the whole batch, so that transfers going back and forth between the same accounts
+ * within {@code maxWait} cost one pair of updates. Each transfer is checked for sufficient funds
+ * against the running position left by the ones accepted before it in the batch, starting from
+ * the balances locked at its beginning.
+ *
+ * <p>Idempotency keys are recorded in the batch's transaction, each under the savepoint of its
+ * transfer. A key already recorded, whether by an earlier batch or earlier in the same one,
+ * answers with its transfer instead of making the new one.
+ */
+class GroupCommitPersistenceService implements PersistenceService, AutoCloseable {
+
+  private static final String SAVEPOINT = "transfer";
+
+  private final JdbiPersistenceService delegate;
+  private final Jdbi jdbi;
+  private final Clock clock;
+  private final int maxBatchSize;
+  private final long maxWaitNanos;
+  private final boolean netting;
+  private final GroupCommitStats stats;
+  private final PersistenceStats persistenceStats;
+  private final TransactionIsolationLevel isolation;
+  private final BlockingQueue<PendingTransfer> queue = new LinkedBlockingQueue<>();
+  private final Thread committer;
+  private volatile boolean running = true;
+
+  GroupCommitPersistenceService(Jdbi jdbi, Clock clock, int maxBatchSize, Duration maxWait,
+      boolean netting, GroupCommitStats stats, PersistenceStats persistenceStats,
+      TransactionIsolationLevel isolation) {
+    this(jdbi, clock, maxBatchSize, maxWait, netting, stats, persistenceStats, isolation,
+        TransferArchive.none());
+  }
+
+  GroupCommitPersistenceService(Jdbi jdbi, Clock clock, int maxBatchSize, Duration maxWait,
+      boolean netting, GroupCommitStats stats, PersistenceStats persistenceStats,
+      TransactionIsolationLevel isolation, TransferArchive archive) {
+    this.delegate = new JdbiPersistenceService(jdbi, clock, persistenceStats, isolation, archive);
+    this.jdbi = jdbi;
+    this.clock = clock;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.netting = netting;
+    this.stats = stats;
+    this.persistenceStats = persistenceStats;
+    this.isolation = isolation;
+    this.committer = new Thread(this::commitLoop, "group-committer");
+    this.committer.setDaemon(true);
+    this.committer.start();
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId) {
+    return delegate.getTransfersByAccountId(accountId);
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
+    return delegate.getTransfersByAccountId(accountId, afterTransferId, limit);
+  }
+
+  @Override
+  public void forEachTransferByAccountId(long accountId, Consumer<Transfer> action) {
+    delegate.forEachTransferByAccountId(accountId, action);
+  }
+
+  @Override
+  public Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
+    return delegate.getTransferByIdAndAccountId(transferId, accountId);
+  }
+
+  @Override
+  public List<Account> getAllAccounts() {
+    return delegate.getAllAccounts();
+  }
+
+  @Override
+  public Optional<Account> getAccountById(long accountId) {
+    return delegate.getAccountById(accountId);
+  }
+
+  @Override
+  public Account persistAccount(Account account) {
+    return delegate.persistAccount(account);
+  }
+
+  @Override
+  public List<Account> persistAccounts(List<Account> accounts) {
+    return delegate.persistAccounts(accounts);
+  }
+
+  @Override
+  public Optional<Account> setBalanceSlots(long accountId, int slots) {
+    return delegate.setBalanceSlots(accountId, slots);
+  }
+
+  @Override
+  public List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to) {
+    return delegate.getDailyRollups(accountId, from, to);
+  }
+
+  @Override
+  public Optional<Account> getAccountBalanceAt(long accountId, Instant at) {
+    return delegate.getAccountBalanceAt(accountId, at);
+  }
+
+  @Override
+  public void forEachTransfer(long afterTransferId, Instant since, Instant until,
+      Consumer<Transfer> action) {
+    delegate.forEachTransfer(afterTransferId, since, until, action);
+  }
+
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer) {
+    return submitTransfer(transfer).join();
+  }
+
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer, String idempotencyKey) {
+    return submitTransfer(transfer, idempotencyKey).join();
+  }
+
+  @Override
+  public CompletableFuture<Try<Transfer>> submitTransfer(Transfer transfer) {
+    return submitTransfer(transfer, null);
+  }
+
+  /**
+   * Queues the transfer for the committer and returns straight away, the future completing once
+   * the batch holding it has been committed or rolled back.
+   */
+  @Override
+  public CompletableFuture<Try<Transfer>> submitTransfer(Transfer transfer,
+      String idempotencyKey) {
+    if (!running) {
+      return CompletableFuture.completedFuture(Try.failure(closedException()));
+    }
+    var pending = new PendingTransfer(transfer, idempotencyKey);
+    queue.add(pending);
+    // close() may have drained the queue between the check above and the add
+    if (!running && queue.remove(pending)) {
+      pending.result.complete(Try.failure(closedException()));
+    }
+    return pending.result;
+  }
+
+  @Override
+  public List<Try<Transfer>> makeTransfers(List<Transfer> transfers) {
+    return delegate.makeTransfers(transfers);
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    committer.join();
+    PendingTransfer pending;
+    while ((pending = queue.poll()) != null) {
+      pending.result.complete(Try.failure(closedException()));
+    }
+  }
+
+  private static IllegalStateException closedException() {
+    return new IllegalStateException("Group committer is closed");
+  }
+
+  private void commitLoop() {
+    var batch = new ArrayList<PendingTransfer>(maxBatchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        if (drainBatch(batch)) {
+          commit(batch);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private boolean drainBatch(List<PendingTransfer> batch) throws InterruptedException {
+    var first = queue.poll(100, TimeUnit.MILLISECONDS);
+    if (first == null) {
+      return false;
+    }
+    batch.add(first);
+    long deadline = System.nanoTime() + maxWaitNanos;
+    while (batch.size() < maxBatchSize) {
+      if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+        continue;
+      }
+      long remaining = deadline - System.nanoTime();
+      var next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+      if (next == null) {
+        break;
+      }
+      batch.add(next);
+    }
+    return true;
+  }
+
+  private void commit(List<PendingTransfer> batch) {
+    var applied = new ArrayList<Transfer>(batch.size());
+    Try<List<Try<Transfer>>> committed = Try.ofFailable(() -> jdbi.inTransaction(isolation,
+        handle -> applyAll(handle, batch, applied)));
+    stats.recordBatch(batch.size());
+    if (committed.isSuccess()) {
+      stats.recordBalanceUpdates(balanceUpdatesOf(applied));
+      persistenceStats.recordCommit();
+    } else {
+      persistenceStats.recordRollback();
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      var result = committed.isSuccess()
+          ? committed.getResult().get(i)
+          : Try.<Transfer>failure(committed.getThrowable());
+      if (result.isFailure()) {
+        persistenceStats.recordFailure(result.getThrowable());
+      }
+      batch.get(i).result.complete(result);
+    }
+  }
+
+  /**
+   * Applies the batch and adds the transfers it made, leaving out those answered from a recorded
+   * idempotency key, to {@code applied}.
+   */
+  private List<Try<Transfer>> applyAll(Handle handle, List<PendingTransfer> batch,
+      List<Transfer> applied) {
+    var timestamp = clock.instant();
+    applied.clear();
+    if (netting) {
+      return applyNetted(handle, batch, timestamp, applied);
+    }
+    var results = new ArrayList<Try<Transfer>>(batch.size());
+    for (var pending : batch) {
+      handle.savepoint(SAVEPOINT);
+      var result = Try.ofFailable(() -> applyTransfer(handle, pending, timestamp, applied));
+      if (result.isSuccess()) {
+        handle.release(SAVEPOINT);
+      } else {
+        handle.rollbackToSavepoint(SAVEPOINT);
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Applies the transfer like {@link JdbiPersistenceService#applyTransfer(Handle, Transfer,
+   * String, Instant)}, adding it to {@code applied} only if it was made rather than answered
+   * from its recorded key.
+   */
+  private static Transfer applyTransfer(Handle handle, PendingTransfer pending, Instant timestamp,
+      List<Transfer> applied) {
+    var transferDao = TransferDao.withHandle(handle);
+    if (pending.idempotencyKey != null) {
+      var recorded = JdbiPersistenceService.recordedTransfer(transferDao, pending.transfer,
+          pending.idempotencyKey);
+      if (recorded.isPresent()) {
+        return recorded.get();
+      }
+    }
+    var made = JdbiPersistenceService.applyTransfer(handle, pending.transfer, timestamp);
+    if (pending.idempotencyKey != null) {
+      transferDao.persistIdempotencyKey(pending.idempotencyKey, made.getId());
+    }
+    applied.add(made);
+    return made;
+  }
+
+  /**
+   * Answers the transfers whose keys are already recorded, or repeat a key seen earlier in the
+   * batch, without making them, nets the rest and records the keys of the accepted ones.
+   */
+  private static List<Try<Transfer>> applyNetted(Handle handle, List<PendingTransfer> batch,
+      Instant timestamp, List<Transfer> applied) {
+    var transferDao = TransferDao.withHandle(handle);
+    var results = new ArrayList<Try<Transfer>>(Collections.nCopies(batch.size(), null));
+    var firstByKey = new HashMap<String, Integer>();
+    var netted = new ArrayList<Integer>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      var pending = batch.get(i);
+      if (pending.idempotencyKey == null) {
+        netted.add(i);
+      } else if (!firstByKey.containsKey(pending.idempotencyKey)) {
+        var recorded = Try.ofFailable(() -> JdbiPersistenceService.recordedTransfer(
+            transferDao, pending.transfer, pending.idempotencyKey));
+        if (recorded.isFailure()) {
+          results.set(i, Try.failure(recorded.getThrowable()));
+        } else if (recorded.getResult().isPresent()) {
+          results.set(i, Try.success(recorded.getResult().get()));
+        } else {
+          firstByKey.put(pending.idempotencyKey, i);
+          netted.add(i);
+        }
+      }
+    }
+    if (!netted.isEmpty()) {
+      var made = JdbiPersistenceService.applyTransfers(handle,
+          netted.stream().map(i -> batch.get(i).transfer).collect(Collectors.toList()),
+          timestamp);
+      for (int j = 0; j < netted.size(); j++) {
+        var pending = batch.get(netted.get(j));
+        var result = made.get(j);
+        if (result.isSuccess()) {
+          if (pending.idempotencyKey != null) {
+            transferDao.persistIdempotencyKey(pending.idempotencyKey,
+                result.getResult().getId());
+          }
+          applied.add(result.getResult());
+        }
+        results.set(netted.get(j), result);
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      if (results.get(i) == null) {
+        var pending = batch.get(i);
+        results.set(i, repeated(pending, results.get(firstByKey.get(pending.idempotencyKey))));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Answers a transfer repeating a key used earlier in the same batch with the outcome of the
+   * earlier one.
+   */
+  private static Try<Transfer> repeated(PendingTransfer pending, Try<Transfer> first) {
+    if (first.isSuccess() && !first.getResult().hasSameDetailsAs(pending.transfer)) {
+      return Try.failure(new IllegalArgumentException("Idempotency key "
+          + pending.idempotencyKey + " was used for a different transfer"));
+    }
+    return first;
+  }
+
+  /**
+   * Counts the account rows updated for the transfers made: two per transfer, or one per account
+   * whose balance changed overall when netting.
+   */
+  private long balanceUpdatesOf(List<Transfer> applied) {
+    if (!netting) {
+      return 2L * applied.size();
+    }
+    var netChanges = new HashMap<Long, Long>();
+    applied.forEach(transfer -> {
+      netChanges.merge(transfer.getFromAccountId(), -transfer.getAmountMinorUnits(), Long::sum);
+      netChanges.merge(transfer.getToAccountId(), transfer.getAmountMinorUnits(), Long::sum);
+    });
+    return netChanges.values().stream().filter(change -> change != 0).count();
+  }
+
+  private static class PendingTransfer {
+
+    private final Transfer transfer;
+    private final String idempotencyKey;
+    private final CompletableFuture<Try<Transfer>> result = new CompletableFuture<>();
+
+    private PendingTransfer(Transfer transfer, String idempotencyKey) {
+      this.transfer = transfer;
+      this.idempotencyKey = idempotencyKey;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package io.mwarzecha.persistence;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes of the batches committed by group commit, and the account balance updates they made.
+ * Batch sizes are also counted in power-of-two buckets: bucket {@code i} holds batches of size
+ * {@code (2^(i-1), 2^i]}.
+ */
+public class GroupCommitStats {
+
+  private static final int BUCKETS = 32;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder transfers = new LongAdder();
+  private final LongAdder balanceUpdates = new LongAdder();
+  private final LongAccumulator maxBatchSize = new LongAccumulator(Math::max, 0);
+  private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+  void recordBatch(int size) {
+    batches.increment();
+    transfers.add(size);
+    maxBatchSize.accumulate(size);
+    histogram.incrementAndGet(bucketOf(size));
+  }
+
+  void recordBalanceUpdates(long count) {
+    balanceUpdates.add(count);
+  }
+
+  public long getBatchCount() {
+    return batches.sum();
+  }
+
+  public long getTransferCount() {
+    return transfers.sum();
+  }
+
+  public long getBalanceUpdateCount() {
+    return balanceUpdates.sum();
+  }
+
+  public long getMaxBatchSize() {
+    return maxBatchSize.get();
+  }
+
+  public double getMeanBatchSize() {
+    long batchCount = batches.sum();
+    return batchCount == 0 ? 0.0 : (double) transfers.sum() / batchCount;
+  }
+
+  public long[] getBatchSizeHistogram() {
+    var result = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      result[i] = histogram.get(i);
+    }
+    return result;
+  }
+
+  private static int bucketOf(int size) {
+    return size <= 1 ? 0 : Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(size - 1));
+  }
+}
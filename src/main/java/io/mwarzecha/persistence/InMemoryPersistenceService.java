@@ -0,0 +1,381 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the whole ledger in memory and makes it durable through a {@link LedgerJournal}. Balance
+ * updates are guarded by striped locks which are always taken in ascending stripe order, so two
+ * transfers touching the same accounts in opposite directions cannot deadlock.
+ *
+ * <p>Every change is appended to the journal before it is applied, so a failed append leaves the
+ * ledger as it was. A failed sync cannot be undone the same way, since the record may still reach
+ * the disk, so it fails the engine instead: every later write is rejected until a restart
+ * recovers the ledger from whatever the journal holds.
+ *
+ * <p>Idempotency keys are not recorded, neither in memory nor in the journal, so a retried
+ * transfer is only recognised by the REST layer's cache.
+ */
+class InMemoryPersistenceService implements PersistenceService {
+
+  private static final int LOCK_STRIPES = 1024;
+
+  private final LongKeyedTable<AccountEntry> accounts = new LongKeyedTable<>();
+  private final LongKeyedTable<Transfer> transfers = new LongKeyedTable<>();
+  private final AtomicLong accountIds = new AtomicLong();
+  private final AtomicLong transferIds = new AtomicLong();
+  /** Ids allocated to transfers whose journal append failed, which will never be recorded. */
+  private final Set<Long> abandonedTransferIds = ConcurrentHashMap.newKeySet();
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+  private final LedgerJournal journal;
+  private final Clock clock;
+  private long recoveredTransferId;
+  private volatile boolean failed;
+
+  static InMemoryPersistenceService recover(LedgerJournal journal, Clock clock)
+      throws IOException {
+    var service = new InMemoryPersistenceService(journal, clock);
+    journal.replay(service::restoreAccount, service::restoreTransfer);
+    service.recoveredTransferId = service.transferIds.get();
+    return service;
+  }
+
+  private InMemoryPersistenceService(LedgerJournal journal, Clock clock) {
+    this.journal = journal;
+    this.clock = clock;
+    Arrays.setAll(locks, i -> new ReentrantLock());
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId) {
+    return getTransfersByAccountId(accountId, 0L, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Transfer ids are allocated under the locks of both accounts, so every account's history is
+   * already sorted by id and the page start can be found by binary search.
+   */
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
+    var transferIds = transferIdsOf(accountId);
+    int from = Arrays.binarySearch(transferIds, afterTransferId);
+    from = from >= 0 ? from + 1 : -from - 1;
+    int to = (int) Math.min(transferIds.length, (long) from + limit);
+    var result = new ArrayList<Transfer>(Math.max(0, to - from));
+    for (int i = from; i < to; i++) {
+      result.add(transfers.get(transferIds[i]));
+    }
+    return result;
+  }
+
+  @Override
+  public void forEachTransferByAccountId(long accountId, Consumer<Transfer> action) {
+    for (long transferId : transferIdsOf(accountId)) {
+      action.accept(transfers.get(transferId));
+    }
+  }
+
+  private long[] transferIdsOf(long accountId) {
+    var entry = accounts.get(accountId);
+    if (entry == null) {
+      return new long[0];
+    }
+    var lock = lockFor(accountId);
+    lock.lock();
+    try {
+      return entry.transferIds();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
+    return Optional.ofNullable(transfers.get(transferId))
+        .filter(transfer -> transfer.getFromAccountId() == accountId
+            || transfer.getToAccountId() == accountId);
+  }
+
+  /**
+   * Looks the transfers up by id one after another and stops at the first id allocated to a
+   * transfer that is not recorded yet. Every transfer before it is recorded, so the export never
+   * moves past one still being committed and {@code until} is not needed. Ids that never will be
+   * recorded, because their journal append failed in this run or they are missing from the
+   * recovered journal, are skipped.
+   */
+  @Override
+  public void forEachTransfer(long afterTransferId, Instant since, Instant until,
+      Consumer<Transfer> action) {
+    long maxTransferId = transferIds.get();
+    for (long transferId = Math.max(afterTransferId, 0) + 1; transferId <= maxTransferId;
+        transferId++) {
+      var transfer = transfers.get(transferId);
+      if (transfer == null) {
+        if (transferId <= recoveredTransferId || abandonedTransferIds.contains(transferId)) {
+          continue;
+        }
+        return;
+      }
+      if (!transfer.getTimestamp().isBefore(since)) {
+        action.accept(transfer);
+      }
+    }
+  }
+
+  @Override
+  public List<Account> getAllAccounts() {
+    var result = new ArrayList<Account>();
+    accounts.forEach(entry -> result.add(entry.toAccount()));
+    return result;
+  }
+
+  @Override
+  public Optional<Account> getAccountById(long accountId) {
+    return Optional.ofNullable(accounts.get(accountId))
+        .map(AccountEntry::toAccount);
+  }
+
+  @Override
+  public Account persistAccount(Account account) {
+    checkWritable();
+    var persisted = account.withId(accountIds.incrementAndGet());
+    long sequence = journal.appendAccount(persisted);
+    accounts.put(persisted.getId(), new AccountEntry(persisted));
+    sync(sequence);
+    return persisted;
+  }
+
+  /**
+   * Every balance is a single field guarded by one lock stripe, so there is no row contention for
+   * slots to spread: the account is returned unchanged.
+   */
+  @Override
+  public Optional<Account> setBalanceSlots(long accountId, int slots) {
+    return getAccountById(accountId);
+  }
+
+  /**
+   * Rollups are kept with every account, updated under its lock along with its transfer history.
+   */
+  @Override
+  public List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to) {
+    var entry = accounts.get(accountId);
+    if (entry == null) {
+      return List.of();
+    }
+    var lock = lockFor(accountId);
+    lock.lock();
+    try {
+      return entry.rollups(from, to);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the current balance back through the transfers timestamped after the instant, newest
+   * first, reading both under the account's lock so that they agree.
+   */
+  @Override
+  public Optional<Account> getAccountBalanceAt(long accountId, Instant at) {
+    var entry = accounts.get(accountId);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    long balance;
+    long[] transferIds;
+    var lock = lockFor(accountId);
+    lock.lock();
+    try {
+      balance = entry.balance;
+      transferIds = entry.transferIds();
+    } finally {
+      lock.unlock();
+    }
+    for (int i = transferIds.length - 1; i >= 0; i--) {
+      var transfer = transfers.get(transferIds[i]);
+      if (transfer.getTimestamp().isAfter(at)) {
+        balance += transfer.getFromAccountId() == accountId
+            ? transfer.getAmountMinorUnits() : -transfer.getAmountMinorUnits();
+      }
+    }
+    return Optional.of(Account.newBuilder()
+        .id(accountId)
+        .owner(entry.owner)
+        .balance(Money.ofMinorUnits(entry.currency, balance))
+        .build());
+  }
+
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer) {
+    return Try.ofFailable(() -> doMakeTransfer(transfer));
+  }
+
+  private Transfer doMakeTransfer(Transfer transfer) {
+    checkWritable();
+    var from = transfer.getFromAccountId();
+    var to = transfer.getToAccountId();
+    var fromStripe = stripeIndex(from);
+    var toStripe = stripeIndex(to);
+    var first = locks[Math.min(fromStripe, toStripe)];
+    var second = locks[Math.max(fromStripe, toStripe)];
+    Transfer completed;
+    long sequence;
+    first.lock();
+    second.lock();
+    try {
+      var fromEntry = validAccount(from, transfer.getCurrency());
+      var toEntry = validAccount(to, transfer.getCurrency());
+      long amount = transfer.getAmountMinorUnits();
+      if (fromEntry.balance < amount) {
+        throw new InsufficientFundsException();
+      }
+      long credited = Math.addExact(toEntry.balance, amount);
+      long transferId = transferIds.incrementAndGet();
+      try {
+        completed = transfer.withIdAndTimestamp(transferId, clock.instant());
+        sequence = journal.appendTransfer(completed);
+      } catch (RuntimeException e) {
+        abandonedTransferIds.add(transferId);
+        throw e;
+      }
+      fromEntry.balance -= amount;
+      toEntry.balance = credited;
+      record(completed, fromEntry, toEntry);
+    } finally {
+      second.unlock();
+      first.unlock();
+    }
+    sync(sequence);
+    return completed;
+  }
+
+  private AccountEntry validAccount(long accountId, String currency) {
+    var entry = accounts.get(accountId);
+    if (entry == null || !entry.currency.equals(currency)) {
+      throw new InvalidAccountException(accountId, currency);
+    }
+    return entry;
+  }
+
+  private void record(Transfer transfer, AccountEntry fromEntry, AccountEntry toEntry) {
+    transfers.put(transfer.getId(), transfer);
+    fromEntry.addTransfer(transfer, -transfer.getAmountMinorUnits());
+    toEntry.addTransfer(transfer, transfer.getAmountMinorUnits());
+  }
+
+  private void restoreAccount(Account account) {
+    accounts.put(account.getId(), new AccountEntry(account));
+    accountIds.accumulateAndGet(account.getId(), Math::max);
+  }
+
+  private void restoreTransfer(Transfer transfer) {
+    var fromEntry = accounts.get(transfer.getFromAccountId());
+    var toEntry = accounts.get(transfer.getToAccountId());
+    fromEntry.balance -= transfer.getAmountMinorUnits();
+    toEntry.balance += transfer.getAmountMinorUnits();
+    record(transfer, fromEntry, toEntry);
+    transferIds.accumulateAndGet(transfer.getId(), Math::max);
+  }
+
+  private void sync(long sequence) {
+    try {
+      journal.sync(sequence);
+    } catch (IOException e) {
+      failed = true;
+      throw new UncheckedIOException("Journal write failed", e);
+    } catch (RuntimeException e) {
+      failed = true;
+      throw e;
+    }
+  }
+
+  private void checkWritable() {
+    if (failed) {
+      throw new IllegalStateException("Ledger is read-only after a failed journal write");
+    }
+  }
+
+  private ReentrantLock lockFor(long accountId) {
+    return locks[stripeIndex(accountId)];
+  }
+
+  private static int stripeIndex(long accountId) {
+    long hash = accountId * 0x9E3779B97F4A7C15L;
+    return (int) (hash >>> 54) & (LOCK_STRIPES - 1);
+  }
+
+  private static class AccountEntry {
+
+    private final long id;
+    private final String owner;
+    private final String currency;
+    private volatile long balance;
+    private long[] transferIds = new long[4];
+    private int transferCount;
+    /** Inflow, outflow and transfer count by UTC day. */
+    private final TreeMap<LocalDate, long[]> rollups = new TreeMap<>();
+
+    private AccountEntry(Account account) {
+      this.id = account.getId();
+      this.owner = account.getOwner();
+      this.currency = account.getCurrency();
+      this.balance = account.getBalanceMinorUnits();
+    }
+
+    private Account toAccount() {
+      return Account.newBuilder()
+          .id(id)
+          .owner(owner)
+          .balance(Money.ofMinorUnits(currency, balance))
+          .build();
+    }
+
+    private void addTransfer(Transfer transfer, long amount) {
+      if (transferCount == transferIds.length) {
+        transferIds = Arrays.copyOf(transferIds, transferCount * 2);
+      }
+      transferIds[transferCount++] = transfer.getId();
+      var totals = rollups.computeIfAbsent(
+          LocalDate.ofInstant(transfer.getTimestamp(), ZoneOffset.UTC), date -> new long[3]);
+      totals[amount > 0 ? 0 : 1] += Math.abs(amount);
+      totals[2]++;
+    }
+
+    private List<DailyRollup> rollups(LocalDate from, LocalDate to) {
+      var result = new ArrayList<DailyRollup>();
+      rollups.subMap(from, true, to, true).forEach((date, totals) -> result.add(
+          DailyRollup.newBuilder()
+              .accountId(id)
+              .date(date)
+              .inflow(Money.ofMinorUnits(currency, totals[0]))
+              .outflow(Money.ofMinorUnits(currency, totals[1]))
+              .transferCount(totals[2])
+              .build()));
+      return result;
+    }
+
+    private long[] transferIds() {
+      return Arrays.copyOf(transferIds, transferCount);
+    }
+  }
+}
@@ -0,0 +1,8 @@
+package io.mwarzecha.persistence;
+
+class InsufficientFundsException extends IllegalStateException {
+
+  InsufficientFundsException() {
+    super("Insufficient funds");
+  }
+}
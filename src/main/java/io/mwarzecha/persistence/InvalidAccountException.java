@@ -0,0 +1,8 @@
+package io.mwarzecha.persistence;
+
+class InvalidAccountException extends IllegalStateException {
+
+  InvalidAccountException(long accountId, String currency) {
+    super(String.format("Invalid account id %d or currency %s", accountId, currency));
+  }
+}
@@ -1,35 +1,131 @@
 package io.mwarzecha.persistence;
 
 import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
 import io.mwarzecha.model.Transfer;
 import io.mwarzecha.util.Try;
 import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 
 class JdbiPersistenceService implements PersistenceService {
 
+  private static final int TRANSFER_BATCH_SIZE = 1000;
+
   private final Jdbi jdbi;
   private final Clock clock;
+  private final PersistenceStats stats;
+  private final TransactionIsolationLevel isolation;
+  private final TransferArchive archive;
 
   JdbiPersistenceService(Jdbi jdbi, Clock clock) {
+    this(jdbi, clock, new PersistenceStats());
+  }
+
+  JdbiPersistenceService(Jdbi jdbi, Clock clock, PersistenceStats stats) {
+    this(jdbi, clock, stats, TransactionIsolationLevel.READ_COMMITTED);
+  }
+
+  JdbiPersistenceService(Jdbi jdbi, Clock clock, PersistenceStats stats,
+      TransactionIsolationLevel isolation) {
+    this(jdbi, clock, stats, isolation, TransferArchive.none());
+  }
+
+  /**
+   * Serves the transfers moved to the archive along with the ones still in the database, which
+   * all have later ids.
+   */
+  JdbiPersistenceService(Jdbi jdbi, Clock clock, PersistenceStats stats,
+      TransactionIsolationLevel isolation, TransferArchive archive) {
     this.jdbi = jdbi;
     this.clock = clock;
+    this.stats = stats;
+    this.isolation = isolation;
+    this.archive = archive;
   }
 
   @Override
   public List<Transfer> getTransfersByAccountId(long accountId) {
-    return jdbi.withHandle(handle -> TransferDao.withHandle(handle)
-        .getTransfersByAccountId(accountId));
+    return archive.read(() -> {
+      var transfers = archive.getTransfersByAccountId(accountId, 0, Integer.MAX_VALUE);
+      transfers.addAll(jdbi.withHandle(handle -> TransferDao.withHandle(handle)
+          .getTransfersByAccountId(accountId, archive.maxTransferId(), Integer.MAX_VALUE)));
+      return transfers;
+    });
+  }
+
+  @Override
+  public List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
+    return archive.read(() -> {
+      var transfers = afterTransferId < archive.maxTransferId()
+          ? archive.getTransfersByAccountId(accountId, afterTransferId, limit)
+          : new ArrayList<Transfer>();
+      if (transfers.size() < limit) {
+        long after = Math.max(afterTransferId, archive.maxTransferId());
+        transfers.addAll(jdbi.withHandle(handle -> TransferDao.withHandle(handle)
+            .getTransfersByAccountId(accountId, after, limit - transfers.size())));
+      }
+      return transfers;
+    });
+  }
+
+  @Override
+  public void forEachTransferByAccountId(long accountId, Consumer<Transfer> action) {
+    archive.read(() -> {
+      archive.forEachTransferByAccountId(accountId, action);
+      jdbi.useHandle(handle -> TransferDao.withHandle(handle)
+          .forEachTransferByAccountId(accountId, archive.maxTransferId(), action));
+      return null;
+    });
+  }
+
+  /**
+   * Starts the database query under the archive's read lock, which is enough for it to find every
+   * transfer not archived by then, since a statement reads the rows as of its start, and then
+   * reads the archived ones followed by the query's without holding it.
+   */
+  @Override
+  public void forEachTransfer(long afterTransferId, Instant since, Instant until,
+      Consumer<Transfer> action) {
+    jdbi.useHandle(handle -> {
+      var archivedUpTo = new AtomicLong();
+      try (var cursor = archive.read(() -> {
+        archivedUpTo.set(archive.maxTransferId());
+        return TransferDao.withHandle(handle)
+            .openTransferCursor(Math.max(afterTransferId, archivedUpTo.get()), since);
+      })) {
+        if (!archive.forEachTransfer(afterTransferId, archivedUpTo.get(), since, until, action)) {
+          return;
+        }
+        while (cursor.hasNext()) {
+          var transfer = cursor.next();
+          if (transfer.getTimestamp().isAfter(until)) {
+            return;
+          }
+          action.accept(transfer);
+        }
+      }
+    });
   }
 
   @Override
   public Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
-    return jdbi.withHandle(handle -> TransferDao.withHandle(handle)
-        .getTransferByIdAndAccountId(transferId, accountId));
+    return archive.read(() -> transferId <= archive.maxTransferId()
+        ? archive.getTransferByIdAndAccountId(transferId, accountId)
+        : jdbi.withHandle(handle -> TransferDao.withHandle(handle)
+            .getTransferByIdAndAccountId(transferId, accountId)));
   }
 
   @Override
@@ -50,21 +146,179 @@ class JdbiPersistenceService implements PersistenceService {
         .persistAccount(account));
   }
 
+  @Override
+  public List<Account> persistAccounts(List<Account> accounts) {
+    return jdbi.inTransaction(isolation, handle -> AccountDao.withHandle(handle)
+        .persistAccounts(accounts));
+  }
+
+  @Override
+  public Optional<Account> setBalanceSlots(long accountId, int slots) {
+    return jdbi.inTransaction(isolation, handle -> AccountDao.withHandle(handle)
+        .setBalanceSlots(accountId, slots));
+  }
+
+  @Override
+  public List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to) {
+    return jdbi.withHandle(handle -> DailyRollupDao.withHandle(handle)
+        .getDailyRollups(accountId, from, to));
+  }
+
+  @Override
+  public Optional<Account> getAccountBalanceAt(long accountId, Instant at) {
+    return archive.read(() -> jdbi.inTransaction(isolation, handle -> BalanceCheckpointDao
+        .withHandle(handle, archive)
+        .getAccountAt(accountId, at)));
+  }
+
   @Override
   public Try<Transfer> makeTransfer(Transfer transfer) {
-    return Try.ofFailable(() -> doMakeTransfer(transfer));
+    var result = Try.ofFailable(() -> doMakeTransfer(transfer));
+    if (result.isFailure()) {
+      stats.recordFailure(result.getThrowable());
+    }
+    return result;
   }
 
   private Transfer doMakeTransfer(Transfer transfer) {
-    return jdbi.inTransaction(TransactionIsolationLevel.READ_COMMITTED, handle -> {
-      updateBalances(handle, transfer);
-      return TransferDao.withHandle(handle)
-          .persistTransferWithTimestamp(transfer, clock.instant());
+    return inTransaction(handle -> applyTransfer(handle, transfer, clock.instant()));
+  }
+
+  /**
+   * Looks the key up and records it in the transaction making the transfer. When that transaction
+   * fails, the key is looked up once more, since a concurrent transaction may have recorded it
+   * first, making the insert of the key fail.
+   */
+  @Override
+  public Try<Transfer> makeTransfer(Transfer transfer, String idempotencyKey) {
+    var result = Try.ofFailable(() -> doMakeTransfer(transfer, idempotencyKey));
+    if (result.isFailure()) {
+      var recorded = jdbi.withHandle(handle -> TransferDao.withHandle(handle)
+          .getTransferByIdempotencyKey(idempotencyKey))
+          .filter(transfer::hasSameDetailsAs);
+      if (recorded.isPresent()) {
+        return Try.success(recorded.get());
+      }
+      stats.recordFailure(result.getThrowable());
+    }
+    return result;
+  }
+
+  private Transfer doMakeTransfer(Transfer transfer, String idempotencyKey) {
+    return inTransaction(handle ->
+        applyTransfer(handle, transfer, idempotencyKey, clock.instant()));
+  }
+
+  private <T> T inTransaction(HandleCallback<T, RuntimeException> callback) {
+    try {
+      var result = jdbi.inTransaction(isolation, callback);
+      stats.recordCommit();
+      return result;
+    } catch (RuntimeException e) {
+      stats.recordRollback();
+      throw e;
+    }
+  }
+
+  static Transfer applyTransfer(Handle handle, Transfer transfer, Instant timestamp) {
+    updateBalances(handle, transfer);
+    return TransferDao.withHandle(handle)
+        .persistTransferWithTimestamp(transfer, timestamp);
+  }
+
+  /**
+   * Applies the transfer and records the key with it, unless the key has already been recorded,
+   * in which case the transfer recorded with it is returned instead.
+   */
+  static Transfer applyTransfer(Handle handle, Transfer transfer, String idempotencyKey,
+      Instant timestamp) {
+    var transferDao = TransferDao.withHandle(handle);
+    var recorded = recordedTransfer(transferDao, transfer, idempotencyKey);
+    if (recorded.isPresent()) {
+      return recorded.get();
+    }
+    var made = applyTransfer(handle, transfer, timestamp);
+    transferDao.persistIdempotencyKey(idempotencyKey, made.getId());
+    return made;
+  }
+
+  /**
+   * Returns the transfer recorded with the key, failing if it has different details than the
+   * given one.
+   */
+  static Optional<Transfer> recordedTransfer(TransferDao transferDao, Transfer transfer,
+      String idempotencyKey) {
+    var recorded = transferDao.getTransferByIdempotencyKey(idempotencyKey);
+    if (recorded.isPresent() && !recorded.get().hasSameDetailsAs(transfer)) {
+      throw new IllegalArgumentException(
+          "Idempotency key " + idempotencyKey + " was used for a different transfer");
+    }
+    return recorded;
+  }
+
+  /**
+   * Applies transfers in chunks, each in a single transaction through
+   * {@link #applyTransfers(Handle, List, Instant)}. A failure of the whole chunk fails all of its
+   * transfers.
+   */
+  @Override
+  public List<Try<Transfer>> makeTransfers(List<Transfer> transfers) {
+    var results = new ArrayList<Try<Transfer>>(transfers.size());
+    for (int from = 0; from < transfers.size(); from += TRANSFER_BATCH_SIZE) {
+      var chunk = transfers.subList(from, Math.min(from + TRANSFER_BATCH_SIZE, transfers.size()));
+      Try.ofFailable(() -> doMakeTransfers(chunk))
+          .ifSuccessOrElse(results::addAll,
+              throwable -> chunk.forEach(transfer -> results.add(Try.failure(throwable))));
+    }
+    results.stream()
+        .filter(Try::isFailure)
+        .forEach(result -> stats.recordFailure(result.getThrowable()));
+    return results;
+  }
+
+  private List<Try<Transfer>> doMakeTransfers(List<Transfer> transfers) {
+    return inTransaction(handle -> applyTransfers(handle, transfers, clock.instant()));
+  }
+
+  /**
+   * Locks the accounts involved, checks every transfer against the running balances left by the
+   * ones accepted before it, then writes one net balance change per account and the accepted
+   * transfers, each with a single JDBC batch.
+   */
+  static List<Try<Transfer>> applyTransfers(Handle handle, List<Transfer> transfers,
+      Instant timestamp) {
+    var accountDao = AccountDao.withHandle(handle);
+    var runningBalances = new RunningBalances(
+        accountDao.getAccountsByIdForUpdate(accountIdsOf(transfers)));
+    var validated = new ArrayList<Try<Transfer>>(transfers.size());
+    var accepted = new ArrayList<Transfer>(transfers.size());
+    for (var transfer : transfers) {
+      var result = Try.ofFailable(() -> runningBalances.apply(transfer));
+      result.ifSuccessOrElse(accepted::add, throwable -> {});
+      validated.add(result);
+    }
+    accountDao
+        .debitAccounts(runningBalances.debits())
+        .creditAccounts(runningBalances.credits());
+    var persisted = TransferDao.withHandle(handle)
+        .persistTransfersWithTimestamp(accepted, timestamp)
+        .iterator();
+    return validated.stream()
+        .map(result -> result.isSuccess() ? Try.success(persisted.next()) : result)
+        .collect(Collectors.toList());
+  }
+
+  private static Set<Long> accountIdsOf(List<Transfer> transfers) {
+    var accountIds = new TreeSet<Long>();
+    transfers.forEach(transfer -> {
+      accountIds.add(transfer.getFromAccountId());
+      accountIds.add(transfer.getToAccountId());
     });
+    return accountIds;
   }
 
-  private void updateBalances(Handle handle, Transfer transfer) {
-    var amount = transfer.getAmount();
+  private static void updateBalances(Handle handle, Transfer transfer) {
+    var amount = transfer.getAmountMinorUnits();
     var currency = transfer.getCurrency();
     var from = transfer.getFromAccountId();
     var to = transfer.getToAccountId();
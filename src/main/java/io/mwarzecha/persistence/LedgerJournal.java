@@ -0,0 +1,365 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped log of created accounts and completed transfers. The file is mapped
+ * in fixed-size regions and records are copied into them sequentially, so an append is a memory
+ * copy; {@link #sync(long)} forces the touched regions to disk, and concurrent callers waiting for
+ * durability share one flush.
+ *
+ * <p>Every record carries a CRC32C of its payload. A record never spans two regions: when one
+ * does not fit, the rest of the region is padded and the record starts the next one. Zeroed,
+ * not yet written space marks the end of the log.
+ */
+class LedgerJournal implements Closeable {
+
+  static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+  private static final long MAGIC = 0x4C45444745524A32L;
+  private static final byte ACCOUNT_RECORD = 3;
+  private static final byte TRANSFER_RECORD = 4;
+  private static final byte PADDING_RECORD = 5;
+  private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+
+  private final FileChannel channel;
+  private final int regionSize;
+  private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+  private final Object flushLock = new Object();
+  private int writeRegion;
+  private int writeOffset;
+  private int firstUnsyncedRegion;
+  private long appendedSequence;
+  private volatile long durableSequence;
+
+  static LedgerJournal open(Path path) throws IOException {
+    return open(path, DEFAULT_REGION_SIZE);
+  }
+
+  static LedgerJournal open(Path path, int regionSize) throws IOException {
+    var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    return new LedgerJournal(channel, regionSize);
+  }
+
+  private LedgerJournal(FileChannel channel, int regionSize) throws IOException {
+    this.channel = channel;
+    this.regionSize = regionSize;
+    boolean empty = channel.size() == 0;
+    if (!empty) {
+      checkMagic(channel);
+    }
+    long regionCount = Math.max(1, (channel.size() + regionSize - 1) / regionSize);
+    for (int region = 0; region < regionCount; region++) {
+      map(region);
+    }
+    if (empty) {
+      regions.get(0).putLong(0, MAGIC);
+      regions.get(0).force();
+    }
+    this.writeOffset = Long.BYTES;
+  }
+
+  private static void checkMagic(FileChannel channel) throws IOException {
+    var magic = ByteBuffer.allocate(Long.BYTES);
+    channel.read(magic, 0);
+    if (magic.flip().remaining() < Long.BYTES || magic.getLong() != MAGIC) {
+      throw new IOException("Unsupported ledger journal format");
+    }
+  }
+
+  /**
+   * Reads every complete record in append order and positions the journal for appending after
+   * the last one. A torn or corrupt record, left by a crash in the middle of a flush, ends the log:
+   * it and everything after it is zeroed away, since none of it was ever reported durable.
+   */
+  synchronized void replay(Consumer<Account> accountAction, Consumer<Transfer> transferAction)
+      throws IOException {
+    var cursor = new Cursor();
+    while (cursor.next(true, accountAction, transferAction)) {
+      // keep reading
+    }
+    writeRegion = cursor.region;
+    writeOffset = cursor.offset;
+    firstUnsyncedRegion = writeRegion;
+    appendedSequence = cursor.sequence;
+    durableSequence = cursor.sequence;
+    discardFrom(cursor.region, cursor.offset);
+  }
+
+  synchronized long appendAccount(Account account) {
+    var owner = account.getOwner().getBytes(StandardCharsets.UTF_8);
+    var record = reserve(Long.BYTES + Integer.BYTES + owner.length + 3 + Long.BYTES);
+    record.putLong(account.getId());
+    record.putInt(owner.length).put(owner);
+    putCurrency(record, account.getCurrency());
+    record.putLong(account.getBalanceMinorUnits());
+    return commit(ACCOUNT_RECORD, record);
+  }
+
+  synchronized long appendTransfer(Transfer transfer) {
+    var record = reserve(5 * Long.BYTES + 3 + Integer.BYTES);
+    record.putLong(transfer.getId());
+    record.putLong(transfer.getFromAccountId());
+    record.putLong(transfer.getToAccountId());
+    putCurrency(record, transfer.getCurrency());
+    record.putLong(transfer.getAmountMinorUnits());
+    record.putLong(transfer.getTimestamp().getEpochSecond());
+    record.putInt(transfer.getTimestamp().getNano());
+    return commit(TRANSFER_RECORD, record);
+  }
+
+  /**
+   * Blocks until the record with the given sequence number is on disk. Whoever gets the flush
+   * lock first forces everything appended up to that point, so callers queued behind it usually
+   * return without doing any I/O.
+   */
+  void sync(long sequence) throws IOException {
+    if (durableSequence >= sequence) {
+      return;
+    }
+    synchronized (flushLock) {
+      if (durableSequence >= sequence) {
+        return;
+      }
+      long batchSequence;
+      int fromRegion;
+      int toRegion;
+      synchronized (this) {
+        batchSequence = appendedSequence;
+        fromRegion = firstUnsyncedRegion;
+        toRegion = writeRegion;
+        firstUnsyncedRegion = writeRegion;
+      }
+      for (int region = fromRegion; region <= toRegion; region++) {
+        regions.get(region).force();
+      }
+      durableSequence = batchSequence;
+    }
+  }
+
+  /**
+   * Sequence number of the last record known to be on disk; records are numbered from 1 in
+   * append order.
+   */
+  long durableSequence() {
+    return durableSequence;
+  }
+
+  /**
+   * Returns a reader positioned before the first record, which only ever sees durable records.
+   */
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  @Override
+  public void close() throws IOException {
+    sync(appendedSequenceSnapshot());
+    channel.close();
+  }
+
+  private synchronized long appendedSequenceSnapshot() {
+    return appendedSequence;
+  }
+
+  private MappedByteBuffer map(int region) throws IOException {
+    var buffer = channel.map(MapMode.READ_WRITE, (long) region * regionSize, regionSize);
+    regions.add(buffer);
+    return buffer;
+  }
+
+  private ByteBuffer reserve(int length) {
+    if (HEADER_SIZE + length > regionSize) {
+      throw new IllegalArgumentException("Journal record of " + length + " bytes is too large");
+    }
+    if (regionSize - writeOffset < HEADER_SIZE + length) {
+      if (regionSize - writeOffset >= HEADER_SIZE) {
+        regions.get(writeRegion).duplicate()
+            .position(writeOffset)
+            .putInt(regionSize - writeOffset - HEADER_SIZE)
+            .put(PADDING_RECORD)
+            .putInt(0);
+      }
+      writeRegion++;
+      writeOffset = 0;
+      if (writeRegion == regions.size()) {
+        try {
+          map(writeRegion);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot extend ledger journal", e);
+        }
+      }
+    }
+    return regions.get(writeRegion).duplicate()
+        .position(writeOffset + HEADER_SIZE)
+        .limit(writeOffset + HEADER_SIZE + length)
+        .slice();
+  }
+
+  private long commit(byte type, ByteBuffer record) {
+    var crc = new CRC32C();
+    crc.update(record.flip());
+    regions.get(writeRegion).duplicate()
+        .position(writeOffset)
+        .putInt(record.limit())
+        .put(type)
+        .putInt((int) crc.getValue());
+    writeOffset += HEADER_SIZE + record.limit();
+    return ++appendedSequence;
+  }
+
+  private void discardFrom(int region, int offset) throws IOException {
+    var buffer = regions.get(region);
+    int i = offset;
+    for (; i < regionSize && i % Long.BYTES != 0; i++) {
+      buffer.put(i, (byte) 0);
+    }
+    for (; i < regionSize; i += Long.BYTES) {
+      if (buffer.getLong(i) != 0) {
+        buffer.putLong(i, 0L);
+      }
+    }
+    buffer.force();
+    while (regions.size() > region + 1) {
+      regions.remove(regions.size() - 1);
+    }
+    channel.truncate((long) (region + 1) * regionSize);
+  }
+
+  /**
+   * Reads records in append order, following them across regions.
+   */
+  class Cursor {
+
+    private int region;
+    private int offset = Long.BYTES;
+    private long sequence;
+
+    /**
+     * Reads up to {@code maxRecords} durable records that have not been read yet, and returns
+     * how many were read.
+     */
+    int poll(int maxRecords, Consumer<Account> accountAction,
+        Consumer<Transfer> transferAction) {
+      int read = 0;
+      while (read < maxRecords && sequence < durableSequence
+          && next(false, accountAction, transferAction)) {
+        read++;
+      }
+      return read;
+    }
+
+    /**
+     * Sequence number of the last record read.
+     */
+    long sequence() {
+      return sequence;
+    }
+
+    private boolean next(boolean verify, Consumer<Account> accountAction,
+        Consumer<Transfer> transferAction) {
+      while (true) {
+        if (regionSize - offset < HEADER_SIZE) {
+          if (!nextRegion()) {
+            return false;
+          }
+          continue;
+        }
+        var buffer = regions.get(region);
+        int length = buffer.getInt(offset);
+        byte type = buffer.get(offset + Integer.BYTES);
+        if (type == PADDING_RECORD) {
+          if (!nextRegion()) {
+            return false;
+          }
+          continue;
+        }
+        if (length <= 0 || length > regionSize - offset - HEADER_SIZE) {
+          return false;
+        }
+        var record = buffer.duplicate()
+            .position(offset + HEADER_SIZE)
+            .limit(offset + HEADER_SIZE + length)
+            .slice();
+        if (verify && !checksumMatches(record, buffer.getInt(offset + Integer.BYTES + 1))) {
+          return false;
+        }
+        if (type == ACCOUNT_RECORD) {
+          accountAction.accept(readAccount(record));
+        } else if (type == TRANSFER_RECORD) {
+          transferAction.accept(readTransfer(record));
+        } else {
+          throw new IllegalStateException("Unknown journal record type " + type);
+        }
+        offset += HEADER_SIZE + length;
+        sequence++;
+        return true;
+      }
+    }
+
+    private boolean nextRegion() {
+      if (region + 1 >= regions.size()) {
+        return false;
+      }
+      region++;
+      offset = 0;
+      return true;
+    }
+  }
+
+  private static boolean checksumMatches(ByteBuffer record, int checksum) {
+    var crc = new CRC32C();
+    crc.update(record.duplicate());
+    return (int) crc.getValue() == checksum;
+  }
+
+  private static Account readAccount(ByteBuffer record) {
+    long id = record.getLong();
+    var owner = new byte[record.getInt()];
+    record.get(owner);
+    var currency = getCurrency(record);
+    return Account.newBuilder()
+        .id(id)
+        .owner(new String(owner, StandardCharsets.UTF_8))
+        .balance(Money.ofMinorUnits(currency, record.getLong()))
+        .build();
+  }
+
+  private static Transfer readTransfer(ByteBuffer record) {
+    return Transfer.newBuilder()
+        .id(record.getLong())
+        .fromAccountId(record.getLong())
+        .toAccountId(record.getLong())
+        .amount(Money.ofMinorUnits(getCurrency(record), record.getLong()))
+        .timestamp(Instant.ofEpochSecond(record.getLong(), record.getInt()))
+        .build();
+  }
+
+  private static void putCurrency(ByteBuffer buffer, String currency) {
+    buffer.put(currency.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static String getCurrency(ByteBuffer buffer) {
+    var currency = new byte[3];
+    buffer.get(currency);
+    return new String(currency, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,195 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Transfer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@code account}, {@code transfer} and {@code ledger_entry} tables up to date with a
+ * {@link LedgerJournal} by tailing its durable records on a background thread. Records are applied
+ * in batches, each in one transaction together with the journal sequence number it brings the
+ * tables up to, so a projection that survives a restart resumes where it stopped. A projection
+ * that is ahead of its journal, which can only belong to another journal, is wiped and rebuilt by
+ * replaying the journal from the start. A batch that cannot be applied is logged and retried with
+ * exponential backoff until it goes through.
+ */
+class LedgerProjector implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LedgerProjector.class);
+
+  private static final int MAX_BATCH_SIZE = 1000;
+  private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+  private static final long MIN_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private final LedgerJournal journal;
+  private final Jdbi jdbi;
+  private final LedgerJournal.Cursor cursor;
+  private final Thread thread;
+  private volatile long projectedSequence;
+  private volatile boolean running = true;
+  private volatile long failureCount;
+  private volatile int consecutiveFailures;
+
+  static LedgerProjector start(LedgerJournal journal, Jdbi jdbi) {
+    var projector = new LedgerProjector(journal, jdbi);
+    projector.thread.start();
+    return projector;
+  }
+
+  private LedgerProjector(LedgerJournal journal, Jdbi jdbi) {
+    this.journal = journal;
+    this.jdbi = jdbi;
+    this.cursor = journal.cursor();
+    this.projectedSequence = jdbi.inTransaction(this::resumeSequence);
+    while (cursor.sequence() < projectedSequence) {
+      cursor.poll((int) Math.min(MAX_BATCH_SIZE, projectedSequence - cursor.sequence()),
+          account -> {}, transfer -> {});
+    }
+    this.thread = new Thread(this::projectLoop, "ledger-projector");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Number of durable journal records not yet reflected in the tables.
+   */
+  long lag() {
+    return Math.max(0, journal.durableSequence() - projectedSequence);
+  }
+
+  /**
+   * Number of batches that failed to apply since startup, counting every retry.
+   */
+  long getFailureCount() {
+    return failureCount;
+  }
+
+  /**
+   * Number of failed attempts at the batch currently being applied, zero while projecting is
+   * healthy.
+   */
+  int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /**
+   * Waits until the tables reflect every record that was durable when this was called.
+   */
+  boolean awaitCaughtUp(Duration timeout) {
+    long target = journal.durableSequence();
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (projectedSequence < target) {
+      if (System.nanoTime() > deadline) {
+        return false;
+      }
+      LockSupport.parkNanos(IDLE_NANOS);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(thread);
+    thread.join();
+  }
+
+  private long resumeSequence(Handle handle) {
+    long stored = handle.select("SELECT journal_sequence FROM projection_position WHERE id = 1")
+        .mapTo(Long.class)
+        .findFirst()
+        .orElse(0L);
+    if (stored <= journal.durableSequence()) {
+      return stored;
+    }
+    handle.execute("DELETE FROM idempotency_key");
+    handle.execute("DELETE FROM account_daily_rollup");
+    handle.execute("DELETE FROM balance_checkpoint");
+    handle.execute("DELETE FROM ledger_entry");
+    handle.execute("DELETE FROM transfer");
+    handle.execute("DELETE FROM account_balance_slot");
+    handle.execute("DELETE FROM account");
+    storeSequence(handle, 0L);
+    return 0L;
+  }
+
+  private void projectLoop() {
+    var accounts = new ArrayList<Account>();
+    var transfers = new ArrayList<Transfer>();
+    while (running) {
+      if (accounts.isEmpty() && transfers.isEmpty()
+          && cursor.poll(MAX_BATCH_SIZE, accounts::add, transfers::add) == 0) {
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+      long sequence = cursor.sequence();
+      try {
+        jdbi.useTransaction(handle -> project(handle, accounts, transfers, sequence));
+      } catch (RuntimeException e) {
+        // the batch is kept and retried; the journal is the system of record
+        failureCount++;
+        long retryNanos = retryNanos(++consecutiveFailures);
+        LOGGER.error("Projecting journal records up to {} failed (attempt {}), retrying in {} ms",
+            sequence, consecutiveFailures, TimeUnit.NANOSECONDS.toMillis(retryNanos), e);
+        LockSupport.parkNanos(retryNanos);
+        continue;
+      }
+      if (consecutiveFailures > 0) {
+        LOGGER.info("Projected journal records up to {} after {} failed attempts", sequence,
+            consecutiveFailures);
+        consecutiveFailures = 0;
+      }
+      projectedSequence = sequence;
+      accounts.clear();
+      transfers.clear();
+    }
+  }
+
+  private static long retryNanos(int failures) {
+    int doublings = Math.min(failures - 1, Long.numberOfLeadingZeros(MIN_RETRY_NANOS) - 1);
+    return Math.min(MIN_RETRY_NANOS << doublings, MAX_RETRY_NANOS);
+  }
+
+  private static void project(Handle handle, List<Account> accounts, List<Transfer> transfers,
+      long sequence) {
+    var balanceChanges = new HashMap<Long, Long>();
+    transfers.forEach(transfer -> {
+      balanceChanges.merge(transfer.getFromAccountId(), -transfer.getAmountMinorUnits(),
+          Long::sum);
+      balanceChanges.merge(transfer.getToAccountId(), transfer.getAmountMinorUnits(),
+          Long::sum);
+    });
+    AccountDao.withHandle(handle)
+        .insertAccounts(accounts)
+        .debitAccounts(netChanges(balanceChanges, -1))
+        .creditAccounts(netChanges(balanceChanges, 1));
+    TransferDao.withHandle(handle)
+        .insertTransfers(transfers);
+    storeSequence(handle, sequence);
+  }
+
+  private static Map<Long, Long> netChanges(Map<Long, Long> balanceChanges, int signum) {
+    var changes = new HashMap<Long, Long>();
+    balanceChanges.forEach((accountId, change) -> {
+      if (Long.signum(change) == signum) {
+        changes.put(accountId, Math.abs(change));
+      }
+    });
+    return changes;
+  }
+
+  private static void storeSequence(Handle handle, long sequence) {
+    handle.execute("MERGE INTO projection_position (id, journal_sequence) KEY (id) VALUES (1, ?)",
+        sequence);
+  }
+}
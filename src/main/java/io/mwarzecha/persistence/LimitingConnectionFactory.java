@@ -0,0 +1,71 @@
+package io.mwarzecha.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.jdbi.v3.core.ConnectionFactory;
+
+/**
+ * Hands out at most a fixed number of connections at once, queueing further callers first come,
+ * first served on a semaphore before they reach the connection pool. With a thread per request
+ * and virtual threads, thousands of callers can ask for a connection at the same moment; this
+ * keeps them off the pool's own locks and bounds how many threads are inside the database, where
+ * H2's monitors pin virtual threads to their carriers.
+ */
+class LimitingConnectionFactory implements ConnectionFactory {
+
+  private final DataSource dataSource;
+  private final Semaphore permits;
+  private final long maxWaitMillis;
+
+  /**
+   * @param maxWaitMillis how long to wait for a permit, or a negative value to wait indefinitely
+   */
+  LimitingConnectionFactory(DataSource dataSource, int limit, long maxWaitMillis) {
+    this.dataSource = dataSource;
+    this.permits = new Semaphore(limit, true);
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  @Override
+  public Connection openConnection() throws SQLException {
+    acquire();
+    try {
+      return dataSource.getConnection();
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public void closeConnection(Connection connection) throws SQLException {
+    try {
+      connection.close();
+    } finally {
+      permits.release();
+    }
+  }
+
+  int getQueueLength() {
+    return permits.getQueueLength();
+  }
+
+  private void acquire() throws SQLException {
+    try {
+      if (maxWaitMillis < 0) {
+        permits.acquire();
+      } else if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLTransientConnectionException(
+            "Timed out after " + maxWaitMillis + " ms waiting for a database connection");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLTransientConnectionException("Interrupted waiting for a database connection",
+          e);
+    }
+  }
+}
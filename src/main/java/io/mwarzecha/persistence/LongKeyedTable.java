@@ -0,0 +1,100 @@
+package io.mwarzecha.persistence;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Map from positive {@code long} keys to values, backed by fixed-size chunks indexed directly by
+ * the key. Meant for densely allocated ids: lookups are lock-free and never box the key, writers
+ * serialize only when a new chunk has to be allocated.
+ */
+class LongKeyedTable<V> {
+
+  private static final int CHUNK_SHIFT = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private volatile AtomicReferenceArray<V>[] chunks = newDirectory(16);
+  private volatile long maxKey;
+
+  V get(long key) {
+    if (key <= 0) {
+      return null;
+    }
+    long index = key - 1;
+    var directory = chunks;
+    long chunkIndex = index >>> CHUNK_SHIFT;
+    if (chunkIndex >= directory.length) {
+      return null;
+    }
+    var chunk = directory[(int) chunkIndex];
+    return chunk == null ? null : chunk.get((int) (index & CHUNK_MASK));
+  }
+
+  void put(long key, V value) {
+    if (key <= 0) {
+      throw new IllegalArgumentException("Key must be positive: " + key);
+    }
+    long index = key - 1;
+    chunkFor(index >>> CHUNK_SHIFT).set((int) (index & CHUNK_MASK), value);
+    if (key > maxKey) {
+      updateMaxKey(key);
+    }
+  }
+
+  long maxKey() {
+    return maxKey;
+  }
+
+  void forEach(Consumer<? super V> action) {
+    long max = maxKey;
+    for (long key = 1; key <= max; key++) {
+      var value = get(key);
+      if (value != null) {
+        action.accept(value);
+      }
+    }
+  }
+
+  private synchronized void updateMaxKey(long key) {
+    if (key > maxKey) {
+      maxKey = key;
+    }
+  }
+
+  private AtomicReferenceArray<V> chunkFor(long chunkIndex) {
+    var directory = chunks;
+    if (chunkIndex < directory.length && directory[(int) chunkIndex] != null) {
+      return directory[(int) chunkIndex];
+    }
+    return allocateChunk(chunkIndex);
+  }
+
+  private synchronized AtomicReferenceArray<V> allocateChunk(long chunkIndex) {
+    if (chunkIndex >= Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Key out of range");
+    }
+    var directory = chunks;
+    if (chunkIndex >= directory.length) {
+      int length = directory.length;
+      while (length <= chunkIndex) {
+        length <<= 1;
+      }
+      AtomicReferenceArray<V>[] grown = newDirectory(length);
+      System.arraycopy(directory, 0, grown, 0, directory.length);
+      directory = grown;
+    }
+    var chunk = directory[(int) chunkIndex];
+    if (chunk == null) {
+      chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+      directory[(int) chunkIndex] = chunk;
+    }
+    chunks = directory;
+    return chunk;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> AtomicReferenceArray<V>[] newDirectory(int length) {
+    return (AtomicReferenceArray<V>[]) new AtomicReferenceArray[length];
+  }
+}
@@ -1,34 +1,332 @@
 package io.mwarzecha.persistence;
 
+import io.mwarzecha.config.Config;
+import io.mwarzecha.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
 import java.util.function.Consumer;
 import javax.sql.DataSource;
-import org.apache.commons.dbcp2.BasicDataSource;
 import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Persistence {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(Persistence.class);
+
   public static PersistenceService persistenceService() {
-    return new JdbiPersistenceService(configuredJdbi(), clock());
+    return persistenceService(Config.load(), new MetricsRegistry());
+  }
+
+  /**
+   * Creates the configured persistence service and registers its connection pool, transaction,
+   * group commit and account cache statistics with the given registry.
+   */
+  public static PersistenceService persistenceService(Config config, MetricsRegistry metrics) {
+    var engine = config.getString("persistence.engine");
+    if ("in-memory".equals(engine)) {
+      return inMemoryPersistenceService(Path.of(config.getString("persistence.journal")));
+    }
+    if ("event-sourced".equals(engine)) {
+      return eventSourcedPersistenceService(Path.of(config.getString("persistence.journal")),
+          config, metrics);
+    }
+    var isolation = config.getEnum("persistence.transactionIsolation",
+        TransactionIsolationLevel.class);
+    var persistenceStats = registered(new PersistenceStats(), metrics);
+    var jdbi = configuredJdbi(config, metrics);
+    var archive = transferArchive(config);
+    PersistenceService service;
+    if ("group-commit".equals(engine)) {
+      service = groupCommitPersistenceService(jdbi,
+          config.getInt("persistence.groupCommit.maxBatchSize"),
+          Duration.ofNanos(1000 * config.getLong("persistence.groupCommit.maxWaitMicros")),
+          config.getBoolean("persistence.groupCommit.netting"),
+          registered(new GroupCommitStats(), metrics), persistenceStats, isolation, archive);
+    } else if ("jdbi".equals(engine)) {
+      service = new JdbiPersistenceService(jdbi, clock(), persistenceStats, isolation, archive);
+    } else {
+      throw new IllegalArgumentException("Unknown persistence engine " + engine);
+    }
+    startTransferArchiver(jdbi, archive, config, metrics);
+    startBalanceCheckpointer(jdbi, archive, config, metrics);
+    startDailyRollupBackfill(jdbi, archive, config);
+    int accountCacheSize = config.getInt("persistence.accountCache.maxSize");
+    return accountCacheSize > 0
+        ? cachedPersistenceService(service, accountCacheSize,
+            registered(new AccountCacheStats(), metrics))
+        : service;
+  }
+
+  /**
+   * Puts a bounded account cache in front of the given service, which must only be written
+   * through the returned one.
+   */
+  public static PersistenceService cachedPersistenceService(PersistenceService delegate,
+      int maxSize, AccountCacheStats stats) {
+    return new CachingPersistenceService(delegate, new AccountCache(maxSize, stats));
+  }
+
+  public static PersistenceService groupCommitPersistenceService(int maxBatchSize,
+      Duration maxWait, GroupCommitStats stats) {
+    return groupCommitPersistenceService(configuredJdbi(Config.defaults(), new MetricsRegistry()),
+        maxBatchSize, maxWait, false, stats, new PersistenceStats(),
+        TransactionIsolationLevel.READ_COMMITTED, TransferArchive.none());
+  }
+
+  private static PersistenceService groupCommitPersistenceService(Jdbi jdbi, int maxBatchSize,
+      Duration maxWait, boolean netting, GroupCommitStats stats,
+      PersistenceStats persistenceStats, TransactionIsolationLevel isolation,
+      TransferArchive archive) {
+    var service = new GroupCommitPersistenceService(jdbi, clock(), maxBatchSize, maxWait, netting,
+        stats, persistenceStats, isolation, archive);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        service.close();
+      } catch (InterruptedException e) {
+        //ignored
+      }
+    }));
+    return service;
+  }
+
+  /**
+   * Opens the transfer archive in {@code archive.directory}, or none if it is empty.
+   */
+  private static TransferArchive transferArchive(Config config) {
+    var directory = config.getString("archive.directory");
+    if (directory.isEmpty()) {
+      return TransferArchive.none();
+    }
+    try {
+      return TransferArchive.open(Path.of(directory));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open transfer archive " + directory, e);
+    }
+  }
+
+  /**
+   * Moves transfers older than {@code archive.retentionDays} into the archive every
+   * {@code archive.intervalSeconds}, unless it is zero or there is no archive.
+   */
+  private static void startTransferArchiver(Jdbi jdbi, TransferArchive archive, Config config,
+      MetricsRegistry metrics) {
+    long intervalSeconds = config.getLong("archive.intervalSeconds");
+    if (intervalSeconds <= 0 || config.getString("archive.directory").isEmpty()) {
+      return;
+    }
+    var archiver = TransferArchiver.start(jdbi, archive, clock(),
+        Duration.ofSeconds(intervalSeconds),
+        Duration.ofDays(config.getLong("archive.retentionDays")),
+        config.getInt("archive.segmentSize"));
+    metrics.counter("transfers_archived_total", "Transfers moved to the archive",
+        archiver::getArchivedCount);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        archiver.close();
+      } catch (InterruptedException e) {
+        //ignored
+      }
+    }));
+  }
+
+  /**
+   * Checkpoints account balances every {@code balances.checkpoint.intervalSeconds}, unless it is
+   * zero, so that point-in-time balance queries only sum up the transfers since the latest one.
+   */
+  private static void startBalanceCheckpointer(Jdbi jdbi, TransferArchive archive,
+      Config config, MetricsRegistry metrics) {
+    long intervalSeconds = config.getLong("balances.checkpoint.intervalSeconds");
+    if (intervalSeconds <= 0) {
+      return;
+    }
+    var checkpointer = BalanceCheckpointer.start(jdbi, archive, clock(),
+        Duration.ofSeconds(intervalSeconds),
+        Duration.ofSeconds(config.getLong("balances.checkpoint.settleSeconds")),
+        config.getInt("balances.checkpoint.minTransfers"));
+    metrics.counter("balance_checkpoints_total", "Account balance checkpoints taken",
+        checkpointer::getCheckpointCount);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        checkpointer.close();
+      } catch (InterruptedException e) {
+        //ignored
+      }
+    }));
+  }
+
+  /**
+   * With {@code rollups.backfill.onStartup}, rebuilds the daily rollups of every account from its
+   * ledger entries in the background, on {@code rollups.backfill.threads} threads in ranges of
+   * {@code rollups.backfill.chunkSize} accounts, while the server already takes transfers.
+   */
+  private static void startDailyRollupBackfill(Jdbi jdbi, TransferArchive archive,
+      Config config) {
+    if (!config.getBoolean("rollups.backfill.onStartup")) {
+      return;
+    }
+    var backfill = new DailyRollupBackfill(jdbi, archive,
+        config.getInt("rollups.backfill.threads"),
+        config.getInt("rollups.backfill.chunkSize"));
+    var thread = new Thread(() -> {
+      try {
+        LOGGER.info("Rebuilt {} daily rollups", backfill.run());
+      } catch (RuntimeException e) {
+        LOGGER.error("Daily rollup backfill failed", e);
+      }
+    }, "rollup-backfill");
+    thread.setDaemon(true);
+    thread.start();
   }
 
-  private static Jdbi configuredJdbi() {
-    var jdbi = Jdbi.create(basicDataSource());
+  /**
+   * Puts the given service behind a bounded executor with {@code persistence.executor.threads}
+   * threads, defaulting to {@code db.pool.maxTotal}, and a queue of
+   * {@code persistence.executor.queueSize} calls, and registers the executor's statistics with
+   * the given registry. With {@code server.virtualThreads}, calls run on virtual threads instead,
+   * as many at once as the threads and the queue together would hold, leaving it to the
+   * connection limiter to bound how many reach the database. The caller owns the returned service
+   * and must close it.
+   */
+  public static AsyncPersistenceService asyncPersistenceService(PersistenceService delegate,
+      Config config, MetricsRegistry metrics) {
+    int threads = config.getInt("persistence.executor.threads");
+    threads = threads > 0 ? threads : config.getInt("db.pool.maxTotal");
+    int queueSize = config.getInt("persistence.executor.queueSize");
+    var service = config.getBoolean("server.virtualThreads")
+        ? AsyncPersistenceService.onVirtualThreads(delegate, threads + queueSize)
+        : new AsyncPersistenceService(delegate, threads, queueSize);
+    metrics.gauge("db_executor_queued_calls", "Persistence calls waiting for an executor thread",
+        service::getQueueSize);
+    metrics.gauge("db_executor_active_threads", "Executor threads running a persistence call",
+        service::getActiveCount);
+    metrics.counter("db_executor_rejections_total",
+        "Persistence calls rejected because the executor queue was full",
+        service::getRejectionCount);
+    return service;
+  }
+
+  /**
+   * Puts the given service behind an executor of its own for transfer exports, running at most
+   * {@code transfers.export.maxConcurrent} of them at once and rejecting any further one instead
+   * of queueing it, so that long exports never take threads from
+   * {@link #asyncPersistenceService}. The connection pool holds that many connections on top of
+   * {@code db.pool.maxTotal} for them. The caller owns the returned service and must close it.
+   */
+  public static AsyncPersistenceService exportPersistenceService(PersistenceService delegate,
+      Config config, MetricsRegistry metrics) {
+    int maxConcurrent = config.getInt("transfers.export.maxConcurrent");
+    var service = config.getBoolean("server.virtualThreads")
+        ? AsyncPersistenceService.onVirtualThreads(delegate, maxConcurrent)
+        : new AsyncPersistenceService(delegate, "export-executor-", maxConcurrent, 0);
+    metrics.gauge("export_executor_active_calls", "Transfer exports running",
+        service::getActiveCount);
+    metrics.counter("export_executor_rejections_total",
+        "Transfer exports rejected because transfers.export.maxConcurrent were running",
+        service::getRejectionCount);
+    return service;
+  }
+
+  public static PersistenceService inMemoryPersistenceService(Path journalPath) {
+    try {
+      var journal = LedgerJournal.open(journalPath);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          //ignored
+        }
+      }));
+      return InMemoryPersistenceService.recover(journal, clock());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open ledger journal " + journalPath, e);
+    }
+  }
+
+  /**
+   * Uses the journal as the system of record and serves reads from the database, which is rebuilt
+   * from the journal on startup and then kept up to date in the background. Reads may lag behind
+   * acknowledged writes by {@link PersistenceService#getProjectionLag()} records, so the returned
+   * service is deliberately not put behind the account cache.
+   */
+  public static PersistenceService eventSourcedPersistenceService(Path journalPath) {
+    return eventSourcedPersistenceService(journalPath, Config.defaults(), new MetricsRegistry());
+  }
+
+  private static PersistenceService eventSourcedPersistenceService(Path journalPath,
+      Config config, MetricsRegistry metrics) {
+    try {
+      var journal = LedgerJournal.open(journalPath);
+      var writeModel = InMemoryPersistenceService.recover(journal, clock());
+      var jdbi = configuredJdbi(config, metrics);
+      var projector = LedgerProjector.start(journal, jdbi);
+      var service = new EventSourcedPersistenceService(writeModel,
+          new JdbiPersistenceService(jdbi, clock()), projector);
+      metrics.gauge("projection_lag_records",
+          "Durable journal records not yet applied to the database",
+          () -> service.getProjectionLag().orElse(0L));
+      metrics.counter("projection_failures_total",
+          "Failed attempts to apply journal records to the database",
+          projector::getFailureCount);
+      metrics.gauge("projection_consecutive_failures",
+          "Failed attempts at the batch being applied, zero while projection is healthy",
+          projector::getConsecutiveFailures);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          service.close();
+          journal.close();
+        } catch (InterruptedException | IOException e) {
+          //ignored
+        }
+      }));
+      return service;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open ledger journal " + journalPath, e);
+    }
+  }
+
+  private static Jdbi configuredJdbi(Config config, MetricsRegistry metrics) {
+    var dataSource = basicDataSource(config, metrics);
+    int concurrencyLimit = concurrencyLimit(config);
+    Jdbi jdbi;
+    if (concurrencyLimit > 0) {
+      var connectionFactory = new LimitingConnectionFactory(dataSource, concurrencyLimit,
+          config.getLong("db.pool.maxWaitMillis"));
+      metrics.gauge("db_limiter_waiting_threads",
+          "Threads queued for a database connection in front of the pool",
+          connectionFactory::getQueueLength);
+      jdbi = Jdbi.create(connectionFactory);
+    } else {
+      jdbi = Jdbi.create(dataSource);
+    }
     jdbi.installPlugin(new H2DatabasePlugin());
     var dbSchemaBootstrap = dbSchemaBootstrap();
     jdbi.useHandle(dbSchemaBootstrap::accept);
     return jdbi;
   }
 
-  private static DataSource basicDataSource() {
-    var ds = new BasicDataSource();
+  private static DataSource basicDataSource(Config config, MetricsRegistry metrics) {
+    var ds = new PooledDataSource();
     ds.setDriverClassName("org.h2.Driver");
-    ds.setUrl("jdbc:h2:mem:appDB;DB_CLOSE_DELAY=-1");
-    ds.setUsername("sa");
-    ds.setPassword("");
+    ds.setUrl(jdbcUrl(config));
+    ds.setUsername(config.getString("db.user"));
+    ds.setPassword(config.getString("db.password"));
+    ds.setMinIdle(config.getInt("db.pool.minIdle"));
+    ds.setMaxIdle(config.getInt("db.pool.maxIdle"));
+    ds.setMaxTotal(config.getInt("db.pool.maxTotal")
+        + config.getInt("transfers.export.maxConcurrent"));
+    ds.setMaxWaitMillis(config.getLong("db.pool.maxWaitMillis"));
+    ds.setPoolPreparedStatements(config.getBoolean("db.pool.poolPreparedStatements"));
+    ds.setMaxOpenPreparedStatements(config.getInt("db.pool.maxOpenPreparedStatements"));
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       try {
         ds.close();
@@ -36,9 +334,81 @@ public class Persistence {
         //ignored
       }
     }));
+    metrics.gauge("db_pool_connections", "Pooled database connections by state",
+        Map.of("state", "active"), ds::getNumActive);
+    metrics.gauge("db_pool_connections", "Pooled database connections by state",
+        Map.of("state", "idle"), ds::getNumIdle);
+    metrics.gauge("db_pool_waiting_threads", "Threads waiting for a database connection",
+        ds::getNumWaiters);
     return ds;
   }
 
+  /**
+   * The configured limit, or {@code db.pool.maxTotal} with virtual threads, either raised by the
+   * connections set aside for exports.
+   */
+  private static int concurrencyLimit(Config config) {
+    int limit = config.getInt("db.concurrencyLimit");
+    if (limit <= 0 && config.getBoolean("server.virtualThreads")) {
+      limit = Math.max(0, config.getInt("db.pool.maxTotal"));
+    }
+    return limit > 0 ? limit + config.getInt("transfers.export.maxConcurrent") : limit;
+  }
+
+  /**
+   * The configured {@code db.url}, or an H2 URL for the configured storage mode.
+   */
+  static String jdbcUrl(Config config) {
+    var url = config.getString("db.url");
+    if (!url.isEmpty()) {
+      return url;
+    }
+    var mode = config.getString("db.mode");
+    if ("memory".equals(mode)) {
+      return "jdbc:h2:mem:appDB;DB_CLOSE_DELAY=-1";
+    } else if ("file".equals(mode)) {
+      return "jdbc:h2:file:" + config.getString("db.file");
+    }
+    throw new IllegalArgumentException("Unknown db.mode " + mode);
+  }
+
+  private static PersistenceStats registered(PersistenceStats stats, MetricsRegistry metrics) {
+    metrics.counter("db_transactions_total", "Transfer transactions by outcome",
+        Map.of("outcome", "commit"), stats::getCommitCount);
+    metrics.counter("db_transactions_total", "Transfer transactions by outcome",
+        Map.of("outcome", "rollback"), stats::getRollbackCount);
+    for (var reason : PersistenceStats.FailureReason.values()) {
+      metrics.counter("transfer_failures_total", "Rejected transfers by reason",
+          Map.of("reason", reason.name().toLowerCase(Locale.ROOT)),
+          () -> stats.getFailureCount(reason));
+    }
+    return stats;
+  }
+
+  private static GroupCommitStats registered(GroupCommitStats stats, MetricsRegistry metrics) {
+    metrics.counter("group_commit_batches_total", "Batches committed by group commit",
+        stats::getBatchCount);
+    metrics.counter("group_commit_transfers_total", "Transfers committed by group commit",
+        stats::getTransferCount);
+    metrics.counter("group_commit_balance_updates_total",
+        "Account balance updates made by group commit", stats::getBalanceUpdateCount);
+    metrics.gauge("group_commit_batch_size_max", "Largest batch committed by group commit",
+        stats::getMaxBatchSize);
+    return stats;
+  }
+
+  private static AccountCacheStats registered(AccountCacheStats stats, MetricsRegistry metrics) {
+    metrics.counter("account_cache_requests_total", "Account cache lookups by result",
+        Map.of("result", "hit"), stats::getHitCount);
+    metrics.counter("account_cache_requests_total", "Account cache lookups by result",
+        Map.of("result", "miss"), stats::getMissCount);
+    metrics.counter("account_cache_evictions_total", "Accounts evicted from the cache",
+        stats::getEvictionCount);
+    metrics.counter("account_cache_invalidations_total",
+        "Cached accounts invalidated by transfers", stats::getInvalidationCount);
+    return stats;
+  }
+
   private static Consumer<Handle> dbSchemaBootstrap() {
     return new DbSchemaBootstrap();
   }
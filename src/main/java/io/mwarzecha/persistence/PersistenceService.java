@@ -1,22 +1,126 @@
 package io.mwarzecha.persistence;
 
 import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
 import io.mwarzecha.model.Transfer;
 import io.mwarzecha.util.Try;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public interface PersistenceService {
 
   List<Transfer> getTransfersByAccountId(long accountId);
 
+  /**
+   * Returns at most {@code limit} transfers of the account with ids greater than
+   * {@code afterTransferId}, ordered by id.
+   */
+  List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit);
+
+  /**
+   * Passes every transfer of the account, ordered by id, to the action without collecting them.
+   */
+  void forEachTransferByAccountId(long accountId, Consumer<Transfer> action);
+
   Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId);
 
+  /**
+   * Passes every transfer with an id after {@code afterTransferId} and a timestamp from
+   * {@code since} on to the action, in id order, reading them as it goes. Stops at the first
+   * transfer timestamped after {@code until}, rather than skipping it, so that a caller resuming
+   * after the last transfer passed never misses one committed out of id order before then. An
+   * engine that can tell exactly which transfers are still being committed may stop at the first
+   * of those instead, ignoring {@code until}.
+   */
+  void forEachTransfer(long afterTransferId, Instant since, Instant until,
+      Consumer<Transfer> action);
+
   List<Account> getAllAccounts();
 
   Optional<Account> getAccountById(long accountId);
 
   Account persistAccount(Account account);
 
+  /**
+   * Creates the accounts and returns them with their ids, in order.
+   */
+  default List<Account> persistAccounts(List<Account> accounts) {
+    return accounts.stream()
+        .map(this::persistAccount)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Splits the balance of the account into the given number of slots, which concurrent transfers
+   * update independently, or keeps it in a single row for one slot. Returns the account, or empty
+   * if it does not exist.
+   */
+  Optional<Account> setBalanceSlots(long accountId, int slots);
+
+  /**
+   * Returns the turnover of the account on every UTC day from {@code from} to {@code to}, both
+   * inclusive, on which it took part in a transfer, ordered by day.
+   */
+  List<DailyRollup> getDailyRollups(long accountId, LocalDate from, LocalDate to);
+
+  /**
+   * Returns the account with the balance it had at the given instant, after every transfer with
+   * a timestamp up to it, or empty if it does not exist.
+   */
+  Optional<Account> getAccountBalanceAt(long accountId, Instant at);
+
   Try<Transfer> makeTransfer(Transfer transfer);
-}
\ No newline at end of file
+
+  /**
+   * Makes the transfer like {@link #makeTransfer(Transfer)}, for engines that commit transfers on
+   * threads of their own returning as soon as it is queued, so that the caller's thread is not
+   * held while it waits for the commit. By default it is made before this returns.
+   */
+  default CompletableFuture<Try<Transfer>> submitTransfer(Transfer transfer) {
+    return CompletableFuture.completedFuture(makeTransfer(transfer));
+  }
+
+  /**
+   * Makes the transfer unless one has already been made with the same idempotency key, in which
+   * case that transfer is returned instead, or a failure if it has different details.
+   * Implementations that record keys do so in the transaction making the transfer; the default
+   * one does not record them at all, which leaves the in-memory and event-sourced engines relying
+   * on the REST layer's cache alone.
+   */
+  default Try<Transfer> makeTransfer(Transfer transfer, String idempotencyKey) {
+    return makeTransfer(transfer);
+  }
+
+  /**
+   * Makes the transfer like {@link #makeTransfer(Transfer, String)}, returning before it is
+   * committed the same way as {@link #submitTransfer(Transfer)}.
+   */
+  default CompletableFuture<Try<Transfer>> submitTransfer(Transfer transfer,
+      String idempotencyKey) {
+    return CompletableFuture.completedFuture(makeTransfer(transfer, idempotencyKey));
+  }
+
+  /**
+   * Makes every transfer independently of the others, returning one result per transfer in the
+   * same order. Implementations may apply the whole list in bulk.
+   */
+  default List<Try<Transfer>> makeTransfers(List<Transfer> transfers) {
+    return transfers.stream()
+        .map(this::makeTransfer)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns how many committed writes reads may not reflect yet, for implementations that serve
+   * reads from an asynchronously updated projection.
+   */
+  default OptionalLong getProjectionLag() {
+    return OptionalLong.empty();
+  }
+}
@@ -0,0 +1,63 @@
+package io.mwarzecha.persistence;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcomes of the database transactions that apply transfers, and why transfers were rejected.
+ */
+public class PersistenceStats {
+
+  /**
+   * Why a transfer was rejected.
+   */
+  public enum FailureReason {
+    INSUFFICIENT_FUNDS,
+    INVALID_ACCOUNT,
+    OTHER;
+
+    static FailureReason of(Throwable throwable) {
+      if (throwable instanceof InsufficientFundsException) {
+        return INSUFFICIENT_FUNDS;
+      } else if (throwable instanceof InvalidAccountException) {
+        return INVALID_ACCOUNT;
+      }
+      return OTHER;
+    }
+  }
+
+  private final LongAdder commits = new LongAdder();
+  private final LongAdder rollbacks = new LongAdder();
+  private final Map<FailureReason, LongAdder> failures = new EnumMap<>(FailureReason.class);
+
+  public PersistenceStats() {
+    for (var reason : FailureReason.values()) {
+      failures.put(reason, new LongAdder());
+    }
+  }
+
+  void recordCommit() {
+    commits.increment();
+  }
+
+  void recordRollback() {
+    rollbacks.increment();
+  }
+
+  void recordFailure(Throwable throwable) {
+    failures.get(FailureReason.of(throwable)).increment();
+  }
+
+  public long getCommitCount() {
+    return commits.sum();
+  }
+
+  public long getRollbackCount() {
+    return rollbacks.sum();
+  }
+
+  public long getFailureCount(FailureReason reason) {
+    return failures.get(reason).sum();
+  }
+}
@@ -0,0 +1,15 @@
+package io.mwarzecha.persistence;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+/**
+ * {@link BasicDataSource} that also reports how many threads are blocked waiting for a
+ * connection, which the data source itself does not expose.
+ */
+class PooledDataSource extends BasicDataSource {
+
+  int getNumWaiters() {
+    var pool = getConnectionPool();
+    return pool == null ? 0 : pool.getNumWaiters();
+  }
+}
@@ -0,0 +1,76 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Transfer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks balances of a set of accounts while a sequence of transfers is checked against them, so
+ * that every transfer is validated against the position left by the ones accepted before it.
+ */
+class RunningBalances {
+
+  private final Map<Long, Account> accounts;
+  private final Map<Long, Long> balances = new HashMap<>();
+
+  RunningBalances(Map<Long, Account> accounts) {
+    this.accounts = accounts;
+  }
+
+  /**
+   * Applies the transfer to the running balances, or throws without changing them if it would be
+   * rejected by the database.
+   */
+  Transfer apply(Transfer transfer) {
+    long amount = transfer.getAmountMinorUnits();
+    if (amount <= 0) {
+      throw new IllegalArgumentException("Transfer amount must be greater than 0");
+    }
+    if (transfer.getFromAccountId() == transfer.getToAccountId()) {
+      throw new IllegalArgumentException("Cannot transfer to the same account");
+    }
+    long from = balanceOf(transfer.getFromAccountId(), transfer.getCurrency());
+    long to = balanceOf(transfer.getToAccountId(), transfer.getCurrency());
+    if (from < amount) {
+      throw new InsufficientFundsException();
+    }
+    long credited = Math.addExact(to, amount);
+    balances.put(transfer.getFromAccountId(), from - amount);
+    balances.put(transfer.getToAccountId(), credited);
+    return transfer;
+  }
+
+  /**
+   * Returns the net amount to debit from every account whose balance went down.
+   */
+  Map<Long, Long> debits() {
+    return netChanges(-1);
+  }
+
+  /**
+   * Returns the net amount to credit to every account whose balance went up.
+   */
+  Map<Long, Long> credits() {
+    return netChanges(1);
+  }
+
+  private Map<Long, Long> netChanges(int signum) {
+    var changes = new HashMap<Long, Long>();
+    balances.forEach((accountId, balance) -> {
+      long change = balance - accounts.get(accountId).getBalanceMinorUnits();
+      if (Long.signum(change) == signum) {
+        changes.put(accountId, Math.abs(change));
+      }
+    });
+    return changes;
+  }
+
+  private long balanceOf(long accountId, String currency) {
+    var account = accounts.get(accountId);
+    if (account == null || !account.getCurrency().equals(currency)) {
+      throw new InvalidAccountException(accountId, currency);
+    }
+    return balances.getOrDefault(accountId, account.getBalanceMinorUnits());
+  }
+}
@@ -0,0 +1,220 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Transfers moved out of the database, kept in {@link TransferSegment} files in one directory.
+ * Segments hold consecutive ranges of ids and are only ever added after the last one, so every
+ * transfer with an id up to {@link #maxTransferId()} is archived and every later one is still in
+ * the database. The archived transfers are only removed from the database after their segment has
+ * been added, so readers combining both take the ones with ids up to {@link #maxTransferId()}
+ * from the archive and only the later ones from the database, within {@link #read(Supplier)},
+ * since a segment is added under the matching write lock.
+ */
+class TransferArchive {
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile List<TransferSegment> segments;
+
+  /**
+   * Returns an archive without segments, which cannot be appended to.
+   */
+  static TransferArchive none() {
+    return new TransferArchive(null, List.of());
+  }
+
+  /**
+   * Opens the segments in the directory, creating it if needed. Segments left half-written by a
+   * crash are deleted.
+   */
+  static TransferArchive open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    List<Path> paths;
+    try (var files = Files.list(directory)) {
+      paths = files.sorted().collect(Collectors.toList());
+    }
+    var segments = new ArrayList<TransferSegment>();
+    for (var path : paths) {
+      var name = path.getFileName().toString();
+      if (name.endsWith(TEMPORARY_SUFFIX)) {
+        Files.delete(path);
+      } else if (name.endsWith(SEGMENT_SUFFIX)) {
+        segments.add(TransferSegment.open(path));
+      }
+    }
+    return new TransferArchive(directory, segments);
+  }
+
+  private TransferArchive(Path directory, List<TransferSegment> segments) {
+    this.directory = directory;
+    this.segments = List.copyOf(segments);
+  }
+
+  /**
+   * Id of the last archived transfer, or zero if there is none.
+   */
+  long maxTransferId() {
+    var current = segments;
+    return current.isEmpty() ? 0 : current.get(current.size() - 1).getMaxTransferId();
+  }
+
+  /**
+   * Timestamp of the latest archived transfer, if any.
+   */
+  Optional<Instant> maxTimestamp() {
+    return segments.stream()
+        .map(TransferSegment::getMaxTimestamp)
+        .max(Instant::compareTo);
+  }
+
+  /**
+   * Runs the reader with segments neither added nor removed from the database meanwhile.
+   */
+  <T> T read(Supplier<T> reader) {
+    lock.readLock().lock();
+    try {
+      return reader.get();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
+    var transfers = new ArrayList<Transfer>();
+    for (var segment : segments) {
+      if (segment.getMaxTransferId() <= afterTransferId) {
+        continue;
+      }
+      boolean more = segment.forEachTransferByAccountId(accountId, transfer -> {
+        if (transfer.getId() > afterTransferId) {
+          transfers.add(transfer);
+        }
+        return transfers.size() < limit;
+      });
+      if (!more) {
+        break;
+      }
+    }
+    return transfers;
+  }
+
+  Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
+    for (var segment : segments) {
+      if (transferId >= segment.getMinTransferId() && transferId <= segment.getMaxTransferId()) {
+        var found = new ArrayList<Transfer>(1);
+        segment.forEachTransferByAccountId(accountId, transfer -> {
+          if (transfer.getId() == transferId) {
+            found.add(transfer);
+          }
+          return found.isEmpty() && transfer.getId() < transferId;
+        });
+        return found.stream().findFirst();
+      }
+    }
+    return Optional.empty();
+  }
+
+  void forEachTransferByAccountId(long accountId, Consumer<Transfer> action) {
+    segments.forEach(segment -> segment.forEachTransferByAccountId(accountId, transfer -> {
+      action.accept(transfer);
+      return true;
+    }));
+  }
+
+  /**
+   * Passes the transfers to or from the account with a timestamp after {@code after} and up to
+   * {@code upTo} to the action, skipping segments without any such timestamp.
+   */
+  void forEachTransferByAccountId(long accountId, Instant after, Instant upTo,
+      Consumer<Transfer> action) {
+    segments.stream()
+        .filter(segment -> segment.mayContainTimestamps(after, upTo))
+        .forEach(segment -> segment.forEachTransferByAccountId(accountId, transfer -> {
+          if (transfer.getTimestamp().isAfter(after) && !transfer.getTimestamp().isAfter(upTo)) {
+            action.accept(transfer);
+          }
+          return true;
+        }));
+  }
+
+  /**
+   * Passes the transfers with ids after {@code afterTransferId} and up to {@code upToTransferId}
+   * and a timestamp from {@code since} on to the action, in id order, stopping at the first one
+   * timestamped after {@code until}. Returns false if it stopped there. Segments only ever being
+   * added, this needs no lock as long as {@code upToTransferId} was archived already.
+   */
+  boolean forEachTransfer(long afterTransferId, long upToTransferId, Instant since,
+      Instant until, Consumer<Transfer> action) {
+    var stopped = new AtomicBoolean();
+    segments.stream()
+        .filter(segment -> segment.getMaxTransferId() > afterTransferId
+            && segment.getMinTransferId() <= upToTransferId
+            && !segment.getMaxTimestamp().isBefore(since))
+        .allMatch(segment -> segment.forEachTransfer(transfer -> {
+          if (transfer.getId() <= afterTransferId) {
+            return true;
+          }
+          if (transfer.getId() > upToTransferId) {
+            return false;
+          }
+          if (transfer.getTimestamp().isAfter(until)) {
+            stopped.set(true);
+            return false;
+          }
+          if (!transfer.getTimestamp().isBefore(since)) {
+            action.accept(transfer);
+          }
+          return transfer.getId() < upToTransferId;
+        }));
+    return !stopped.get();
+  }
+
+  /**
+   * Writes the transfers, which must be the ones following {@link #maxTransferId()} in id order,
+   * to a new segment, then adds it without readers in between. Only the adding holds the write
+   * lock; the caller removes the transfers from the database afterwards, which readers need not
+   * wait for since they no longer read them from there.
+   */
+  void append(List<Transfer> transfers) throws IOException {
+    if (directory == null) {
+      throw new IllegalStateException("Transfer archive has no directory");
+    }
+    var name = String.format("transfers-%019d", transfers.get(0).getId());
+    var temporary = directory.resolve(name + TEMPORARY_SUFFIX);
+    Files.deleteIfExists(temporary);
+    TransferSegment.write(temporary, transfers);
+    lock.writeLock().lock();
+    try {
+      var path = Files.move(temporary, directory.resolve(name + SEGMENT_SUFFIX),
+          StandardCopyOption.ATOMIC_MOVE);
+      try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+        channel.force(true);
+      }
+      var appended = new ArrayList<>(segments);
+      appended.add(TransferSegment.open(path));
+      segments = List.copyOf(appended);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
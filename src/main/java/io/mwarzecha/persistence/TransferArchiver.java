@@ -0,0 +1,158 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves transfers older than {@code retention} from the database into the
+ * {@link TransferArchive} on a background thread every {@code interval}, in segments of at most
+ * {@code segmentSize} transfers. Transfers are taken in id order up to the first one not old
+ * enough yet, so that the archive keeps holding every id up to its last one; {@code retention}
+ * must therefore be far longer than any transfer takes to commit. Their ledger entries and
+ * idempotency keys are removed with them, while balances, checkpoints and daily rollups stay.
+ * Accounts get their opening balance checkpoint before their first transfer is archived. The
+ * transfers are removed from the database once their segment has been added, outside the
+ * archive's lock; a removal that fails is made up for by the next run.
+ */
+class TransferArchiver implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransferArchiver.class);
+  private static final RowMapper<Transfer> TRANSFER_ROW_MAPPER = new TransferRowMapper();
+
+  private final Jdbi jdbi;
+  private final TransferArchive archive;
+  private final Clock clock;
+  private final Duration retention;
+  private final int segmentSize;
+  private final ScheduledExecutorService executor;
+  private final LongAdder archived = new LongAdder();
+  private boolean removalPending;
+
+  /**
+   * Removes the transfers a crash may have left both in the archive and the database before
+   * scheduling the first run.
+   */
+  static TransferArchiver start(Jdbi jdbi, TransferArchive archive, Clock clock,
+      Duration interval, Duration retention, int segmentSize) {
+    var archiver = new TransferArchiver(jdbi, archive, clock, retention, segmentSize);
+    archiver.removeArchived(archive.maxTransferId());
+    archiver.executor.scheduleWithFixedDelay(archiver::runQuietly, interval.toMillis(),
+        interval.toMillis(), TimeUnit.MILLISECONDS);
+    return archiver;
+  }
+
+  TransferArchiver(Jdbi jdbi, TransferArchive archive, Clock clock, Duration retention,
+      int segmentSize) {
+    this.jdbi = jdbi;
+    this.archive = archive;
+    this.clock = clock;
+    this.retention = retention;
+    this.segmentSize = segmentSize;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      var thread = new Thread(runnable, "transfer-archiver");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Archives every transfer due for it and returns their number.
+   */
+  int run() {
+    if (removalPending) {
+      removeArchived(archive.maxTransferId());
+    }
+    var cutoff = clock.instant().minus(retention);
+    int count = 0;
+    List<Transfer> transfers;
+    int old;
+    do {
+      long afterTransferId = archive.maxTransferId();
+      transfers = jdbi.withHandle(handle -> handle
+          .select("SELECT * FROM transfer WHERE id > ? ORDER BY id LIMIT ?", afterTransferId,
+              segmentSize)
+          .map(TRANSFER_ROW_MAPPER)
+          .list());
+      old = 0;
+      while (old < transfers.size() && transfers.get(old).getTimestamp().isBefore(cutoff)) {
+        old++;
+      }
+      if (old > 0) {
+        var segment = transfers.subList(0, old);
+        long maxTransferId = segment.get(old - 1).getId();
+        addOpeningCheckpoints(afterTransferId, maxTransferId);
+        try {
+          archive.append(segment);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot write transfer segment", e);
+        }
+        removalPending = true;
+        removeArchived(maxTransferId);
+        count += old;
+        archived.add(old);
+      }
+    } while (old == segmentSize);
+    return count;
+  }
+
+  long getArchivedCount() {
+    return archived.sum();
+  }
+
+  /**
+   * Adds the opening checkpoints missing for the accounts of the transfers with ids after
+   * {@code afterTransferId} and up to {@code maxTransferId}, each in a transaction of its own.
+   */
+  private void addOpeningCheckpoints(long afterTransferId, long maxTransferId) {
+    var accountIds = jdbi.withHandle(handle -> handle
+        .select("SELECT DISTINCT a.account_id FROM ("
+                + "SELECT from_account AS account_id FROM transfer WHERE id > ? AND id <= ? "
+                + "UNION ALL SELECT to_account FROM transfer WHERE id > ? AND id <= ?) a "
+                + "WHERE NOT EXISTS (SELECT 1 FROM balance_checkpoint c "
+                + "WHERE c.account_id = a.account_id AND c.as_of = ?)",
+            afterTransferId, maxTransferId, afterTransferId, maxTransferId, Instant.EPOCH)
+        .mapTo(Long.class)
+        .list());
+    for (long accountId : accountIds) {
+      jdbi.useTransaction(handle -> BalanceCheckpointDao.withHandle(handle)
+          .ensureOpeningCheckpoint(accountId));
+    }
+  }
+
+  private void removeArchived(long maxTransferId) {
+    jdbi.useTransaction(handle -> {
+      handle.execute("DELETE FROM idempotency_key WHERE transfer_id <= ?", maxTransferId);
+      handle.execute("DELETE FROM ledger_entry WHERE transfer_id <= ?", maxTransferId);
+      handle.execute("DELETE FROM transfer WHERE id <= ?", maxTransferId);
+    });
+    removalPending = false;
+  }
+
+  private void runQuietly() {
+    try {
+      run();
+    } catch (RuntimeException e) {
+      // the transfers left behind are archived or removed by the next run
+      LOGGER.error("Transfer archiving failed", e);
+    }
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+  }
+}
@@ -2,14 +2,18 @@ package io.mwarzecha.persistence;
 
 import io.mwarzecha.model.Transfer;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.result.ResultIterator;
 
 class TransferDao {
 
   private static final RowMapper<Transfer> TRANSFER_ROW_MAPPER = new TransferRowMapper();
+  private static final int FETCH_SIZE = 1000;
 
   private final Handle handle;
 
@@ -21,33 +25,124 @@ class TransferDao {
     this.handle = handle;
   }
 
-  List<Transfer> getTransfersByAccountId(long accountId) {
+  List<Transfer> getTransfersByAccountId(long accountId, long afterTransferId, int limit) {
     return handle
-        .select("SELECT * FROM transfer WHERE from_account = ? OR to_account = ?", accountId,
-            accountId)
+        .select("SELECT t.* FROM ledger_entry e JOIN transfer t ON t.id = e.transfer_id "
+                + "WHERE e.account_id = ? AND e.transfer_id > ? ORDER BY e.transfer_id LIMIT ?",
+            accountId, afterTransferId, limit)
         .map(TRANSFER_ROW_MAPPER)
         .list();
   }
 
+  void forEachTransferByAccountId(long accountId, long afterTransferId,
+      Consumer<Transfer> action) {
+    handle
+        .select("SELECT t.* FROM ledger_entry e JOIN transfer t ON t.id = e.transfer_id "
+            + "WHERE e.account_id = ? AND e.transfer_id > ? ORDER BY e.transfer_id", accountId,
+            afterTransferId)
+        .setFetchSize(FETCH_SIZE)
+        .map(TRANSFER_ROW_MAPPER)
+        .forEach(action);
+  }
+
+  /**
+   * Starts the query for the transfers after {@code afterTransferId} with a timestamp from
+   * {@code since} on, in id order, and returns a forward-only cursor over them fetching
+   * {@value #FETCH_SIZE} rows at a time. The caller must close it.
+   */
+  ResultIterator<Transfer> openTransferCursor(long afterTransferId, Instant since) {
+    return handle
+        .select("SELECT * FROM transfer WHERE id > ? AND timestamp >= ? ORDER BY id",
+            afterTransferId, since)
+        .setFetchSize(FETCH_SIZE)
+        .map(TRANSFER_ROW_MAPPER)
+        .iterator();
+  }
+
   Optional<Transfer> getTransferByIdAndAccountId(long transferId, long accountId) {
     return handle
-        .select("SELECT * FROM transfer WHERE id = ? AND (from_account = ? OR to_account = ?)",
-            transferId, accountId, accountId)
+        .select("SELECT t.* FROM ledger_entry e JOIN transfer t ON t.id = e.transfer_id "
+            + "WHERE e.account_id = ? AND e.transfer_id = ?", accountId, transferId)
+        .map(TRANSFER_ROW_MAPPER)
+        .findFirst();
+  }
+
+  Optional<Transfer> getTransferByIdempotencyKey(String idempotencyKey) {
+    return handle
+        .select("SELECT t.* FROM idempotency_key k JOIN transfer t ON t.id = k.transfer_id "
+            + "WHERE k.idempotency_key = ?", idempotencyKey)
         .map(TRANSFER_ROW_MAPPER)
         .findFirst();
   }
 
+  void persistIdempotencyKey(String idempotencyKey, long transferId) {
+    handle.execute("INSERT INTO idempotency_key (idempotency_key, transfer_id) VALUES (?, ?)",
+        idempotencyKey, transferId);
+  }
+
   Transfer persistTransferWithTimestamp(Transfer transfer, Instant timestamp) {
     long transferId = handle
         .createUpdate("INSERT INTO transfer (from_account, to_account, currency, amount, timestamp) VALUES (?, ?, ?, ?, ?)")
         .bind(0, transfer.getFromAccountId())
         .bind(1, transfer.getToAccountId())
         .bind(2, transfer.getCurrency())
-        .bind(3, transfer.getAmount())
+        .bind(3, transfer.getAmountMinorUnits())
         .bind(4, timestamp)
         .executeAndReturnGeneratedKeys()
         .mapTo(Long.class)
         .one();
-    return transfer.withIdAndTimestamp(transferId, timestamp);
+    handle.execute("INSERT INTO ledger_entry (account_id, transfer_id, amount) VALUES (?, ?, ?), (?, ?, ?)",
+        transfer.getFromAccountId(), transferId, -transfer.getAmountMinorUnits(),
+        transfer.getToAccountId(), transferId, transfer.getAmountMinorUnits());
+    var persisted = transfer.withIdAndTimestamp(transferId, timestamp);
+    DailyRollupDao.withHandle(handle).addTransfers(List.of(persisted));
+    return persisted;
+  }
+
+  List<Transfer> persistTransfersWithTimestamp(List<Transfer> transfers, Instant timestamp) {
+    if (transfers.isEmpty()) {
+      return List.of();
+    }
+    var batch = handle.prepareBatch("INSERT INTO transfer (from_account, to_account, currency, amount, timestamp) VALUES (?, ?, ?, ?, ?)");
+    transfers.forEach(transfer -> batch.add(transfer.getFromAccountId(),
+        transfer.getToAccountId(), transfer.getCurrency(), transfer.getAmountMinorUnits(), timestamp));
+    List<Long> transferIds = batch
+        .executeAndReturnGeneratedKeys("id")
+        .mapTo(Long.class)
+        .list();
+    var result = new ArrayList<Transfer>(transfers.size());
+    for (int i = 0; i < transfers.size(); i++) {
+      result.add(transfers.get(i).withIdAndTimestamp(transferIds.get(i), timestamp));
+    }
+    persistLedgerEntries(result);
+    return result;
+  }
+
+  /**
+   * Inserts transfers, and their ledger entries, with the ids and timestamps they already have.
+   */
+  void insertTransfers(List<Transfer> transfers) {
+    if (transfers.isEmpty()) {
+      return;
+    }
+    var batch = handle.prepareBatch("INSERT INTO transfer (id, from_account, to_account, currency, amount, timestamp) VALUES (?, ?, ?, ?, ?, ?)");
+    transfers.forEach(transfer -> batch.add(transfer.getId(), transfer.getFromAccountId(),
+        transfer.getToAccountId(), transfer.getCurrency(), transfer.getAmountMinorUnits(),
+        transfer.getTimestamp()));
+    batch.execute();
+    persistLedgerEntries(transfers);
+  }
+
+  /**
+   * Inserts the ledger entries of the transfers and adds them to the daily rollups.
+   */
+  private void persistLedgerEntries(List<Transfer> transfers) {
+    var batch = handle.prepareBatch(
+        "INSERT INTO ledger_entry (account_id, transfer_id, amount) VALUES (?, ?, ?)");
+    transfers.forEach(transfer -> batch
+        .add(transfer.getFromAccountId(), transfer.getId(), -transfer.getAmountMinorUnits())
+        .add(transfer.getToAccountId(), transfer.getId(), transfer.getAmountMinorUnits()));
+    batch.execute();
+    DailyRollupDao.withHandle(handle).addTransfers(transfers);
   }
 }
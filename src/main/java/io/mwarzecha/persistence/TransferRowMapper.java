@@ -15,8 +15,8 @@ class TransferRowMapper implements RowMapper<Transfer> {
         .id(rs.getLong("id"))
         .fromAccountId(rs.getLong("from_account"))
         .toAccountId(rs.getLong("to_account"))
-        .amount(Money.of(rs.getString("currency"),
-            rs.getBigDecimal("amount")))
+        .amount(Money.ofMinorUnits(rs.getString("currency"),
+            rs.getLong("amount")))
         .timestamp(rs.getTimestamp("timestamp").toInstant())
         .build();
   }
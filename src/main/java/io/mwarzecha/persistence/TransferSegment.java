@@ -0,0 +1,316 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Immutable file of archived transfers with consecutive ids, stored column by column. The header
+ * holds the count, the smallest and largest transfer id, account id and timestamp, which let
+ * readers skip segments that cannot hold what they look for, the currencies used, and the length
+ * of every column. Values are varints: transfer ids and timestamp seconds as deltas from the
+ * previous row, the latter zigzag encoded since timestamps are only roughly ordered by id, account
+ * ids relative to the smallest one and currencies as indexes into the header's list. The header
+ * is followed by a bloom filter of the account ids, with about 1% false positives, so that a
+ * lookup by account skips almost every segment the account took no part in without decoding it.
+ * The file is memory-mapped for reading; segments of the first format, which had no filter, are
+ * still read.
+ */
+class TransferSegment {
+
+  private static final long MAGIC_WITHOUT_FILTER = 0x5846455253454731L;
+  private static final long MAGIC = 0x5846455253454732L;
+  private static final int FILTER_BITS_PER_ACCOUNT = 10;
+  private static final int FILTER_HASHES = 7;
+  private static final int ID = 0;
+  private static final int FROM_ACCOUNT = 1;
+  private static final int TO_ACCOUNT = 2;
+  private static final int CURRENCY = 3;
+  private static final int AMOUNT = 4;
+  private static final int SECONDS = 5;
+  private static final int NANOS = 6;
+  private static final int COLUMNS = 7;
+
+  private final ByteBuffer buffer;
+  private final int count;
+  private final long minTransferId;
+  private final long maxTransferId;
+  private final long minAccountId;
+  private final long maxAccountId;
+  private final Instant minTimestamp;
+  private final Instant maxTimestamp;
+  private final String[] currencies;
+  private final int[] columnOffsets = new int[COLUMNS];
+  private final int filterOffset;
+  private final int filterWords;
+
+  /**
+   * Writes the transfers, which must be ordered by id, to a new file and forces it to disk.
+   */
+  static void write(Path path, List<Transfer> transfers) throws IOException {
+    var first = transfers.get(0);
+    long minAccountId = Long.MAX_VALUE;
+    long maxAccountId = Long.MIN_VALUE;
+    var minTimestamp = first.getTimestamp();
+    var maxTimestamp = first.getTimestamp();
+    var currencyIndexes = new LinkedHashMap<String, Integer>();
+    var accountIds = new HashSet<Long>();
+    for (var transfer : transfers) {
+      accountIds.add(transfer.getFromAccountId());
+      accountIds.add(transfer.getToAccountId());
+      minAccountId = Math.min(minAccountId,
+          Math.min(transfer.getFromAccountId(), transfer.getToAccountId()));
+      maxAccountId = Math.max(maxAccountId,
+          Math.max(transfer.getFromAccountId(), transfer.getToAccountId()));
+      minTimestamp = transfer.getTimestamp().isBefore(minTimestamp)
+          ? transfer.getTimestamp() : minTimestamp;
+      maxTimestamp = transfer.getTimestamp().isAfter(maxTimestamp)
+          ? transfer.getTimestamp() : maxTimestamp;
+      currencyIndexes.putIfAbsent(transfer.getCurrency(), currencyIndexes.size());
+    }
+    var columns = new ByteArrayOutputStream[COLUMNS];
+    for (int column = 0; column < COLUMNS; column++) {
+      columns[column] = new ByteArrayOutputStream(transfers.size() * 2);
+    }
+    long previousId = first.getId();
+    long previousSeconds = minTimestamp.getEpochSecond();
+    for (var transfer : transfers) {
+      putVarint(columns[ID], transfer.getId() - previousId);
+      putVarint(columns[FROM_ACCOUNT], transfer.getFromAccountId() - minAccountId);
+      putVarint(columns[TO_ACCOUNT], transfer.getToAccountId() - minAccountId);
+      putVarint(columns[CURRENCY], currencyIndexes.get(transfer.getCurrency()));
+      putVarint(columns[AMOUNT], transfer.getAmountMinorUnits());
+      long seconds = transfer.getTimestamp().getEpochSecond();
+      putVarint(columns[SECONDS], zigzag(seconds - previousSeconds));
+      putVarint(columns[NANOS], transfer.getTimestamp().getNano());
+      previousId = transfer.getId();
+      previousSeconds = seconds;
+    }
+    var filter = new long[(accountIds.size() * FILTER_BITS_PER_ACCOUNT + Long.SIZE - 1)
+        / Long.SIZE];
+    for (long accountId : accountIds) {
+      for (int i = 0; i < FILTER_HASHES; i++) {
+        int bit = filterBit(accountId, i, filter.length);
+        filter[bit / Long.SIZE] |= 1L << bit;
+      }
+    }
+    var header = ByteBuffer.allocate(headerSize(currencyIndexes.size())
+        + filter.length * Long.BYTES)
+        .putLong(MAGIC)
+        .putInt(transfers.size())
+        .putLong(first.getId())
+        .putLong(transfers.get(transfers.size() - 1).getId())
+        .putLong(minAccountId)
+        .putLong(maxAccountId)
+        .putLong(minTimestamp.getEpochSecond())
+        .putInt(minTimestamp.getNano())
+        .putLong(maxTimestamp.getEpochSecond())
+        .putInt(maxTimestamp.getNano())
+        .putInt(currencyIndexes.size());
+    currencyIndexes.keySet().forEach(currency ->
+        header.put(currency.getBytes(StandardCharsets.US_ASCII)));
+    for (var column : columns) {
+      header.putInt(column.size());
+    }
+    header.putInt(filter.length);
+    for (long word : filter) {
+      header.putLong(word);
+    }
+    try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE)) {
+      writeFully(channel, header.flip());
+      for (var column : columns) {
+        writeFully(channel, ByteBuffer.wrap(column.toByteArray()));
+      }
+      channel.force(true);
+    }
+  }
+
+  static TransferSegment open(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new TransferSegment(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  private TransferSegment(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.remaining() < headerSize(0)
+        || buffer.getLong(0) != MAGIC && buffer.getLong(0) != MAGIC_WITHOUT_FILTER) {
+      throw new IOException("Unsupported transfer segment format");
+    }
+    boolean filtered = buffer.getLong(0) == MAGIC;
+    var header = buffer.duplicate().position(Long.BYTES);
+    this.count = header.getInt();
+    this.minTransferId = header.getLong();
+    this.maxTransferId = header.getLong();
+    this.minAccountId = header.getLong();
+    this.maxAccountId = header.getLong();
+    this.minTimestamp = Instant.ofEpochSecond(header.getLong(), header.getInt());
+    this.maxTimestamp = Instant.ofEpochSecond(header.getLong(), header.getInt());
+    this.currencies = new String[header.getInt()];
+    var currency = new byte[3];
+    for (int i = 0; i < currencies.length; i++) {
+      header.get(currency);
+      currencies[i] = new String(currency, StandardCharsets.US_ASCII);
+    }
+    var columnLengths = new int[COLUMNS];
+    for (int column = 0; column < COLUMNS; column++) {
+      columnLengths[column] = header.getInt();
+    }
+    this.filterWords = filtered ? header.getInt() : 0;
+    this.filterOffset = header.position();
+    int offset = filterOffset + filterWords * Long.BYTES;
+    for (int column = 0; column < COLUMNS; column++) {
+      columnOffsets[column] = offset;
+      offset += columnLengths[column];
+    }
+  }
+
+  long getMinTransferId() {
+    return minTransferId;
+  }
+
+  long getMaxTransferId() {
+    return maxTransferId;
+  }
+
+  Instant getMaxTimestamp() {
+    return maxTimestamp;
+  }
+
+  boolean mayContainAccount(long accountId) {
+    if (accountId < minAccountId || accountId > maxAccountId) {
+      return false;
+    }
+    if (filterWords == 0) {
+      return true;
+    }
+    for (int i = 0; i < FILTER_HASHES; i++) {
+      int bit = filterBit(accountId, i, filterWords);
+      if ((buffer.getLong(filterOffset + bit / Long.SIZE * Long.BYTES) & 1L << bit) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The {@code i}th filter bit of the account, combining two halves of a mixed hash of its id.
+   */
+  private static int filterBit(long accountId, int i, int words) {
+    long hash = accountId * 0x9E3779B97F4A7C15L;
+    hash = (hash ^ (hash >>> 32)) * 0xD6E8FEB86659FD93L;
+    hash ^= hash >>> 32;
+    return (int) Math.floorMod((int) hash + (long) i * (int) (hash >>> 32),
+        (long) words * Long.SIZE);
+  }
+
+  /**
+   * Whether any transfer in the segment may have a timestamp after {@code after} and up to
+   * {@code upTo}.
+   */
+  boolean mayContainTimestamps(Instant after, Instant upTo) {
+    return maxTimestamp.isAfter(after) && !minTimestamp.isAfter(upTo);
+  }
+
+  /**
+   * Decodes the segment row by row and passes the transfers to or from the account to
+   * {@code action}, in id order, until it returns false. Returns false if it did.
+   */
+  boolean forEachTransferByAccountId(long accountId, Predicate<Transfer> action) {
+    return !mayContainAccount(accountId) || forEachTransfer(accountId, false, action);
+  }
+
+  /**
+   * Passes every transfer in the segment to {@code action}, in id order, until it returns false.
+   * Returns false if it did.
+   */
+  boolean forEachTransfer(Predicate<Transfer> action) {
+    return forEachTransfer(0, true, action);
+  }
+
+  private boolean forEachTransfer(long accountId, boolean allAccounts,
+      Predicate<Transfer> action) {
+    var columns = new ByteBuffer[COLUMNS];
+    for (int column = 0; column < COLUMNS; column++) {
+      columns[column] = buffer.duplicate().position(columnOffsets[column]);
+    }
+    long id = minTransferId;
+    long seconds = minTimestamp.getEpochSecond();
+    for (int row = 0; row < count; row++) {
+      id += getVarint(columns[ID]);
+      long fromAccountId = minAccountId + getVarint(columns[FROM_ACCOUNT]);
+      long toAccountId = minAccountId + getVarint(columns[TO_ACCOUNT]);
+      int currency = (int) getVarint(columns[CURRENCY]);
+      long amount = getVarint(columns[AMOUNT]);
+      seconds += unzigzag(getVarint(columns[SECONDS]));
+      long nanos = getVarint(columns[NANOS]);
+      if (allAccounts || fromAccountId == accountId || toAccountId == accountId) {
+        var transfer = Transfer.newBuilder()
+            .id(id)
+            .fromAccountId(fromAccountId)
+            .toAccountId(toAccountId)
+            .amount(Money.ofMinorUnits(currencies[currency], amount))
+            .timestamp(Instant.ofEpochSecond(seconds, nanos))
+            .build();
+        if (!action.test(transfer)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Size of the header without the filter words, but with their count.
+   */
+  private static int headerSize(int currencyCount) {
+    return Long.BYTES + Integer.BYTES + 6 * Long.BYTES + 2 * Integer.BYTES + Integer.BYTES
+        + 3 * currencyCount + COLUMNS * Integer.BYTES + Integer.BYTES;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void putVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long getVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
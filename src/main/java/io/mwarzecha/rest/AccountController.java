@@ -1,38 +1,164 @@
 package io.mwarzecha.rest;
 
+import com.google.gson.JsonObject;
 import io.mwarzecha.model.Account;
-import io.mwarzecha.persistence.PersistenceService;
+import io.mwarzecha.persistence.AsyncPersistenceService;
+import io.mwarzecha.rest.AccountImportReader.Line;
+import io.javalin.core.validation.Validator;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
-import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 class AccountController {
 
-  private final PersistenceService persistenceService;
+  private static final int MAX_BALANCE_SLOTS = 64;
+  private static final int MAX_ROLLUP_DAYS = 366;
 
-  AccountController(PersistenceService persistenceService) {
+  private final AsyncPersistenceService persistenceService;
+  private final Responder responder;
+  private final int importBatchSize;
+  private final int importMaxLineLength;
+
+  AccountController(AsyncPersistenceService persistenceService, Responder responder,
+      int importBatchSize, int importMaxLineLength) {
     this.persistenceService = persistenceService;
+    this.responder = responder;
+    this.importBatchSize = importBatchSize;
+    this.importMaxLineLength = importMaxLineLength;
   }
 
   void getAllAccounts(Context ctx) {
-    ctx.json(persistenceService.getAllAccounts());
+    responder.respondLater(ctx, persistenceService.getAllAccounts(), responder::respond);
   }
 
   void getAccountById(Context ctx) {
-    persistenceService
-        .getAccountById(
-            ctx.pathParam("accountId", Long.class).get())
-        .ifPresentOrElse(ctx::json,
-            () -> ctx.status(404).result("Account not found"));
+    responder.respondLater(ctx, persistenceService.getAccountById(
+        ctx.pathParam("accountId", Long.class).get()),
+        (c, account) -> account.ifPresentOrElse(a -> responder.respond(c, a),
+            () -> c.status(404).result("Account not found")));
   }
 
   void createAccount(Context ctx) {
-    var createdAccount = persistenceService.persistAccount(
-        ctx.bodyValidator(Account.class)
-            .check(account -> account.getOwner().length() <= 50,
-                "Owner name characters limit exceeded")
-            .check(account -> account.getBalance().compareTo(BigDecimal.ZERO) >= 0,
-                "Negative account balance")
-            .get());
-    ctx.status(201).json(createdAccount);
-  }
-}
\ No newline at end of file
+    var account = checked(responder.bodyValidator(ctx, Account.class)).get();
+    responder.respondLater(ctx, persistenceService.persistAccount(account),
+        (c, createdAccount) -> responder.respond(c.status(201), createdAccount));
+  }
+
+  /**
+   * Creates the accounts in the NDJSON or CSV body, checked like {@link #createAccount}, in
+   * batches of {@code importBatchSize}, and answers with an NDJSON line per account holding
+   * either its id or the reason it was not created. The body is read and the answer written one
+   * batch at a time on the request thread, so an import of any size takes the same memory. A
+   * line longer than {@code importMaxLineLength} characters rejects the import with a 400 naming
+   * it, unless the answer to an earlier batch has already been sent, in which case it is cut off.
+   */
+  void importAccounts(Context ctx) {
+    var reader = responder.accountImportReader(ctx, importMaxLineLength);
+    responder.respondLines(ctx.status(200), JsonObject.class, sink -> {
+      var batch = new ArrayList<Line>(importBatchSize);
+      for (var line = reader.next(); line != null; line = reader.next()) {
+        batch.add(checked(line));
+        if (batch.size() == importBatchSize) {
+          sink.accept(imported(batch));
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        sink.accept(imported(batch));
+      }
+    });
+  }
+
+  private static Line checked(Line line) {
+    if (line.getAccount() == null) {
+      return line;
+    }
+    try {
+      return line.withAccount(
+          checked(new Validator<>(line.getAccount(), "Line " + line.getNumber())).get());
+    } catch (BadRequestResponse e) {
+      return line.withError(e.getMessage());
+    }
+  }
+
+  private static Validator<Account> checked(Validator<Account> account) {
+    return account
+        .check(a -> a.getOwner().length() <= 50,
+            "Owner name characters limit exceeded")
+        .check(a -> a.getBalanceMinorUnits() >= 0,
+            "Negative account balance");
+  }
+
+  /**
+   * Creates the accounts of the lines without errors in one call and reports every line. A
+   * failure of the call is reported for each of them.
+   */
+  private List<JsonObject> imported(List<Line> lines) {
+    var accounts = lines.stream()
+        .map(Line::getAccount)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+    Iterator<Account> created;
+    String failure = null;
+    try {
+      created = persistenceService.persistAccounts(accounts).join().iterator();
+    } catch (CompletionException e) {
+      created = Collections.emptyIterator();
+      failure = "Account could not be created: " + e.getCause().getMessage();
+    }
+    var results = new ArrayList<JsonObject>(lines.size());
+    for (var line : lines) {
+      var result = new JsonObject();
+      result.addProperty("line", line.getNumber());
+      if (line.getAccount() == null) {
+        result.addProperty("error", line.getError());
+      } else if (failure != null) {
+        result.addProperty("error", failure);
+      } else {
+        result.addProperty("id", created.next().getId());
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  void getAccountBalanceAt(Context ctx) {
+    var accountId = ctx.pathParam("accountId", Long.class).get();
+    var at = ctx.queryParam("at", Instant.class, Instant.now().toString()).get();
+    responder.respondLater(ctx, persistenceService.getAccountBalanceAt(accountId, at),
+        (c, account) -> account.ifPresentOrElse(a -> responder.respond(c, a),
+            () -> c.status(404).result("Account not found")));
+  }
+
+  void setBalanceSlots(Context ctx) {
+    var accountId = ctx.pathParam("accountId", Long.class).get();
+    var slots = ctx.bodyValidator(Integer.class)
+        .check(count -> count >= 1 && count <= MAX_BALANCE_SLOTS,
+            "Balance slots must be between 1 and " + MAX_BALANCE_SLOTS)
+        .get();
+    responder.respondLater(ctx, persistenceService.setBalanceSlots(accountId, slots),
+        (c, account) -> account.ifPresentOrElse(a -> responder.respond(c, a),
+            () -> c.status(404).result("Account not found")));
+  }
+
+  void getDailyRollups(Context ctx) {
+    var accountId = ctx.pathParam("accountId", Long.class).get();
+    var from = ctx.queryParam("from", LocalDate.class).get();
+    var to = ctx.queryParam("to", LocalDate.class)
+        .check(date -> !date.isBefore(from), "To must not be before from")
+        .check(date -> ChronoUnit.DAYS.between(from, date) < MAX_ROLLUP_DAYS,
+            "At most " + MAX_ROLLUP_DAYS + " days of rollups can be requested at once")
+        .get();
+    responder.respondLater(ctx, persistenceService.getDailyRollups(accountId, from, to),
+        responder::respond);
+  }
+}
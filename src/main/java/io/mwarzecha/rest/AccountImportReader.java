@@ -0,0 +1,172 @@
+package io.mwarzecha.rest;
+
+import com.google.gson.Gson;
+import io.javalin.http.BadRequestResponse;
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the accounts of an import one line at a time, either as NDJSON, one account object per
+ * line, or as CSV with the owner, currency and balance columns in that order and an optional
+ * header row naming them. Owners may be quoted, with quotes inside doubled. Blank lines are
+ * skipped; lines are numbered from 1 as they appear in the body. A line longer than the limit
+ * fails the whole import, as nothing past it can be trusted to start a new line.
+ */
+class AccountImportReader {
+
+  private static final String CSV_HEADER = "owner,currency,balance";
+
+  private final BufferedReader reader;
+  private final boolean csv;
+  private final Gson gson;
+  private final int maxLineLength;
+  private final StringBuilder line = new StringBuilder();
+  private int lineNumber;
+
+  AccountImportReader(BufferedReader reader, boolean csv, Gson gson, int maxLineLength) {
+    this.reader = reader;
+    this.csv = csv;
+    this.gson = gson;
+    this.maxLineLength = maxLineLength;
+  }
+
+  /**
+   * Reads the next account, or returns null at the end of the body.
+   *
+   * @throws BadRequestResponse when the line is longer than the limit
+   */
+  Line next() {
+    String text;
+    do {
+      lineNumber++;
+      text = readLine();
+      if (text == null) {
+        return null;
+      }
+    } while (text.isBlank() || csv && lineNumber == 1
+        && CSV_HEADER.equals(text.replace(" ", "").toLowerCase(Locale.ROOT)));
+    try {
+      var account = csv ? parseCsv(text) : gson.fromJson(text, Account.class);
+      if (account == null) {
+        throw new IllegalArgumentException("Account must not be null");
+      }
+      return new Line(lineNumber, account, null);
+    } catch (RuntimeException e) {
+      return new Line(lineNumber, null, "Line " + lineNumber + " invalid - " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reads up to the next line terminator like {@link BufferedReader#readLine()}, but without
+   * buffering more than {@code maxLineLength} characters of it.
+   */
+  private String readLine() {
+    line.setLength(0);
+    try {
+      for (int c = reader.read(); c != -1; c = reader.read()) {
+        if (c == '\n') {
+          return line.toString();
+        }
+        if (c == '\r') {
+          reader.mark(1);
+          if (reader.read() != '\n') {
+            reader.reset();
+          }
+          return line.toString();
+        }
+        if (line.length() == maxLineLength) {
+          throw new BadRequestResponse(
+              "Line " + lineNumber + " exceeds " + maxLineLength + " characters");
+        }
+        line.append((char) c);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
+  private static Account parseCsv(String text) {
+    var fields = splitCsv(text);
+    if (fields.size() != 3) {
+      throw new IllegalArgumentException("Expected 3 fields but found " + fields.size());
+    }
+    return Account.newBuilder()
+        .owner(fields.get(0))
+        .balance(Money.parse(fields.get(1).strip(), fields.get(2).strip()))
+        .build();
+  }
+
+  private static List<String> splitCsv(String text) {
+    var fields = new ArrayList<String>();
+    var field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("Unterminated quoted field");
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /**
+   * A line of the import holding either an account or the reason it cannot be read.
+   */
+  static class Line {
+
+    private final int number;
+    private final Account account;
+    private final String error;
+
+    Line(int number, Account account, String error) {
+      this.number = number;
+      this.account = account;
+      this.error = error;
+    }
+
+    int getNumber() {
+      return number;
+    }
+
+    Account getAccount() {
+      return account;
+    }
+
+    String getError() {
+      return error;
+    }
+
+    Line withAccount(Account account) {
+      return new Line(number, account, null);
+    }
+
+    Line withError(String error) {
+      return new Line(number, null, error);
+    }
+  }
+}
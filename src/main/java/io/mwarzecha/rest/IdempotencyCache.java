@@ -0,0 +1,134 @@
+package io.mwarzecha.rest;
+
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Transfers made with an idempotency key, remembered for {@code ttl} so that a retried request is
+ * answered from memory without reaching the database. A request arriving while another one with
+ * the same key is still in flight is collapsed onto it and shares its outcome.
+ *
+ * <p>Only successful transfers are remembered, like the keys recorded by the persistence service:
+ * a key whose transfer failed is forgotten once the failure has been handed out, so that the
+ * request can be retried. Lookups never lock; expired entries are swept at most once per
+ * {@code ttl} by whichever request finds the sweep due. Beyond {@code maxSize} entries, requests
+ * with new keys are passed straight through and only deduplicated by the persistence service,
+ * if it records keys at all: see {@link io.mwarzecha.persistence.PersistenceService#makeTransfer(
+ * Transfer, String)}.
+ */
+class IdempotencyCache {
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final long ttlNanos;
+  private final int maxSize;
+  private final LongSupplier nanoTime;
+  private final AtomicLong nextSweepNanos;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  IdempotencyCache(Duration ttl, int maxSize) {
+    this(ttl, maxSize, System::nanoTime);
+  }
+
+  IdempotencyCache(Duration ttl, int maxSize, LongSupplier nanoTime) {
+    this.ttlNanos = ttl.toNanos();
+    this.maxSize = maxSize;
+    this.nanoTime = nanoTime;
+    this.nextSweepNanos = new AtomicLong(nanoTime.getAsLong() + ttlNanos);
+  }
+
+  /**
+   * Returns the outcome of the transfer made with the key, calling {@code execution} to make it
+   * unless that has already been done. A key reused for a transfer with different details fails
+   * without calling it.
+   */
+  CompletableFuture<Try<Transfer>> makeTransfer(String idempotencyKey, Transfer transfer,
+      Function<Transfer, CompletableFuture<Try<Transfer>>> execution) {
+    long now = nanoTime.getAsLong();
+    sweepIfDue(now);
+    while (true) {
+      var entry = entries.get(idempotencyKey);
+      if (entry != null && !entry.isExpired(now)) {
+        hits.increment();
+        return entry.transfer.hasSameDetailsAs(transfer)
+            ? entry.result
+            : CompletableFuture.completedFuture(Try.failure(new IllegalArgumentException(
+                "Idempotency key " + idempotencyKey + " was used for a different transfer")));
+      }
+      if (entry == null && entries.size() >= maxSize) {
+        misses.increment();
+        return execution.apply(transfer);
+      }
+      var created = new Entry(transfer, now + ttlNanos);
+      if (entry == null
+          ? entries.putIfAbsent(idempotencyKey, created) == null
+          : entries.replace(idempotencyKey, entry, created)) {
+        misses.increment();
+        execute(idempotencyKey, created, execution);
+        return created.result;
+      }
+    }
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long getHitCount() {
+    return hits.sum();
+  }
+
+  long getMissCount() {
+    return misses.sum();
+  }
+
+  private void execute(String idempotencyKey, Entry entry,
+      Function<Transfer, CompletableFuture<Try<Transfer>>> execution) {
+    CompletableFuture<Try<Transfer>> outcome;
+    try {
+      outcome = execution.apply(entry.transfer);
+    } catch (RuntimeException e) {
+      outcome = CompletableFuture.failedFuture(e);
+    }
+    outcome.whenComplete((result, throwable) -> {
+      if (throwable != null || result.isFailure()) {
+        entries.remove(idempotencyKey, entry);
+      }
+      if (throwable != null) {
+        entry.result.completeExceptionally(throwable);
+      } else {
+        entry.result.complete(result);
+      }
+    });
+  }
+
+  private void sweepIfDue(long now) {
+    long due = nextSweepNanos.get();
+    if (now - due >= 0 && nextSweepNanos.compareAndSet(due, now + ttlNanos)) {
+      entries.values().removeIf(entry -> entry.isExpired(now));
+    }
+  }
+
+  private static class Entry {
+
+    private final Transfer transfer;
+    private final long expiresAtNanos;
+    private final CompletableFuture<Try<Transfer>> result = new CompletableFuture<>();
+
+    private Entry(Transfer transfer, long expiresAtNanos) {
+      this.transfer = transfer;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    private boolean isExpired(long now) {
+      return now - expiresAtNanos >= 0;
+    }
+  }
+}
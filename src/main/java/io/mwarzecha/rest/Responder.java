@@ -0,0 +1,218 @@
+package io.mwarzecha.rest;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import io.javalin.core.validation.Validator;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.mwarzecha.binary.BinaryCodec;
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Transfer;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Reads request bodies and writes response bodies in the format negotiated with the client:
+ * {@link BinaryCodec#MEDIA_TYPE} when it is named in {@code Content-Type} or {@code Accept}, JSON
+ * otherwise. Bodies are written through a {@link JsonWriter} or {@link DataOutputStream} straight
+ * into the response output stream, so a list is never materialized before being sent.
+ */
+class Responder {
+
+  static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+  static final String CSV_MEDIA_TYPE = "text/csv";
+
+  private final Gson gson;
+
+  Responder(Gson gson) {
+    this.gson = gson;
+  }
+
+  <T> Validator<T> bodyValidator(Context ctx, Class<T> type) {
+    if (!isBinary(ctx.contentType())) {
+      return ctx.bodyValidator(type);
+    }
+    try {
+      return new Validator<>(readBinary(ctx.bodyAsBytes(), type),
+          "Request body as " + type.getSimpleName());
+    } catch (IOException | RuntimeException e) {
+      throw new BadRequestResponse("Couldn't deserialize body to " + type.getSimpleName());
+    }
+  }
+
+  /**
+   * Returns a reader of the accounts in the request body, which is CSV when the
+   * {@code Content-Type} says so and NDJSON otherwise. The body is read as the reader is, with
+   * no line longer than {@code maxLineLength} characters.
+   */
+  AccountImportReader accountImportReader(Context ctx, int maxLineLength) {
+    var contentType = ctx.contentType();
+    try {
+      return new AccountImportReader(new BufferedReader(new InputStreamReader(
+          ctx.req.getInputStream(), StandardCharsets.UTF_8)),
+          contentType != null && contentType.contains(CSV_MEDIA_TYPE), gson, maxLineLength);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Writes the body straight into the response output stream, so that it can also complete a
+   * response off the request thread, once the status and headers are set.
+   */
+  void respond(Context ctx, Object body) {
+    if (acceptsBinary(ctx)) {
+      writeBinary(ctx, out -> BinaryCodec.write(out, body));
+    } else {
+      writeJson(ctx, writer -> gson.toJson(body, body.getClass(), writer));
+    }
+  }
+
+  /**
+   * Writes a list of every element the source passes to its consumer, in order.
+   */
+  <T> void respondArray(Context ctx, Class<T> type, Consumer<Consumer<T>> source) {
+    if (acceptsBinary(ctx)) {
+      writeBinary(ctx, out -> {
+        source.accept(element -> {
+          try {
+            BinaryCodec.writeElement(out, element);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        BinaryCodec.writeEnd(out);
+      });
+      return;
+    }
+    var adapter = gson.getAdapter(type);
+    writeJson(ctx, writer -> {
+      writer.beginArray();
+      source.accept(element -> {
+        try {
+          adapter.write(writer, element);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      writer.endArray();
+    });
+  }
+
+  /**
+   * Writes every batch the source passes to its consumer as NDJSON, one JSON value per line, and
+   * flushes it to the client before the source goes on, for responses reporting the progress of
+   * a long request. Nothing is written before the first batch, so a source failing before it
+   * passes one still gets its exception answered with an error status.
+   */
+  <T> void respondLines(Context ctx, Class<T> type, Consumer<Consumer<List<T>>> source) {
+    var adapter = gson.getAdapter(type);
+    var writer = new AtomicReference<BufferedWriter>();
+    try {
+      source.accept(batch -> {
+        try {
+          if (writer.get() == null) {
+            ctx.contentType(NDJSON_MEDIA_TYPE);
+            writer.set(new BufferedWriter(
+                new OutputStreamWriter(ctx.res.getOutputStream(), StandardCharsets.UTF_8)));
+          }
+          for (var element : batch) {
+            adapter.write(new JsonWriter(writer.get()), element);
+            writer.get().write('\n');
+          }
+          writer.get().flush();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } finally {
+      if (writer.get() != null) {
+        try {
+          writer.get().close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Hands the future to Javalin as the context result, so that the request thread is released
+   * while it is pending, and lets the handler complete the response once the value is available.
+   * The handler writes the body out itself, typically through {@link #respond}, or sets a result
+   * on the context it is given, which Javalin sends once the handler has run. A failed future is
+   * passed to the exception handlers.
+   *
+   * <p>The handler is given a context of its own over the same request and response: setting a
+   * body on the request context would clear the future it holds, which Javalin may still be about
+   * to read on the request thread, leaving the request never completed.
+   */
+  <T> void respondLater(Context ctx, CompletableFuture<T> future,
+      BiConsumer<Context, T> handler) {
+    ctx.result(future.thenApply(value -> {
+      var detached = new Context(ctx.req, ctx.res, Map.of());
+      handler.accept(detached, value);
+      return detached.resultStream();
+    }));
+  }
+
+  private static boolean acceptsBinary(Context ctx) {
+    return isBinary(ctx.header("Accept"));
+  }
+
+  private static boolean isBinary(String mediaTypes) {
+    return mediaTypes != null && mediaTypes.contains(BinaryCodec.MEDIA_TYPE);
+  }
+
+  private static <T> T readBinary(byte[] body, Class<T> type) throws IOException {
+    var in = new DataInputStream(new ByteArrayInputStream(body));
+    if (type == Account.class) {
+      return type.cast(BinaryCodec.readAccount(in));
+    } else if (type == Transfer.class) {
+      return type.cast(BinaryCodec.readTransfer(in));
+    } else if (type == Transfer[].class) {
+      return type.cast(BinaryCodec.readTransfers(in).toArray(new Transfer[0]));
+    }
+    throw new IllegalArgumentException("No binary encoding for " + type);
+  }
+
+  private static void writeJson(Context ctx, BodyWriter<JsonWriter> body) {
+    ctx.contentType("application/json");
+    try (var writer = new JsonWriter(new BufferedWriter(
+        new OutputStreamWriter(ctx.res.getOutputStream(), StandardCharsets.UTF_8)))) {
+      body.write(writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeBinary(Context ctx, BodyWriter<DataOutputStream> body) {
+    ctx.contentType(BinaryCodec.MEDIA_TYPE);
+    try (var out = new DataOutputStream(new BufferedOutputStream(ctx.res.getOutputStream()))) {
+      body.write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface BodyWriter<W> {
+
+    void write(W writer) throws IOException;
+  }
+}
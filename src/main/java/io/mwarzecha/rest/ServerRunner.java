@@ -3,35 +3,112 @@ package io.mwarzecha.rest;
 import static io.javalin.apibuilder.ApiBuilder.get;
 import static io.javalin.apibuilder.ApiBuilder.path;
 import static io.javalin.apibuilder.ApiBuilder.post;
+import static io.javalin.apibuilder.ApiBuilder.put;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import io.mwarzecha.config.Config;
 import io.mwarzecha.json.AccountSerde;
+import io.mwarzecha.json.DailyRollupSerde;
+import io.mwarzecha.json.TransferResultSerde;
 import io.mwarzecha.json.TransferSerde;
+import io.mwarzecha.metrics.Histogram;
+import io.mwarzecha.metrics.MetricsRegistry;
 import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
 import io.mwarzecha.model.Transfer;
+import io.mwarzecha.persistence.AsyncPersistenceService;
+import io.mwarzecha.persistence.Persistence;
 import io.mwarzecha.persistence.PersistenceService;
+import io.mwarzecha.sequencer.TransferSequencer;
 import io.javalin.Javalin;
+import io.javalin.core.validation.JavalinValidation;
+import io.javalin.http.Context;
 import io.javalin.plugin.json.JavalinJson;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 public class ServerRunner {
 
   private final Javalin app;
 
   public static ServerRunner create(PersistenceService persistenceService) {
-    return new ServerRunner(persistenceService);
+    return create(persistenceService, null, new MetricsRegistry());
   }
 
-  private ServerRunner(PersistenceService persistenceService) {
-    this.app = configuredJavalin(persistenceService);
+  public static ServerRunner create(PersistenceService persistenceService,
+      TransferSequencer transferSequencer) {
+    return create(persistenceService, transferSequencer, new MetricsRegistry());
   }
 
-  private static Javalin configuredJavalin(PersistenceService persistenceService) {
+  /**
+   * Creates a server that also exposes the given registry, together with its own request
+   * latencies, at {@code /metrics}.
+   */
+  public static ServerRunner create(PersistenceService persistenceService,
+      TransferSequencer transferSequencer, MetricsRegistry metrics) {
+    return create(persistenceService, transferSequencer, metrics, Config.defaults());
+  }
+
+  /**
+   * Creates a server whose Jetty thread pool is sized by the {@code server.threads.*} settings,
+   * or runs on virtual threads with {@code server.virtualThreads}. Handlers call the persistence
+   * service through an executor sized by the {@code persistence.executor.*} settings, and
+   * transfer exports through one of their own sized by {@code transfers.export.maxConcurrent}, and
+   * answer with 503 when they are full.
+   */
+  public static ServerRunner create(PersistenceService persistenceService,
+      TransferSequencer transferSequencer, MetricsRegistry metrics, Config config) {
+    return new ServerRunner(persistenceService, transferSequencer, metrics, config);
+  }
+
+  private ServerRunner(PersistenceService persistenceService,
+      TransferSequencer transferSequencer, MetricsRegistry metrics, Config config) {
+    this.app = configuredJavalin(persistenceService, transferSequencer, metrics, config);
+  }
+
+  private static Javalin configuredJavalin(PersistenceService persistenceService,
+      TransferSequencer transferSequencer, MetricsRegistry metrics, Config config) {
     var gson = gson();
     JavalinJson.setFromJsonMapper(gson::fromJson);
     JavalinJson.setToJsonMapper(gson::toJson);
-    var app = Javalin.create();
-    addRoutes(app, accountController(persistenceService), transferController(persistenceService));
+    JavalinValidation.register(LocalDate.class, LocalDate::parse);
+    JavalinValidation.register(Instant.class, Instant::parse);
+    var responder = new Responder(gson);
+    var asyncPersistenceService = Persistence.asyncPersistenceService(persistenceService, config,
+        metrics);
+    var exportPersistenceService = Persistence.exportPersistenceService(persistenceService,
+        config, metrics);
+    var requestLatencies = metrics.histogram("http_request_duration_seconds",
+        "HTTP request latency by route and status", Histogram.LATENCY_SECONDS,
+        "method", "route", "status");
+    var app = Javalin.create(javalinConfig -> {
+      javalinConfig.server(() -> new Server(threadPool(config)));
+      javalinConfig.requestLogger((ctx, executionTimeMs) -> requestLatencies
+          .labels(ctx.method(), routeOf(ctx), Integer.toString(ctx.status()))
+          .observe(executionTimeMs / 1000.0));
+    });
+    app.get("/metrics", ctx -> ctx.contentType(MetricsRegistry.CONTENT_TYPE)
+        .result(metrics.scrape()));
+    app.exception(RejectedExecutionException.class, (e, ctx) -> ctx.status(503)
+        .header("Retry-After", "1")
+        .result(e.getMessage()));
+    if (transferSequencer != null) {
+      app.events(events -> events.serverStopped(transferSequencer::close));
+    }
+    app.events(events -> events.serverStopped(asyncPersistenceService::close));
+    app.events(events -> events.serverStopped(exportPersistenceService::close));
+    addProjectionLagHeader(app, persistenceService);
+    addRoutes(app, accountController(asyncPersistenceService, responder, config),
+        transferController(asyncPersistenceService, exportPersistenceService, transferSequencer,
+            idempotencyCache(config, metrics), responder, config));
     return app;
   }
 
@@ -39,15 +116,69 @@ public class ServerRunner {
     return new GsonBuilder()
         .registerTypeAdapter(Account.class, new AccountSerde())
         .registerTypeAdapter(Transfer.class, new TransferSerde())
+        .registerTypeAdapter(DailyRollup.class, new DailyRollupSerde())
+        .registerTypeAdapterFactory(new TransferResultSerde())
         .create();
   }
 
-  private static AccountController accountController(PersistenceService persistenceService) {
-    return new AccountController(persistenceService);
+  private static AccountController accountController(
+      AsyncPersistenceService persistenceService, Responder responder, Config config) {
+    return new AccountController(persistenceService, responder,
+        config.getInt("accounts.import.batchSize"),
+        config.getInt("accounts.import.maxLineLength"));
+  }
+
+  private static TransferController transferController(
+      AsyncPersistenceService persistenceService, AsyncPersistenceService exportPersistenceService,
+      TransferSequencer transferSequencer, IdempotencyCache idempotencyCache, Responder responder,
+      Config config) {
+    return new TransferController(persistenceService, exportPersistenceService,
+        transferSequencer, idempotencyCache, responder,
+        Duration.ofSeconds(config.getLong("transfers.export.settleSeconds")));
   }
 
-  private static TransferController transferController(PersistenceService persistenceService) {
-    return new TransferController(persistenceService);
+  private static IdempotencyCache idempotencyCache(Config config, MetricsRegistry metrics) {
+    var cache = new IdempotencyCache(
+        Duration.ofSeconds(config.getLong("transfers.idempotency.ttlSeconds")),
+        config.getInt("transfers.idempotency.maxSize"));
+    metrics.counter("idempotency_cache_requests_total", "Idempotency key lookups by result",
+        Map.of("result", "hit"), cache::getHitCount);
+    metrics.counter("idempotency_cache_requests_total", "Idempotency key lookups by result",
+        Map.of("result", "miss"), cache::getMissCount);
+    metrics.gauge("idempotency_cache_entries", "Idempotency keys held in memory", cache::size);
+    return cache;
+  }
+
+  private static ThreadPool threadPool(Config config) {
+    if (config.getBoolean("server.virtualThreads")) {
+      return new VirtualThreadPool();
+    }
+    int queueSize = config.getInt("server.threads.queueSize");
+    return new QueuedThreadPool(config.getInt("server.threads.max"),
+        config.getInt("server.threads.min"), config.getInt("server.threads.idleTimeoutMillis"),
+        queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : null);
+  }
+
+  /**
+   * Route template the request matched, so that path parameters do not create a histogram per
+   * account.
+   */
+  private static String routeOf(Context ctx) {
+    var route = ctx.endpointHandlerPath();
+    return route == null || route.isEmpty() ? "unmatched" : route;
+  }
+
+  /**
+   * Tells readers how many acknowledged writes a GET response may not reflect yet. Set before the
+   * handler runs, since bodies are streamed and the headers are sent with the first bytes.
+   */
+  private static void addProjectionLagHeader(Javalin app, PersistenceService persistenceService) {
+    app.before(ctx -> {
+      if ("GET".equals(ctx.method())) {
+        persistenceService.getProjectionLag()
+            .ifPresent(lag -> ctx.header("X-Projection-Lag", Long.toString(lag)));
+      }
+    });
   }
 
   private static void addRoutes(Javalin app, AccountController accountController,
@@ -57,15 +188,23 @@ public class ServerRunner {
           path("accounts", () -> {
             get(accountController::getAllAccounts);
             post(accountController::createAccount);
+            path("import", () -> post(accountController::importAccounts));
             path(":accountId", () -> {
               get(accountController::getAccountById);
+              path("balance", () -> get(accountController::getAccountBalanceAt));
+              path("balance-slots", () -> put(accountController::setBalanceSlots));
+              path("rollups", () -> get(accountController::getDailyRollups));
               path("transfers", () -> {
                 get(transferController::getAccountTransfers);
                 path(":transferId", () -> get(transferController::getAccountTransferById));
               });
             });
           });
-          path("transfers", () -> post(transferController::makeTransfer));
+          path("transfers", () -> {
+            post(transferController::makeTransfer);
+            path("batch", () -> post(transferController::makeTransfers));
+            path("export", () -> get(transferController::exportTransfers));
+          });
         })
     );
   }
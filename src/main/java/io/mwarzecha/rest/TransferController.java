@@ -1,43 +1,149 @@
 package io.mwarzecha.rest;
 
 import io.mwarzecha.model.Transfer;
-import io.mwarzecha.persistence.PersistenceService;
+import io.mwarzecha.persistence.AsyncPersistenceService;
+import io.mwarzecha.sequencer.TransferSequencer;
+import io.mwarzecha.util.Try;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
-import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 class TransferController {
 
-  private final PersistenceService persistenceService;
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+  private static final int EXPORT_CHUNK_SIZE = 1000;
 
-  TransferController(PersistenceService persistenceService) {
+  private final AsyncPersistenceService persistenceService;
+  private final AsyncPersistenceService exportPersistenceService;
+  private final TransferSequencer transferSequencer;
+  private final IdempotencyCache idempotencyCache;
+  private final Responder responder;
+  private final Duration exportSettle;
+
+  TransferController(AsyncPersistenceService persistenceService,
+      AsyncPersistenceService exportPersistenceService, TransferSequencer transferSequencer,
+      IdempotencyCache idempotencyCache, Responder responder, Duration exportSettle) {
     this.persistenceService = persistenceService;
+    this.exportPersistenceService = exportPersistenceService;
+    this.transferSequencer = transferSequencer;
+    this.idempotencyCache = idempotencyCache;
+    this.responder = responder;
+    this.exportSettle = exportSettle;
   }
 
   void getAccountTransfers(Context ctx) {
-    var transfers = persistenceService.getTransfersByAccountId(
-        ctx.pathParam("accountId", Long.class).get());
-    ctx.json(transfers);
+    var accountId = ctx.pathParam("accountId", Long.class).get();
+    if (Boolean.parseBoolean(ctx.queryParam("stream"))) {
+      responder.respondLater(ctx, persistenceService.submit(service -> {
+        responder.respondArray(ctx.status(200), Transfer.class,
+            action -> service.forEachTransferByAccountId(accountId, action));
+        return null;
+      }), (c, ignored) -> { });
+    } else if (ctx.queryParam("after") != null || ctx.queryParam("limit") != null) {
+      responder.respondLater(ctx, persistenceService.getTransfersByAccountId(accountId,
+          ctx.queryParam("after", Long.class, "0").get(),
+          ctx.queryParam("limit", Integer.class, String.valueOf(DEFAULT_PAGE_SIZE))
+              .check(limit -> limit > 0 && limit <= MAX_PAGE_SIZE,
+                  "Limit must be between 1 and " + MAX_PAGE_SIZE)
+              .get()), responder::respond);
+    } else {
+      responder.respondLater(ctx, persistenceService.getTransfersByAccountId(accountId),
+          responder::respond);
+    }
   }
 
   void getAccountTransferById(Context ctx) {
-    persistenceService
-        .getTransferByIdAndAccountId(
-            ctx.pathParam("transferId", Long.class).get(),
-            ctx.pathParam("accountId", Long.class).get())
-        .ifPresentOrElse(ctx::json,
-            () -> ctx.status(404).result("Transfer not found"));
+    responder.respondLater(ctx, persistenceService.getTransferByIdAndAccountId(
+        ctx.pathParam("transferId", Long.class).get(),
+        ctx.pathParam("accountId", Long.class).get()),
+        (c, transfer) -> transfer.ifPresentOrElse(t -> responder.respond(c, t),
+            () -> c.status(404).result("Transfer not found")));
+  }
+
+  /**
+   * Streams every transfer in id order as NDJSON, flushing every {@value #EXPORT_CHUNK_SIZE}
+   * transfers, starting after the transfer id or from the ISO-8601 instant given as
+   * {@code since}. An export cut short is resumed by passing the id of the last transfer received.
+   *
+   * <p>Ids are allocated before the transfer commits, so a transfer may become visible after one
+   * with a higher id. The export therefore stops at the first transfer younger than the settle
+   * window, by which time every transfer with a lower id has committed, and a resumed export
+   * picks up the rest. Exports run on an executor of their own, answering with 503 while it is
+   * busy, so that they do not hold up the threads and connections serving other requests.
+   */
+  void exportTransfers(Context ctx) {
+    boolean sinceId = ctx.queryParam("since", "").chars().allMatch(Character::isDigit);
+    long afterTransferId = sinceId ? ctx.queryParam("since", Long.class, "0").get() : 0;
+    var since = sinceId ? Instant.EPOCH : ctx.queryParam("since", Instant.class).get();
+    var until = Instant.now().minus(exportSettle);
+    responder.respondLater(ctx, exportPersistenceService.submit(service -> {
+      responder.respondLines(ctx.status(200), Transfer.class, sink -> {
+        var chunk = new ArrayList<Transfer>(EXPORT_CHUNK_SIZE);
+        service.forEachTransfer(afterTransferId, since, until, transfer -> {
+          chunk.add(transfer);
+          if (chunk.size() == EXPORT_CHUNK_SIZE) {
+            sink.accept(chunk);
+            chunk.clear();
+          }
+        });
+        sink.accept(chunk);
+      });
+      return null;
+    }), (c, ignored) -> { });
   }
 
   void makeTransfer(Context ctx) {
-    persistenceService
-        .makeTransfer(
-            ctx.bodyValidator(Transfer.class)
-                .check(transfer -> transfer.getAmount().compareTo(BigDecimal.ZERO) > 0,
-                    "Transfer amount must be greater than 0")
-                .check(transfer -> transfer.getFromAccountId() != transfer.getToAccountId(),
-                    "Cannot transfer to the same account")
-                .get())
-        .ifSuccessOrElse(transfer -> ctx.status(201).json(transfer),
-            throwable -> ctx.status(400).result(throwable.getMessage()));
-  }
-}
\ No newline at end of file
+    var transfer = responder.bodyValidator(ctx, Transfer.class)
+        .check(t -> t.getAmountMinorUnits() > 0,
+            "Transfer amount must be greater than 0")
+        .check(t -> t.getFromAccountId() != t.getToAccountId(),
+            "Cannot transfer to the same account")
+        .get();
+    var idempotencyKey = idempotencyKeyOf(ctx);
+    responder.respondLater(ctx, idempotencyKey == null
+        ? makeTransfer(transfer, null)
+        : idempotencyCache.makeTransfer(idempotencyKey, transfer,
+            t -> makeTransfer(t, idempotencyKey)), this::respond);
+  }
+
+  void makeTransfers(Context ctx) {
+    var transfers = responder.bodyValidator(ctx, Transfer[].class)
+        .check(array -> Arrays.stream(array).allMatch(Objects::nonNull),
+            "Transfer must not be null")
+        .get();
+    responder.respondLater(ctx, persistenceService.makeTransfers(Arrays.asList(transfers)),
+        responder::respond);
+  }
+
+  private CompletableFuture<Try<Transfer>> makeTransfer(Transfer transfer,
+      String idempotencyKey) {
+    if (transferSequencer != null) {
+      return transferSequencer.submit(transfer, idempotencyKey);
+    }
+    return idempotencyKey == null
+        ? persistenceService.makeTransfer(transfer)
+        : persistenceService.makeTransfer(transfer, idempotencyKey);
+  }
+
+  private static String idempotencyKeyOf(Context ctx) {
+    var idempotencyKey = ctx.header("Idempotency-Key");
+    if (idempotencyKey != null
+        && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+      throw new BadRequestResponse("Idempotency key must have between 1 and "
+          + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+    }
+    return idempotencyKey;
+  }
+
+  private void respond(Context ctx, Try<Transfer> result) {
+    result.ifSuccessOrElse(transfer -> responder.respond(ctx.status(201), transfer),
+        throwable -> ctx.status(400).result(throwable.getMessage()));
+  }
+}
@@ -0,0 +1,62 @@
+package io.mwarzecha.rest;
+
+import io.mwarzecha.util.VirtualThreads;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Jetty thread pool that runs every task, including request handling, on a new virtual thread.
+ * Blocking calls such as database transactions then park the virtual thread instead of holding
+ * one of a bounded number of platform threads, so slow writes no longer starve cheap reads of
+ * threads. The pool is never low on threads.
+ */
+class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+  private static final long STOP_TIMEOUT_SECONDS = 30;
+
+  private final ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+  private final AtomicInteger running = new AtomicInteger();
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(() -> {
+      running.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        running.decrementAndGet();
+      }
+    });
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+      // keep waiting
+    }
+  }
+
+  @Override
+  public int getThreads() {
+    return running.get();
+  }
+
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdown();
+    executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+}
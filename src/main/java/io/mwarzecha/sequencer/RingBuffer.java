@@ -0,0 +1,86 @@
+package io.mwarzecha.sequencer;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Bounded multi-producer, single-consumer ring of preallocated entries. Producers claim a
+ * sequence, fill the entry in place and publish it; the single consumer reads entries in sequence
+ * order and releases them in batches. Publication is tracked per slot by the lap number, so a
+ * slow producer never hides entries published after it.
+ */
+class RingBuffer<E> {
+
+  private final Object[] entries;
+  private final int mask;
+  private final int indexShift;
+  private final AtomicIntegerArray published;
+  private final AtomicLong claimed = new AtomicLong(-1);
+  private volatile long consumed = -1;
+
+  RingBuffer(int size, Supplier<E> factory) {
+    if (Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("Ring buffer size must be a power of 2");
+    }
+    this.entries = new Object[size];
+    this.mask = size - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(size);
+    this.published = new AtomicIntegerArray(size);
+    for (int i = 0; i < size; i++) {
+      entries[i] = factory.get();
+      published.set(i, -1);
+    }
+  }
+
+  /**
+   * Claims the next slot, waiting for the consumer to release it when the ring is full.
+   */
+  long next() {
+    while (true) {
+      long current = claimed.get();
+      long next = current + 1;
+      if (next - entries.length > consumed) {
+        LockSupport.parkNanos(1);
+      } else if (claimed.compareAndSet(current, next)) {
+        return next;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  E get(long sequence) {
+    return (E) entries[(int) sequence & mask];
+  }
+
+  void publish(long sequence) {
+    published.set((int) sequence & mask, (int) (sequence >>> indexShift));
+  }
+
+  boolean isPublished(long sequence) {
+    return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+  }
+
+  /**
+   * Returns the highest sequence, starting at {@code from}, up to which every entry has been
+   * published, or {@code from - 1} if {@code from} itself is not published yet.
+   */
+  long highestPublished(long from) {
+    long upTo = claimed.get();
+    for (long sequence = from; sequence <= upTo; sequence++) {
+      if (!isPublished(sequence)) {
+        return sequence - 1;
+      }
+    }
+    return upTo;
+  }
+
+  long consumed() {
+    return consumed;
+  }
+
+  void release(long sequence) {
+    consumed = sequence;
+  }
+}
@@ -0,0 +1,237 @@
+package io.mwarzecha.sequencer;
+
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.persistence.PersistenceService;
+import io.mwarzecha.util.Try;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies transfers on a fixed set of single-threaded partition workers, each owning the accounts
+ * whose id maps to it. Every account is only ever written by its owning worker, so transfers
+ * never queue on database row locks.
+ *
+ * <p>A transfer between two partitions is handed off in two steps: the worker owning the lower
+ * partition takes it first, forwards it to the worker owning the higher partition and waits
+ * until that worker has applied it. Both accounts are held by their owners for the duration of
+ * the transfer, and since workers only ever wait on higher partitions the handoff cannot
+ * deadlock.
+ *
+ * <p>Idle workers and waiting workers spin briefly, then yield, then park until woken.
+ * {@link #close()} stops the workers from the highest partition down, so that every worker a
+ * lower one waits on has stopped first, and fails the transfers left in their rings with a
+ * {@link RejectedExecutionException}. Transfers submitted afterwards fail the same way.
+ */
+public class TransferSequencer implements AutoCloseable {
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 200;
+
+  private final PersistenceService persistenceService;
+  private final List<PartitionWorker> workers;
+  private volatile boolean running = true;
+
+  public static TransferSequencer create(PersistenceService persistenceService, int partitions,
+      int ringSize) {
+    return new TransferSequencer(persistenceService, partitions, ringSize);
+  }
+
+  private TransferSequencer(PersistenceService persistenceService, int partitions,
+      int ringSize) {
+    this.persistenceService = persistenceService;
+    this.workers = new ArrayList<>(partitions);
+    for (int partition = 0; partition < partitions; partition++) {
+      workers.add(new PartitionWorker(partition, ringSize));
+    }
+    workers.forEach(PartitionWorker::start);
+  }
+
+  /**
+   * Queues the transfer on the worker owning the lower of its two partitions. The returned future
+   * completes once the transfer has been applied or rejected.
+   */
+  public CompletableFuture<Try<Transfer>> submit(Transfer transfer) {
+    return submit(transfer, null);
+  }
+
+  /**
+   * Queues the transfer like {@link #submit(Transfer)}, making it with the given idempotency key
+   * unless that is null.
+   */
+  public CompletableFuture<Try<Transfer>> submit(Transfer transfer, String idempotencyKey) {
+    var future = new CompletableFuture<Try<Transfer>>();
+    int first = Math.min(partitionOf(transfer.getFromAccountId()),
+        partitionOf(transfer.getToAccountId()));
+    workers.get(first).publish(transfer, idempotencyKey, future);
+    return future;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    for (int partition = workers.size() - 1; partition >= 0; partition--) {
+      var worker = workers.get(partition);
+      LockSupport.unpark(worker.thread);
+      worker.thread.join();
+      worker.failPending();
+    }
+  }
+
+  private int partitionOf(long accountId) {
+    return (int) Math.floorMod(accountId, (long) workers.size());
+  }
+
+  /**
+   * Spins, then yields, and returns false once it is time to block instead.
+   */
+  private static boolean idle(int tries) {
+    if (tries < SPIN_TRIES) {
+      Thread.onSpinWait();
+      return true;
+    } else if (tries < YIELD_TRIES) {
+      Thread.yield();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Waits for the future, which the owning worker completes, or fails when it is closed.
+   */
+  private static void await(CompletableFuture<?> future) {
+    int tries = 0;
+    while (!future.isDone()) {
+      if (!idle(tries++)) {
+        future.handle((result, throwable) -> null).join();
+      }
+    }
+  }
+
+  private class PartitionWorker implements Runnable {
+
+    private final int partition;
+    private final RingBuffer<TransferEvent> ring;
+    private final Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean stopped;
+
+    private PartitionWorker(int partition, int ringSize) {
+      this.partition = partition;
+      this.ring = new RingBuffer<>(ringSize, TransferEvent::new);
+      this.thread = new Thread(this, "transfer-partition-" + partition);
+      this.thread.setDaemon(true);
+    }
+
+    private void start() {
+      thread.start();
+    }
+
+    private void publish(Transfer transfer, String idempotencyKey,
+        CompletableFuture<Try<Transfer>> future) {
+      long sequence = ring.next();
+      var event = ring.get(sequence);
+      event.transfer = transfer;
+      event.idempotencyKey = idempotencyKey;
+      event.future = future;
+      ring.publish(sequence);
+      if (sleeping) {
+        LockSupport.unpark(thread);
+      }
+      if (stopped) {
+        failPending();
+      }
+    }
+
+    /**
+     * Fails every transfer published but not taken by the stopped worker. Publishers call it
+     * as well when they find the worker stopped, in case it drained the ring before them.
+     */
+    private synchronized void failPending() {
+      stopped = true;
+      long from = ring.consumed() + 1;
+      long available = ring.highestPublished(from);
+      for (long sequence = from; sequence <= available; sequence++) {
+        var event = ring.get(sequence);
+        var future = event.future;
+        event.transfer = null;
+        event.idempotencyKey = null;
+        event.future = null;
+        future.completeExceptionally(
+            new RejectedExecutionException("Transfer sequencer is closed"));
+      }
+      if (available >= from) {
+        ring.release(available);
+      }
+    }
+
+    @Override
+    public void run() {
+      long next = 0;
+      int tries = 0;
+      while (running) {
+        long available = ring.highestPublished(next);
+        if (available < next) {
+          if (!idle(tries++)) {
+            sleep(next);
+          }
+          continue;
+        }
+        tries = 0;
+        for (long sequence = next; sequence <= available; sequence++) {
+          process(ring.get(sequence));
+        }
+        ring.release(available);
+        next = available + 1;
+      }
+    }
+
+    /**
+     * Parks until a publisher or {@link #close()} wakes the worker. The flag is set before the
+     * ring is checked again, so a publisher either sees it or its entry is seen here.
+     */
+    private void sleep(long next) {
+      sleeping = true;
+      if (running && ring.highestPublished(next) < next) {
+        LockSupport.park(this);
+      }
+      sleeping = false;
+    }
+
+    private void process(TransferEvent event) {
+      var transfer = event.transfer;
+      var idempotencyKey = event.idempotencyKey;
+      var future = event.future;
+      event.transfer = null;
+      event.idempotencyKey = null;
+      event.future = null;
+      int owner = Math.max(partitionOf(transfer.getFromAccountId()),
+          partitionOf(transfer.getToAccountId()));
+      if (owner == partition) {
+        future.complete(apply(transfer, idempotencyKey));
+      } else {
+        workers.get(owner).publish(transfer, idempotencyKey, future);
+        await(future);
+      }
+    }
+
+    private Try<Transfer> apply(Transfer transfer, String idempotencyKey) {
+      try {
+        return idempotencyKey == null
+            ? persistenceService.makeTransfer(transfer)
+            : persistenceService.makeTransfer(transfer, idempotencyKey);
+      } catch (RuntimeException e) {
+        return Try.failure(e);
+      }
+    }
+  }
+
+  private static class TransferEvent {
+
+    private Transfer transfer;
+    private String idempotencyKey;
+    private CompletableFuture<Try<Transfer>> future;
+  }
+}
@@ -24,11 +24,11 @@ public abstract class Try<T> {
     }
   }
 
-  private static <T> Try<T> success(T value) {
+  public static <T> Try<T> success(T value) {
     return new Success<>(value);
   }
 
-  private static <T> Try<T> failure(Throwable throwable) {
+  public static <T> Try<T> failure(Throwable throwable) {
     return new Failure<>(throwable);
   }
 
@@ -0,0 +1,66 @@
+package io.mwarzecha.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which the Java 12 build cannot reference directly. The executor
+ * factory is looked up once at runtime and is only available on Java 21 or newer (or with
+ * preview features enabled on 19 and 20).
+ */
+public final class VirtualThreads {
+
+  private static final MethodHandle NEW_EXECUTOR = newExecutorHandle();
+
+  private VirtualThreads() {
+  }
+
+  public static boolean isSupported() {
+    if (NEW_EXECUTOR == null) {
+      return false;
+    }
+    try {
+      newVirtualThreadPerTaskExecutor().shutdown();
+      return true;
+    } catch (UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns an executor that starts a new virtual thread for every task.
+   *
+   * @throws UnsupportedOperationException when the runtime has no virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (NEW_EXECUTOR == null) {
+      throw unsupported();
+    }
+    try {
+      return (ExecutorService) NEW_EXECUTOR.invokeExact();
+    } catch (UnsupportedOperationException e) {
+      throw unsupported();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static UnsupportedOperationException unsupported() {
+    return new UnsupportedOperationException(
+        "Virtual threads need Java 21 or newer, running on " + Runtime.version());
+  }
+
+  private static MethodHandle newExecutorHandle() {
+    try {
+      return MethodHandles.publicLookup().findStatic(Executors.class,
+          "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package io.mwarzecha.binary;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.mwarzecha.json.TransferSerde;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes a transfer list with the Gson adapters and with {@link BinaryCodec}. Each
+ * round trip returns the encoded size; run with {@code -prof gc} to compare the bytes allocated
+ * per round trip as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryCodecBenchmark {
+
+  private static final Type TRANSFER_LIST_TYPE = new TypeToken<List<Transfer>>(){}.getType();
+
+  @Param("100000")
+  public int size;
+
+  private List<Transfer> transfers;
+  private Gson gson;
+
+  @Setup
+  public void setUp() {
+    var timestamp = Instant.now();
+    transfers = new ArrayList<>(size);
+    for (int i = 1; i <= size; i++) {
+      transfers.add(Transfer.newBuilder()
+          .id(i)
+          .fromAccountId(i % 1000 + 1)
+          .toAccountId(i % 997 + 1)
+          .amount(Money.ofMinorUnits("USD", 100L + i))
+          .timestamp(timestamp)
+          .build());
+    }
+    gson = new GsonBuilder()
+        .registerTypeAdapter(Transfer.class, new TransferSerde())
+        .create();
+  }
+
+  @Benchmark
+  public int roundTripJson() throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    try (var writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+      gson.toJson(transfers, TRANSFER_LIST_TYPE, writer);
+    }
+    var reader = new JsonReader(new InputStreamReader(
+        new ByteArrayInputStream(bytes.toByteArray()), StandardCharsets.UTF_8));
+    List<Transfer> decoded = gson.fromJson(reader, TRANSFER_LIST_TYPE);
+    return check(bytes.size(), decoded);
+  }
+
+  @Benchmark
+  public int roundTripBinary() throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    try (var out = new DataOutputStream(bytes)) {
+      BinaryCodec.write(out, transfers);
+    }
+    var decoded = BinaryCodec.readTransfers(new ByteArrayInputStream(bytes.toByteArray()));
+    return check(bytes.size(), decoded);
+  }
+
+  private int check(int encodedSize, List<Transfer> decoded) {
+    if (decoded.size() != transfers.size()) {
+      throw new IllegalStateException("Decoded " + decoded.size() + " transfers");
+    }
+    return encodedSize;
+  }
+}
@@ -0,0 +1,120 @@
+package io.mwarzecha.binary;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BinaryCodecTest {
+
+  private static final Instant TIMESTAMP = Instant.parse("2019-07-01T10:15:30.123456Z");
+
+  @Test
+  void testAccountRoundTrip() throws IOException {
+    var account = Account.newBuilder()
+        .id(12L)
+        .owner("Zoë")
+        .balance(Money.of("JPY", new BigDecimal("1500")))
+        .build();
+
+    var decoded = BinaryCodec.readAccount(input(encode(account)));
+
+    assertEquals(12L, decoded.getId());
+    assertEquals("Zoë", decoded.getOwner());
+    assertEquals("JPY", decoded.getCurrency());
+    assertEquals(new BigDecimal("1500"), decoded.getBalance());
+  }
+
+  @Test
+  void testTransferIsFixedWidth() throws IOException {
+    var bytes = encode(newTransfer(TIMESTAMP));
+
+    var decoded = BinaryCodec.readTransfer(input(bytes));
+
+    assertEquals(42, bytes.length);
+    assertEquals(7L, decoded.getId());
+    assertEquals(1L, decoded.getFromAccountId());
+    assertEquals(2L, decoded.getToAccountId());
+    assertEquals("EUR", decoded.getCurrency());
+    assertEquals(new BigDecimal("10.12"), decoded.getAmount());
+    assertEquals(TIMESTAMP, decoded.getTimestamp());
+  }
+
+  @Test
+  void testDailyRollupRoundTrip() throws IOException {
+    var rollup = DailyRollup.newBuilder()
+        .accountId(3L)
+        .date(LocalDate.of(2024, 2, 29))
+        .inflow(Money.of("USD", new BigDecimal("12.50")))
+        .outflow(Money.of("USD", new BigDecimal("0.01")))
+        .transferCount(4L)
+        .build();
+
+    var decoded = BinaryCodec.readDailyRollup(input(encode(rollup)));
+
+    assertEquals(3L, decoded.getAccountId());
+    assertEquals(LocalDate.of(2024, 2, 29), decoded.getDate());
+    assertEquals("USD", decoded.getCurrency());
+    assertEquals(new BigDecimal("12.50"), decoded.getInflow());
+    assertEquals(new BigDecimal("0.01"), decoded.getOutflow());
+    assertEquals(4L, decoded.getTransferCount());
+  }
+
+  @Test
+  void testTransferResultListRoundTrip() throws IOException {
+    List<Try<Transfer>> results = List.of(Try.success(newTransfer(null)),
+        Try.failure(new IllegalStateException("Insufficient funds")));
+
+    var decoded = BinaryCodec.readTransferResults(new ByteArrayInputStream(encode(results)));
+
+    assertEquals(2, decoded.size());
+    assertEquals(7L, decoded.get(0).getResult().getId());
+    assertEquals(null, decoded.get(0).getResult().getTimestamp());
+    assertTrue(decoded.get(1).isFailure());
+    assertEquals("Insufficient funds", decoded.get(1).getThrowable().getMessage());
+  }
+
+  @Test
+  void testTruncatedListIsRejected() throws IOException {
+    var bytes = encode(List.of(newTransfer(TIMESTAMP)));
+    var truncated = new ByteArrayInputStream(bytes, 0, bytes.length - 1);
+
+    assertThrows(EOFException.class, () -> BinaryCodec.readTransfers(truncated));
+  }
+
+  private static Transfer newTransfer(Instant timestamp) {
+    return Transfer.newBuilder()
+        .id(7L)
+        .fromAccountId(1L)
+        .toAccountId(2L)
+        .amount(Money.of("EUR", new BigDecimal("10.12")))
+        .timestamp(timestamp)
+        .build();
+  }
+
+  private static byte[] encode(Object value) throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    BinaryCodec.write(new DataOutputStream(bytes), value);
+    return bytes.toByteArray();
+  }
+
+  private static DataInputStream input(byte[] bytes) {
+    return new DataInputStream(new ByteArrayInputStream(bytes));
+  }
+}
@@ -0,0 +1,85 @@
+package io.mwarzecha.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testDefaults() {
+    var config = Config.defaults();
+
+    assertEquals(8080, config.getInt("server.port"));
+    assertEquals("jdbi", config.getString("persistence.engine"));
+    assertFalse(config.getBoolean("db.pool.poolPreparedStatements"));
+  }
+
+  @Test
+  void testOverridePrecedence() throws IOException {
+    var file = tempDir.resolve("app.properties");
+    Files.write(file, List.of("server.port=9000", "db.pool.maxTotal=16", "db.user=file"));
+    var systemProperties = new Properties();
+    systemProperties.setProperty("config.file", file.toString());
+    systemProperties.setProperty("db.user", "system");
+
+    var config = Config.load(Map.of("DB_POOL_MAXTOTAL", "32", "DB_USER", "environment"),
+        systemProperties);
+
+    assertEquals(9000, config.getInt("server.port"));
+    assertEquals(32, config.getInt("db.pool.maxTotal"));
+    assertEquals("system", config.getString("db.user"));
+  }
+
+  @Test
+  void testUnknownKeyInFileIsRejected() throws IOException {
+    var file = tempDir.resolve("app.properties");
+    Files.write(file, List.of("server.prot=9000"));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> Config.load(Map.of("CONFIG_FILE", file.toString()), new Properties()));
+  }
+
+  @Test
+  void testInvalidValueIsRejected() {
+    var config = Config.defaults().with(Map.of("server.port", "eighty",
+        "db.pool.poolPreparedStatements", "yes"));
+
+    assertThrows(IllegalArgumentException.class, () -> config.getInt("server.port"));
+    assertThrows(IllegalArgumentException.class,
+        () -> config.getBoolean("db.pool.poolPreparedStatements"));
+  }
+
+  @Test
+  void testGetEnumIgnoresCase() {
+    var config = Config.defaults().with(Map.of("db.mode", "file"));
+
+    assertEquals(Mode.FILE, config.getEnum("db.mode", Mode.class));
+  }
+
+  @Test
+  void testPasswordIsMasked() {
+    var config = Config.defaults().with(Map.of("db.password", "secret"));
+
+    assertTrue(config.toString().contains("db.password=****"));
+    assertFalse(config.toString().contains("secret"));
+  }
+
+  private enum Mode {
+    MEMORY,
+    FILE
+  }
+}
@@ -0,0 +1,76 @@
+package io.mwarzecha.json;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding and decoding a single account and transfer with {@link AccountSerde} and
+ * {@link TransferSerde}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerdeBenchmark {
+
+  private final AccountSerde accountSerde = new AccountSerde();
+  private final TransferSerde transferSerde = new TransferSerde();
+  private Account account;
+  private Transfer transfer;
+  private String accountJson;
+  private String transferJson;
+
+  @Setup
+  public void setUp() {
+    account = Account.newBuilder()
+        .id(42L)
+        .owner("Joe")
+        .balance(Money.ofMinorUnits("USD", 123_45L))
+        .build();
+    transfer = Transfer.newBuilder()
+        .id(7L)
+        .fromAccountId(1L)
+        .toAccountId(2L)
+        .amount(Money.ofMinorUnits("USD", 10_12L))
+        .timestamp(Instant.now())
+        .build();
+    accountJson = accountSerde.toJson(account);
+    transferJson = transferSerde.toJson(transfer);
+  }
+
+  @Benchmark
+  public String encodeAccount() {
+    return accountSerde.toJson(account);
+  }
+
+  @Benchmark
+  public Account decodeAccount() throws IOException {
+    return accountSerde.fromJson(accountJson);
+  }
+
+  @Benchmark
+  public String encodeTransfer() {
+    return transferSerde.toJson(transfer);
+  }
+
+  @Benchmark
+  public Transfer decodeTransfer() throws IOException {
+    return transferSerde.fromJson(transferJson);
+  }
+}
@@ -0,0 +1,104 @@
+package io.mwarzecha.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares serializing a transfer list by building a {@code JsonObject} tree per element and
+ * rendering it to a String, as the response mapper used to, against streaming it through
+ * {@link TransferSerde} into an output stream. Run with {@code -prof gc} to compare the bytes
+ * allocated per list as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferSerializationBenchmark {
+
+  @Param("100000")
+  public int size;
+
+  private List<Transfer> transfers;
+  private Gson treeGson;
+  private Gson streamingGson;
+
+  @Setup
+  public void setUp() {
+    var timestamp = Instant.now();
+    transfers = new ArrayList<>(size);
+    for (int i = 1; i <= size; i++) {
+      transfers.add(Transfer.newBuilder()
+          .id(i)
+          .fromAccountId(i % 1000 + 1)
+          .toAccountId(i % 997 + 1)
+          .amount(Money.ofMinorUnits("USD", 100L + i))
+          .timestamp(timestamp)
+          .build());
+    }
+    treeGson = new GsonBuilder()
+        .registerTypeAdapter(Transfer.class, new TreeTransferSerializer())
+        .create();
+    streamingGson = new GsonBuilder()
+        .registerTypeAdapter(Transfer.class, new TransferSerde())
+        .create();
+  }
+
+  @Benchmark
+  public void writeTree() throws IOException {
+    var json = treeGson.toJson(transfers);
+    OutputStream.nullOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public void writeStreaming() throws IOException {
+    try (var writer = new JsonWriter(new BufferedWriter(
+        new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8)))) {
+      streamingGson.toJson(transfers, List.class, writer);
+    }
+  }
+
+  private static class TreeTransferSerializer implements JsonSerializer<Transfer> {
+
+    @Override
+    public JsonElement serialize(Transfer transfer, Type type, JsonSerializationContext ctx) {
+      var jsonObject = new JsonObject();
+      jsonObject.addProperty("id", transfer.getId());
+      jsonObject.addProperty("from_account", transfer.getFromAccountId());
+      jsonObject.addProperty("to_account", transfer.getToAccountId());
+      jsonObject.addProperty("amount", transfer.getAmountPlainString());
+      jsonObject.addProperty("currency", transfer.getCurrency());
+      jsonObject.addProperty("timestamp", transfer.getTimestamp().toString());
+      return jsonObject;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package io.mwarzecha.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class MetricsRegistryTest {
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+
+  @Test
+  void testCountersWithLabelsShareOneFamily() {
+    var commits = new AtomicLong(3);
+    metrics.counter("transactions_total", "Transactions", Map.of("outcome", "commit"),
+        commits::get);
+    metrics.counter("transactions_total", "Transactions", Map.of("outcome", "rollback"),
+        () -> 1L);
+    commits.incrementAndGet();
+
+    assertEquals("# HELP transactions_total Transactions\n"
+        + "# TYPE transactions_total counter\n"
+        + "transactions_total{outcome=\"commit\"} 4\n"
+        + "transactions_total{outcome=\"rollback\"} 1\n", metrics.scrape());
+  }
+
+  @Test
+  void testGauge() {
+    metrics.gauge("pool_waiting", "Waiting threads", () -> 2.5);
+
+    assertEquals("# HELP pool_waiting Waiting threads\n"
+        + "# TYPE pool_waiting gauge\n"
+        + "pool_waiting 2.5\n", metrics.scrape());
+  }
+
+  @Test
+  void testHistogramBucketsAreCumulative() {
+    var histograms = metrics.histogram("latency_seconds", "Latency", new double[] {0.1, 1},
+        "route");
+    var histogram = histograms.labels("/a");
+    histogram.observe(0.05);
+    histogram.observe(0.1);
+    histogram.observe(0.5);
+    histogram.observe(3);
+
+    assertEquals("# HELP latency_seconds Latency\n"
+        + "# TYPE latency_seconds histogram\n"
+        + "latency_seconds_bucket{le=\"0.1\",route=\"/a\"} 2\n"
+        + "latency_seconds_bucket{le=\"1\",route=\"/a\"} 3\n"
+        + "latency_seconds_bucket{le=\"+Inf\",route=\"/a\"} 4\n"
+        + "latency_seconds_sum{route=\"/a\"} 3.65\n"
+        + "latency_seconds_count{route=\"/a\"} 4\n", metrics.scrape());
+  }
+
+  @Test
+  void testLabelValuesAreEscaped() {
+    metrics.counter("requests_total", "Requests", Map.of("path", "a\"b\\c\nd"), () -> 1L);
+
+    assertEquals("# HELP requests_total Requests\n"
+        + "# TYPE requests_total counter\n"
+        + "requests_total{path=\"a\\\"b\\\\c\\nd\"} 1\n", metrics.scrape());
+  }
+
+  @Test
+  void testSameNameWithDifferentTypeIsRejected() {
+    metrics.counter("value", "Value", () -> 1L);
+
+    assertThrows(IllegalArgumentException.class, () -> metrics.gauge("value", "Value", () -> 1));
+  }
+}
@@ -0,0 +1,44 @@
+package io.mwarzecha.model;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building {@link Money} from a decimal value, from its plain string form and from
+ * minor units.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+  private final BigDecimal value = new BigDecimal("1234.56");
+  private final String plainValue = "1234.56";
+
+  @Benchmark
+  public Money of() {
+    return Money.of("USD", value);
+  }
+
+  @Benchmark
+  public Money parse() {
+    return Money.parse("USD", plainValue);
+  }
+
+  @Benchmark
+  public Money ofMinorUnits() {
+    return Money.ofMinorUnits("USD", 1234_56L);
+  }
+}
@@ -0,0 +1,45 @@
+package io.mwarzecha.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+
+class MoneyTest {
+
+  @Test
+  void testParseTruncatesToMinorUnits() {
+    assertEquals(1012L, Money.parse("USD", "10.129").getMinorUnits());
+    assertEquals(1000L, Money.parse("USD", "10").getMinorUnits());
+    assertEquals(50L, Money.parse("USD", ".5").getMinorUnits());
+    assertEquals(-1012L, Money.parse("USD", "-10.12").getMinorUnits());
+    assertEquals(1012L, Money.parse("JPY", "1012.99").getMinorUnits());
+  }
+
+  @Test
+  void testParseFallsBackToDecimalNotation() {
+    assertEquals(10000L, Money.parse("USD", "1e2").getMinorUnits());
+  }
+
+  @Test
+  void testParseRejectsInvalidAmounts() {
+    assertThrows(NumberFormatException.class, () -> Money.parse("USD", "abc"));
+    assertThrows(NumberFormatException.class, () -> Money.parse("USD", "-"));
+    assertThrows(IllegalArgumentException.class,
+        () -> Money.parse("USD", "999999999999999999999"));
+    assertThrows(IllegalArgumentException.class, () -> Money.parse("XYZ", "1.00"));
+  }
+
+  @Test
+  void testToPlainStringMatchesBigDecimal() {
+    for (var value : new String[] {"0.00", "0.05", "1.20", "-0.01", "123456.78"}) {
+      var money = Money.of("USD", new BigDecimal(value));
+
+      assertEquals(value, money.toPlainString());
+      assertEquals(new BigDecimal(value), money.getValue());
+    }
+    assertEquals("42", Money.ofMinorUnits("JPY", 42L).toPlainString());
+    assertEquals("0.001", Money.ofMinorUnits("BHD", 1L).toPlainString());
+  }
+}
@@ -0,0 +1,124 @@
+package io.mwarzecha.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import io.mwarzecha.util.VirtualThreads;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncPersistenceServiceTest {
+
+  @Mock
+  private PersistenceService delegate;
+
+  private final Account account = Account.newBuilder()
+      .id(1L)
+      .owner("Joe")
+      .balance(Money.of("USD", BigDecimal.TEN))
+      .build();
+  private final Transfer transfer = Transfer.newBuilder()
+      .fromAccountId(1L)
+      .toAccountId(2L)
+      .amount(Money.of("USD", BigDecimal.ONE))
+      .build();
+
+  @Test
+  void testCallsRunOnExecutorThreads() throws Exception {
+    var service = new AsyncPersistenceService(delegate, 2, 4);
+    when(delegate.getAllAccounts()).thenAnswer(invocation -> {
+      assertTrue(Thread.currentThread().getName().startsWith("db-executor-"));
+      return List.of(account);
+    });
+
+    assertEquals(List.of(account), service.getAllAccounts().get(5, TimeUnit.SECONDS));
+    service.close();
+  }
+
+  @Test
+  void testRejectsWhenQueueIsFull() throws Exception {
+    var service = new AsyncPersistenceService(delegate, 1, 1);
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    when(delegate.getAccountById(1L)).thenAnswer(invocation -> {
+      started.countDown();
+      release.await();
+      return Optional.of(account);
+    });
+
+    var running = service.getAccountById(1L);
+    started.await();
+    var queued = service.getAccountById(1L);
+    var rejected = service.getAccountById(1L);
+
+    var exception = assertThrows(ExecutionException.class, rejected::get);
+    assertTrue(exception.getCause() instanceof RejectedExecutionException);
+    assertEquals(1, service.getRejectionCount());
+
+    release.countDown();
+    assertEquals(Optional.of(account), running.get(5, TimeUnit.SECONDS));
+    assertEquals(Optional.of(account), queued.get(5, TimeUnit.SECONDS));
+    service.close();
+  }
+
+  @Test
+  void testTransfersDoNotHoldExecutorThreadsUntilCommitted() throws Exception {
+    var service = new AsyncPersistenceService(delegate, 1, 1);
+    var committed = new CompletableFuture<Try<Transfer>>();
+    when(delegate.submitTransfer(transfer)).thenReturn(committed);
+    when(delegate.getAccountById(1L)).thenReturn(Optional.of(account));
+
+    var pending = service.makeTransfer(transfer);
+
+    assertEquals(Optional.of(account), service.getAccountById(1L).get(5, TimeUnit.SECONDS));
+    assertFalse(pending.isDone());
+    committed.complete(Try.success(transfer));
+    assertEquals(transfer, pending.get(5, TimeUnit.SECONDS).getResult());
+    service.close();
+  }
+
+  @Test
+  void testRejectsWhenVirtualThreadCallsAreExhausted() throws Exception {
+    assumeTrue(VirtualThreads.isSupported());
+    var service = AsyncPersistenceService.onVirtualThreads(delegate, 1);
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    when(delegate.getAccountById(1L)).thenAnswer(invocation -> {
+      started.countDown();
+      release.await();
+      return Optional.of(account);
+    });
+
+    var running = service.getAccountById(1L);
+    started.await();
+    var rejected = service.getAccountById(1L);
+
+    var exception = assertThrows(ExecutionException.class, rejected::get);
+    assertTrue(exception.getCause() instanceof RejectedExecutionException);
+    assertEquals(1, service.getActiveCount());
+
+    release.countDown();
+    assertEquals(Optional.of(account), running.get(5, TimeUnit.SECONDS));
+    assertEquals(Optional.of(account), service.getAccountById(1L).get(5, TimeUnit.SECONDS));
+    service.close();
+  }
+}
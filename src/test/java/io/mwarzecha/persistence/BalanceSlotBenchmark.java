@@ -0,0 +1,104 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures transfers into a single hot account, from a source account of each thread, with the
+ * hot balance kept in one row or split into {@code slots} rows by
+ * {@link JdbiPersistenceService#setBalanceSlots(long, int)}. With one slot every transfer queues
+ * on the hot row lock; with as many slots as threads each thread keeps to its own row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class BalanceSlotBenchmark {
+
+  private static final long HOT_ACCOUNT_ID = 1L;
+  private static final int SOURCE_ACCOUNTS = 64;
+
+  @Param({"1", "8"})
+  public int slots;
+
+  private final AtomicLong nextSourceAccountId = new AtomicLong(HOT_ACCOUNT_ID + 1);
+  private BasicDataSource dataSource;
+  private JdbiPersistenceService persistenceService;
+
+  @State(Scope.Thread)
+  public static class SourceAccount {
+
+    private long accountId;
+
+    @Setup(Level.Trial)
+    public void setUp(BalanceSlotBenchmark benchmark) {
+      accountId = benchmark.nextSourceAccountId.getAndIncrement();
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    dataSource = new BasicDataSource();
+    dataSource.setDriverClassName("org.h2.Driver");
+    dataSource.setUrl("jdbc:h2:mem:balanceSlotBench" + slots + ";DB_CLOSE_DELAY=-1");
+    dataSource.setUsername("sa");
+    dataSource.setPassword("");
+    var jdbi = Jdbi.create(dataSource);
+    jdbi.installPlugin(new H2DatabasePlugin());
+    jdbi.useHandle(handle -> {
+      new DbSchemaBootstrap().accept(handle);
+      insertAccounts(handle);
+    });
+    persistenceService = new JdbiPersistenceService(jdbi, Clock.systemUTC());
+    persistenceService.setBalanceSlots(HOT_ACCOUNT_ID, slots);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    dataSource.close();
+  }
+
+  @Benchmark
+  public Try<Transfer> creditHotAccount(SourceAccount source) {
+    return persistenceService.makeTransfer(Transfer.newBuilder()
+        .fromAccountId(source.accountId)
+        .toAccountId(HOT_ACCOUNT_ID)
+        .amount(Money.ofMinorUnits("USD", 1L))
+        .build());
+  }
+
+  private static void insertAccounts(Handle handle) {
+    var batch = handle.prepareBatch(
+        "INSERT INTO account (id, owner, currency, balance) VALUES (?, ?, ?, ?)");
+    for (long id = HOT_ACCOUNT_ID; id <= HOT_ACCOUNT_ID + SOURCE_ACCOUNTS; id++) {
+      batch.add(id, "owner" + id, "USD", 1_000_000_000L);
+    }
+    batch.execute();
+  }
+}
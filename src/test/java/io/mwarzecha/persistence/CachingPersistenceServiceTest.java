@@ -0,0 +1,156 @@
+package io.mwarzecha.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.math.BigDecimal;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CachingPersistenceServiceTest {
+
+  @Mock
+  private PersistenceService delegate;
+  private AccountCacheStats stats;
+  private CachingPersistenceService persistenceService;
+
+  @BeforeEach
+  void setUp() {
+    stats = new AccountCacheStats();
+    persistenceService = new CachingPersistenceService(delegate, new AccountCache(2, stats));
+  }
+
+  @Test
+  void testGetAccountByIdIsCached() {
+    when(delegate.getAccountById(1L)).thenReturn(Optional.of(newAccount(1L, "10.00")));
+
+    persistenceService.getAccountById(1L);
+    var account = persistenceService.getAccountById(1L).orElseThrow();
+
+    verify(delegate, times(1)).getAccountById(1L);
+    assertEquals(new BigDecimal("10.00"), account.getBalance());
+    assertEquals(1, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(0.5, stats.getHitRate());
+  }
+
+  @Test
+  void testMissingAccountIsNotCached() {
+    when(delegate.getAccountById(1L)).thenReturn(Optional.empty());
+
+    persistenceService.getAccountById(1L);
+    var account = persistenceService.getAccountById(1L);
+
+    verify(delegate, times(2)).getAccountById(1L);
+    assertTrue(account.isEmpty());
+  }
+
+  @Test
+  void testMakeTransferInvalidatesBothAccounts() {
+    var transfer = newTransfer(1L, 2L);
+    when(delegate.getAccountById(1L)).thenReturn(Optional.of(newAccount(1L, "10.00")),
+        Optional.of(newAccount(1L, "9.00")));
+    when(delegate.getAccountById(2L)).thenReturn(Optional.of(newAccount(2L, "0.00")),
+        Optional.of(newAccount(2L, "1.00")));
+    when(delegate.makeTransfer(transfer)).thenReturn(Try.success(transfer));
+    persistenceService.getAccountById(1L);
+    persistenceService.getAccountById(2L);
+
+    persistenceService.makeTransfer(transfer);
+
+    assertEquals(new BigDecimal("9.00"), persistenceService.getAccountById(1L)
+        .orElseThrow().getBalance());
+    assertEquals(new BigDecimal("1.00"), persistenceService.getAccountById(2L)
+        .orElseThrow().getBalance());
+    assertEquals(2, stats.getInvalidationCount());
+  }
+
+  @Test
+  void testLoadRacingWithTransferIsNotCached() {
+    var transfer = newTransfer(1L, 2L);
+    when(delegate.getAccountById(1L)).thenAnswer(invocation -> {
+      persistenceService.makeTransfer(transfer);
+      return Optional.of(newAccount(1L, "10.00"));
+    }).thenReturn(Optional.of(newAccount(1L, "9.00")));
+    when(delegate.makeTransfer(transfer)).thenReturn(Try.success(transfer));
+
+    persistenceService.getAccountById(1L);
+
+    assertEquals(new BigDecimal("9.00"), persistenceService.getAccountById(1L)
+        .orElseThrow().getBalance());
+  }
+
+  @Test
+  void testLoadRacingWithTransferToOtherAccountsIsCached() {
+    var transfer = newTransfer(2L, 3L);
+    when(delegate.getAccountById(1L)).thenAnswer(invocation -> {
+      persistenceService.makeTransfer(transfer);
+      return Optional.of(newAccount(1L, "10.00"));
+    });
+    when(delegate.makeTransfer(transfer)).thenReturn(Try.success(transfer));
+
+    persistenceService.getAccountById(1L);
+
+    assertEquals(new BigDecimal("10.00"), persistenceService.getAccountById(1L)
+        .orElseThrow().getBalance());
+    verify(delegate, times(1)).getAccountById(1L);
+  }
+
+  @Test
+  void testUnreferencedAccountIsEvicted() {
+    when(delegate.getAccountById(1L)).thenReturn(Optional.of(newAccount(1L, "1.00")));
+    when(delegate.getAccountById(2L)).thenReturn(Optional.of(newAccount(2L, "2.00")));
+    when(delegate.getAccountById(3L)).thenReturn(Optional.of(newAccount(3L, "3.00")));
+    persistenceService.getAccountById(1L);
+    persistenceService.getAccountById(2L);
+    persistenceService.getAccountById(1L);
+
+    persistenceService.getAccountById(3L);
+    persistenceService.getAccountById(1L);
+    persistenceService.getAccountById(2L);
+
+    verify(delegate, times(1)).getAccountById(1L);
+    verify(delegate, times(2)).getAccountById(2L);
+    assertEquals(2, stats.getEvictionCount());
+  }
+
+  @Test
+  void testPersistedAccountIsCached() {
+    var account = newAccount(0L, "5.00");
+    when(delegate.persistAccount(account)).thenReturn(account.withId(7L));
+
+    persistenceService.persistAccount(account);
+    var cached = persistenceService.getAccountById(7L).orElseThrow();
+
+    assertEquals(7L, cached.getId());
+    assertEquals(1, stats.getHitCount());
+  }
+
+  private static Account newAccount(long id, String balance) {
+    return Account.newBuilder()
+        .id(id)
+        .owner("Joe")
+        .balance(Money.of("USD", new BigDecimal(balance)))
+        .build();
+  }
+
+  private static Transfer newTransfer(long from, long to) {
+    return Transfer.newBuilder()
+        .fromAccountId(from)
+        .toAccountId(to)
+        .amount(Money.of("USD", BigDecimal.ONE))
+        .build();
+  }
+}
@@ -0,0 +1,175 @@
+package io.mwarzecha.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class EventSourcedPersistenceServiceTest {
+
+  private static final DbSchemaBootstrap SCHEMA_BOOTSTRAP = new DbSchemaBootstrap();
+  private static final Instant TIMESTAMP = Instant.ofEpochMilli(123123123L);
+  private static final int REGION_SIZE = 64 * 1024;
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private static Jdbi jdbi;
+
+  @TempDir
+  Path tempDir;
+
+  @Mock
+  private Clock clock;
+  private LedgerJournal journal;
+  private LedgerProjector projector;
+  private EventSourcedPersistenceService persistenceService;
+
+  @BeforeAll
+  static void setUpClass() {
+    jdbi = Jdbi.create("jdbc:h2:mem:eventSourcedDB;DB_CLOSE_DELAY=-1", "sa", "");
+    jdbi.installPlugin(new H2DatabasePlugin());
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    jdbi.useHandle(SCHEMA_BOOTSTRAP::accept);
+    open();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    close();
+    jdbi.useHandle(handle -> handle.execute("DROP ALL OBJECTS"));
+  }
+
+  @Test
+  void testProjectionCatchesUpWithTransfers() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "100.21");
+    persistAccount("Steve", "35.17");
+
+    var result = persistenceService.makeTransfer(newTransfer(1L, 2L, "10.12"));
+
+    assertTrue(result.isSuccess());
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    assertEquals(0L, persistenceService.getProjectionLag().orElseThrow());
+    assertEquals(new BigDecimal("90.09"), balanceOf(1L));
+    assertEquals(new BigDecimal("45.29"), balanceOf(2L));
+    var transfers = persistenceService.getTransfersByAccountId(2L);
+    assertEquals(1, transfers.size());
+    assertEquals(TIMESTAMP, transfers.get(0).getTimestamp());
+  }
+
+  @Test
+  void testProjectionResumesAfterRestart() throws Exception {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "100.00");
+    persistAccount("Steve", "0.00");
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "1.00"));
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    close();
+
+    open();
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "2.00"));
+
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    assertEquals(new BigDecimal("97.00"), balanceOf(1L));
+    assertEquals(new BigDecimal("3.00"), balanceOf(2L));
+    assertEquals(2, persistenceService.getTransfersByAccountId(1L).size());
+  }
+
+  @Test
+  void testProjectionRetriesFailedBatch() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "100.00");
+    persistAccount("Steve", "0.00");
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    jdbi.useHandle(handle -> handle.execute("ALTER TABLE transfer RENAME TO transfer_moved"));
+
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "1.00"));
+
+    assertFalse(projector.awaitCaughtUp(Duration.ofMillis(500)));
+    assertTrue(projector.getFailureCount() > 0);
+    assertTrue(projector.getConsecutiveFailures() > 0);
+    jdbi.useHandle(handle -> handle.execute("ALTER TABLE transfer_moved RENAME TO transfer"));
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    assertEquals(0, projector.getConsecutiveFailures());
+    assertEquals(new BigDecimal("1.00"), balanceOf(2L));
+  }
+
+  @Test
+  void testProjectionAheadOfJournalIsRebuilt() throws Exception {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "100.00");
+    persistAccount("Steve", "0.00");
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "1.00"));
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    close();
+
+    journal = LedgerJournal.open(tempDir.resolve("other.journal"), REGION_SIZE);
+    persistenceService = newPersistenceService();
+    persistAccount("John", "5.00");
+
+    assertTrue(projector.awaitCaughtUp(TIMEOUT));
+    assertEquals(1, persistenceService.getAllAccounts().size());
+    assertEquals("John", persistenceService.getAccountById(1L).orElseThrow().getOwner());
+  }
+
+  private void open() throws IOException {
+    journal = LedgerJournal.open(tempDir.resolve("ledger.journal"), REGION_SIZE);
+    persistenceService = newPersistenceService();
+  }
+
+  private EventSourcedPersistenceService newPersistenceService() throws IOException {
+    var writeModel = InMemoryPersistenceService.recover(journal, clock);
+    projector = LedgerProjector.start(journal, jdbi);
+    return new EventSourcedPersistenceService(writeModel,
+        new JdbiPersistenceService(jdbi, clock), projector);
+  }
+
+  private void close() throws Exception {
+    persistenceService.close();
+    journal.close();
+  }
+
+  private void persistAccount(String owner, String balance) {
+    persistenceService.persistAccount(Account.newBuilder()
+        .owner(owner)
+        .balance(Money.of("USD", new BigDecimal(balance)))
+        .build());
+  }
+
+  private BigDecimal balanceOf(long accountId) {
+    return persistenceService.getAccountById(accountId)
+        .orElseThrow()
+        .getBalance();
+  }
+
+  private static Transfer newTransfer(long from, long to, String amount) {
+    return Transfer.newBuilder()
+        .fromAccountId(from)
+        .toAccountId(to)
+        .amount(Money.of("USD", new BigDecimal(amount)))
+        .build();
+  }
+}
@@ -0,0 +1,261 @@
+package io.mwarzecha.persistence;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.persistence.PersistenceStats.FailureReason;
+import io.mwarzecha.util.Try;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GroupCommitPersistenceServiceTest {
+
+  private static final DbSchemaBootstrap SCHEMA_BOOTSTRAP = new DbSchemaBootstrap();
+  private static final Instant TIMESTAMP = Instant.ofEpochMilli(123123123L);
+  private static final int BATCH_SIZE = 8;
+
+  private static Jdbi jdbi;
+
+  @Mock
+  private Clock clock;
+  private GroupCommitStats stats;
+  private PersistenceStats persistenceStats;
+  private GroupCommitPersistenceService persistenceService;
+  private ExecutorService executor;
+
+  @BeforeAll
+  static void setUpClass() {
+    jdbi = Jdbi.create("jdbc:h2:mem:groupCommitTestDB;DB_CLOSE_DELAY=-1", "sa", "");
+    jdbi.installPlugin(new H2DatabasePlugin());
+  }
+
+  @BeforeEach
+  void setUp() {
+    jdbi.useHandle(SCHEMA_BOOTSTRAP::accept);
+    stats = new GroupCommitStats();
+    persistenceStats = new PersistenceStats();
+    persistenceService = newPersistenceService(false);
+    executor = Executors.newFixedThreadPool(BATCH_SIZE);
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    persistenceService.close();
+    jdbi.useHandle(handle -> handle.execute("DROP ALL OBJECTS"));
+  }
+
+  @Test
+  void testConcurrentTransfersShareCommits() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (1, 'Joe', 'USD', 500)");
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (2, 'Steve', 'USD', 0)");
+    });
+    var futures = new ArrayList<CompletableFuture<Try<Transfer>>>();
+
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      futures.add(CompletableFuture.supplyAsync(() ->
+          persistenceService.makeTransfer(newTransfer(new BigDecimal("1.00"))), executor));
+    }
+    List<Try<Transfer>> results = futures.stream()
+        .map(CompletableFuture::join)
+        .collect(toList());
+
+    long succeeded = results.stream().filter(Try::isSuccess).count();
+    long transferCount = jdbi.withHandle(handle -> handle
+        .select("SELECT COUNT(*) FROM transfer")
+        .mapTo(Long.class)
+        .one());
+    var balance = persistenceService.getAccountById(2L).orElseThrow().getBalance();
+
+    assertEquals(5, succeeded);
+    assertEquals(5, transferCount);
+    assertEquals(new BigDecimal("5.00"), balance);
+    assertEquals(8, stats.getTransferCount());
+    assertEquals(1, stats.getBatchCount());
+    assertEquals(3, persistenceStats.getFailureCount(FailureReason.INSUFFICIENT_FUNDS));
+  }
+
+  @Test
+  void testNettingUpdatesBalancesOncePerBatch() throws InterruptedException {
+    persistenceService.close();
+    persistenceService = newPersistenceService(true);
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (1, 'Joe', 'USD', 500)");
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (2, 'Steve', 'USD', 500)");
+    });
+    var futures = new ArrayList<CompletableFuture<Try<Transfer>>>();
+
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      var transfer = i % 2 == 0
+          ? newTransfer(1L, 2L, new BigDecimal("1.00"))
+          : newTransfer(2L, 1L, new BigDecimal("1.00"));
+      futures.add(CompletableFuture.supplyAsync(() ->
+          persistenceService.makeTransfer(transfer), executor));
+    }
+    List<Try<Transfer>> results = futures.stream()
+        .map(CompletableFuture::join)
+        .collect(toList());
+
+    long transferCount = jdbi.withHandle(handle -> handle
+        .select("SELECT COUNT(*) FROM transfer")
+        .mapTo(Long.class)
+        .one());
+
+    assertTrue(results.stream().allMatch(Try::isSuccess));
+    assertEquals(8, transferCount);
+    assertEquals(new BigDecimal("5.00"),
+        persistenceService.getAccountById(1L).orElseThrow().getBalance());
+    assertEquals(new BigDecimal("5.00"),
+        persistenceService.getAccountById(2L).orElseThrow().getBalance());
+    assertEquals(1, stats.getBatchCount());
+    assertEquals(0, stats.getBalanceUpdateCount());
+  }
+
+  @Test
+  void testNettingChecksFundsAgainstEarlierTransfersInBatch() {
+    jdbi.useTransaction(handle -> {
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (1, 'Joe', 'USD', 100)");
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (2, 'Steve', 'USD', 500)");
+    });
+    var transfers = List.of(
+        newTransfer(2L, 1L, new BigDecimal("5.00")),
+        // only covered by the credit above
+        newTransfer(1L, 2L, new BigDecimal("5.50")),
+        // covered by the opening balance, but not after the debit above
+        newTransfer(1L, 2L, new BigDecimal("1.00")));
+
+    List<Try<Transfer>> results = jdbi.inTransaction(handle ->
+        JdbiPersistenceService.applyTransfers(handle, transfers, TIMESTAMP));
+
+    assertTrue(results.get(0).isSuccess());
+    assertTrue(results.get(1).isSuccess());
+    assertEquals("Insufficient funds", results.get(2).getThrowable().getMessage());
+    assertEquals(new BigDecimal("0.50"),
+        persistenceService.getAccountById(1L).orElseThrow().getBalance());
+    assertEquals(new BigDecimal("5.50"),
+        persistenceService.getAccountById(2L).orElseThrow().getBalance());
+  }
+
+  @Test
+  void testSubmittedTransfersShareCommitsWithoutBlocking() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (1, 'Joe', 'USD', 500)");
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (2, 'Steve', 'USD', 0)");
+    });
+    var futures = new ArrayList<CompletableFuture<Try<Transfer>>>();
+
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      futures.add(persistenceService.submitTransfer(newTransfer(new BigDecimal("1.00"))));
+    }
+    List<Try<Transfer>> results = futures.stream()
+        .map(CompletableFuture::join)
+        .collect(toList());
+
+    assertEquals(5, results.stream().filter(Try::isSuccess).count());
+    assertEquals(1, stats.getBatchCount());
+  }
+
+  @Test
+  void testIdempotencyKeysAreRecordedInBatches() {
+    assertIdempotencyKeysAreRecorded(12);
+  }
+
+  @Test
+  void testIdempotencyKeysAreRecordedInNettedBatches() throws InterruptedException {
+    persistenceService.close();
+    persistenceService = newPersistenceService(true);
+    assertIdempotencyKeysAreRecorded(2);
+  }
+
+  @Test
+  void testMakeTransferAfterClose() throws InterruptedException {
+    persistenceService.close();
+
+    var result = persistenceService.makeTransfer(newTransfer(new BigDecimal("1.00")));
+
+    assertEquals("Group committer is closed", result.getThrowable().getMessage());
+    assertEquals(0, stats.getBatchCount());
+  }
+
+  /**
+   * Only the transfers made count as balance updates, not those answered from their keys.
+   */
+  private void assertIdempotencyKeysAreRecorded(long balanceUpdates) {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (1, 'Joe', 'USD', 1000)");
+      handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (2, 'Steve', 'USD', 0)");
+    });
+    var transfer = newTransfer(new BigDecimal("1.00"));
+    var futures = new ArrayList<CompletableFuture<Try<Transfer>>>();
+
+    futures.add(persistenceService.submitTransfer(transfer, "key"));
+    futures.add(persistenceService.submitTransfer(transfer, "key"));
+    futures.add(persistenceService.submitTransfer(newTransfer(new BigDecimal("2.00")), "key"));
+    for (int i = futures.size(); i < BATCH_SIZE; i++) {
+      futures.add(persistenceService.submitTransfer(transfer, "key-" + i));
+    }
+    List<Try<Transfer>> results = futures.stream()
+        .map(CompletableFuture::join)
+        .collect(toList());
+
+    long transferId = results.get(0).getResult().getId();
+    assertEquals(transferId, results.get(1).getResult().getId());
+    assertEquals("Idempotency key key was used for a different transfer",
+        results.get(2).getThrowable().getMessage());
+    assertEquals(Long.valueOf(transferId), jdbi.withHandle(handle -> handle
+        .select("SELECT transfer_id FROM idempotency_key WHERE idempotency_key = 'key'")
+        .mapTo(Long.class)
+        .one()));
+    assertEquals(new BigDecimal("6.00"),
+        persistenceService.getAccountById(2L).orElseThrow().getBalance());
+    assertEquals(balanceUpdates, stats.getBalanceUpdateCount());
+  }
+
+  /**
+   * The committer waits far longer than the tests take to queue their {@value #BATCH_SIZE}
+   * transfers, so they always share a single batch.
+   */
+  private GroupCommitPersistenceService newPersistenceService(boolean netting) {
+    return new GroupCommitPersistenceService(jdbi, clock, BATCH_SIZE, Duration.ofMinutes(1),
+        netting, stats, persistenceStats, TransactionIsolationLevel.READ_COMMITTED);
+  }
+
+  private static Transfer newTransfer(BigDecimal amount) {
+    return newTransfer(1L, 2L, amount);
+  }
+
+  private static Transfer newTransfer(long fromAccountId, long toAccountId, BigDecimal amount) {
+    return Transfer.newBuilder()
+        .fromAccountId(fromAccountId)
+        .toAccountId(toAccountId)
+        .amount(Money.of("USD", amount))
+        .build();
+  }
+}
@@ -0,0 +1,414 @@
+package io.mwarzecha.persistence;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.DailyRollup;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class InMemoryPersistenceServiceTest {
+
+  private static final Instant TIMESTAMP = Instant.ofEpochMilli(123123123L);
+  private static final int REGION_SIZE = 64 * 1024;
+
+  @TempDir
+  Path tempDir;
+
+  @Mock
+  private Clock clock;
+  private LedgerJournal journal;
+  private InMemoryPersistenceService persistenceService;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    journal = LedgerJournal.open(tempDir.resolve("ledger.journal"), REGION_SIZE);
+    persistenceService = InMemoryPersistenceService.recover(journal, clock);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    journal.close();
+  }
+
+  @Test
+  void testPersistAccount() {
+    Account result = persistenceService.persistAccount(Account.newBuilder()
+        .balance(Money.zeroOf("USD"))
+        .owner("Mike")
+        .build());
+
+    List<Account> accounts = persistenceService.getAllAccounts();
+    var account = accounts.get(0);
+
+    assertEquals(1, accounts.size());
+    assertEquals(1L, result.getId());
+    assertEquals("USD", account.getCurrency());
+    assertEquals("Mike", account.getOwner());
+    assertEquals(new BigDecimal("0.00"), account.getBalance());
+    assertAccountEquals(account, result);
+  }
+
+  private static void assertAccountEquals(Account expected, Account actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getBalance(), actual.getBalance());
+    assertEquals(expected.getCurrency(), actual.getCurrency());
+    assertEquals(expected.getOwner(), actual.getOwner());
+  }
+
+  @Test
+  void testGetNonexistentAccountById() {
+    Optional<Account> result = persistenceService.getAccountById(1L);
+
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  void testGetAllAccountsWhenEmpty() {
+    List<Account> accounts = persistenceService.getAllAccounts();
+
+    assertTrue(accounts.isEmpty());
+  }
+
+  @Test
+  void testMakeTransfer() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+
+    Try<Transfer> result = persistenceService.makeTransfer(newTransfer(1L, 2L, "USD",
+        new BigDecimal("10.12")));
+
+    var transfer = result.getResult();
+
+    assertEquals(new BigDecimal("90.09"), balanceOf(1L));
+    assertEquals(new BigDecimal("45.29"), balanceOf(2L));
+    assertEquals(1L, transfer.getId());
+    assertEquals(1L, transfer.getFromAccountId());
+    assertEquals(2L, transfer.getToAccountId());
+    assertEquals("USD", transfer.getCurrency());
+    assertEquals(new BigDecimal("10.12"), transfer.getAmount());
+    assertEquals(TIMESTAMP, transfer.getTimestamp());
+  }
+
+  private void persistAccount(String owner, String currency, BigDecimal balance) {
+    persistenceService.persistAccount(Account.newBuilder()
+        .owner(owner)
+        .balance(Money.of(currency, balance))
+        .build());
+  }
+
+  private BigDecimal balanceOf(long accountId) {
+    return persistenceService.getAccountById(accountId)
+        .orElseThrow()
+        .getBalance();
+  }
+
+  private static Transfer newTransfer(long from, long to, String currency, BigDecimal amount) {
+    return Transfer.newBuilder()
+        .fromAccountId(from)
+        .toAccountId(to)
+        .amount(Money.of(currency, amount))
+        .build();
+  }
+
+  @Test
+  void testMakeTransferWithInvalidCurrency() {
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+
+    Try<Transfer> result = persistenceService.makeTransfer(newTransfer(1L, 2L, "EUR",
+        new BigDecimal("10.12")));
+
+    assertTrue(result.isFailure());
+    assertTrue(persistenceService.getTransfersByAccountId(1L).isEmpty());
+    assertEquals(new BigDecimal("100.21"), balanceOf(1L));
+    assertEquals(new BigDecimal("35.17"), balanceOf(2L));
+  }
+
+  @Test
+  void testMakeTransferWithInsufficientFunds() {
+    persistAccount("Joe", "USD", new BigDecimal("1.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+
+    Try<Transfer> result = persistenceService.makeTransfer(newTransfer(1L, 2L, "USD",
+        new BigDecimal("10.12")));
+
+    assertTrue(result.isFailure());
+    assertEquals("Insufficient funds", result.getThrowable().getMessage());
+    assertTrue(persistenceService.getTransfersByAccountId(1L).isEmpty());
+    assertEquals(new BigDecimal("1.21"), balanceOf(1L));
+    assertEquals(new BigDecimal("35.17"), balanceOf(2L));
+  }
+
+  @Test
+  void testMakeTransferToNonexistentAccount() {
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+
+    Try<Transfer> result = persistenceService.makeTransfer(newTransfer(1L, 2L, "USD",
+        new BigDecimal("10.12")));
+
+    assertTrue(result.isFailure());
+    assertTrue(persistenceService.getTransfersByAccountId(1L).isEmpty());
+    assertEquals(new BigDecimal("100.21"), balanceOf(1L));
+  }
+
+  @Test
+  void testGetTransfersByAccountId() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistAccount("John", "USD", new BigDecimal("45.18"));
+    persistAccount("Dan", "EUR", new BigDecimal("80.02"));
+    persistAccount("Mike", "EUR", new BigDecimal("150.11"));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.00")));
+    persistenceService.makeTransfer(newTransfer(2L, 3L, "USD", new BigDecimal("15.00")));
+    persistenceService.makeTransfer(newTransfer(4L, 5L, "EUR", new BigDecimal("30.00")));
+
+    List<Transfer> steveTransfers = persistenceService.getTransfersByAccountId(2L);
+
+    assertEquals(2, steveTransfers.size());
+  }
+
+  @Test
+  void testGetTransfersByAccountIdPaginated() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistAccount("John", "USD", new BigDecimal("45.18"));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.00")));
+    persistenceService.makeTransfer(newTransfer(1L, 3L, "USD", new BigDecimal("15.00")));
+    persistenceService.makeTransfer(newTransfer(3L, 2L, "USD", new BigDecimal("30.00")));
+    persistenceService.makeTransfer(newTransfer(2L, 1L, "USD", new BigDecimal("5.00")));
+
+    List<Transfer> firstPage = persistenceService.getTransfersByAccountId(2L, 0L, 2);
+    List<Transfer> secondPage = persistenceService.getTransfersByAccountId(2L, 3L, 2);
+    List<Transfer> afterLast = persistenceService.getTransfersByAccountId(2L, 4L, 2);
+
+    assertEquals(1L, firstPage.get(0).getId());
+    assertEquals(3L, firstPage.get(1).getId());
+    assertEquals(1, secondPage.size());
+    assertEquals(4L, secondPage.get(0).getId());
+    assertTrue(afterLast.isEmpty());
+  }
+
+  @Test
+  void testGetTransferByIdAndWrongAccountId() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistAccount("John", "USD", new BigDecimal("45.18"));
+    persistenceService.makeTransfer(newTransfer(2L, 3L, "USD", new BigDecimal("5.00")));
+
+    Optional<Transfer> joeTransfer = persistenceService.getTransferByIdAndAccountId(1L, 1L);
+
+    assertTrue(joeTransfer.isEmpty());
+    assertTrue(persistenceService.getTransferByIdAndAccountId(1L, 2L).isPresent());
+  }
+
+  @Test
+  void testSetBalanceSlotsKeepsBalance() {
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+
+    var account = persistenceService.setBalanceSlots(1L, 4);
+
+    assertEquals(new BigDecimal("100.21"), account.orElseThrow().getBalance());
+    assertEquals(new BigDecimal("100.21"), balanceOf(1L));
+    assertTrue(persistenceService.setBalanceSlots(2L, 4).isEmpty());
+  }
+
+  @Test
+  void testGetDailyRollups() {
+    var nextDay = TIMESTAMP.plus(Duration.ofDays(1));
+    when(clock.instant()).thenReturn(TIMESTAMP, TIMESTAMP, nextDay);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.00")));
+    persistenceService.makeTransfer(newTransfer(2L, 1L, "USD", new BigDecimal("2.50")));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("1.00")));
+    var day = LocalDate.ofInstant(TIMESTAMP, ZoneOffset.UTC);
+
+    List<DailyRollup> rollups = persistenceService.getDailyRollups(1L, day, day.plusDays(1));
+
+    assertEquals(2, rollups.size());
+    assertEquals(day, rollups.get(0).getDate());
+    assertEquals(new BigDecimal("2.50"), rollups.get(0).getInflow());
+    assertEquals(new BigDecimal("10.00"), rollups.get(0).getOutflow());
+    assertEquals(2, rollups.get(0).getTransferCount());
+    assertEquals(new BigDecimal("1.00"), rollups.get(1).getOutflow());
+    assertEquals(1, persistenceService.getDailyRollups(1L, day, day).size());
+    assertTrue(persistenceService.getDailyRollups(3L, day, day).isEmpty());
+  }
+
+  @Test
+  void testGetAccountBalanceAt() {
+    var nextDay = TIMESTAMP.plus(Duration.ofDays(1));
+    when(clock.instant()).thenReturn(TIMESTAMP, nextDay);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.00")));
+    persistenceService.makeTransfer(newTransfer(2L, 1L, "USD", new BigDecimal("2.50")));
+
+    assertEquals(new BigDecimal("100.21"), balanceAt(1L, TIMESTAMP.minusMillis(1)));
+    assertEquals(new BigDecimal("90.21"), balanceAt(1L, TIMESTAMP));
+    assertEquals(new BigDecimal("92.71"), balanceAt(1L, nextDay));
+    assertEquals(new BigDecimal("45.17"), balanceAt(2L, TIMESTAMP));
+    assertTrue(persistenceService.getAccountBalanceAt(3L, TIMESTAMP).isEmpty());
+  }
+
+  @Test
+  void testForEachTransfer() {
+    var nextDay = TIMESTAMP.plus(Duration.ofDays(1));
+    when(clock.instant()).thenReturn(TIMESTAMP, nextDay, TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.00")));
+    persistenceService.makeTransfer(newTransfer(2L, 1L, "USD", new BigDecimal("2.50")));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("1.00")));
+
+    assertEquals(List.of(1L, 2L, 3L), exportTransferIds(0L, Instant.EPOCH));
+    assertEquals(List.of(2L, 3L), exportTransferIds(1L, Instant.EPOCH));
+    assertEquals(List.of(2L), exportTransferIds(0L, nextDay));
+  }
+
+  @Test
+  void testForEachTransferStopsAtTransferInFlight() throws Exception {
+    var blockingJournal = spy(journal);
+    persistenceService = InMemoryPersistenceService.recover(blockingJournal, clock);
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistAccount("John", "USD", new BigDecimal("45.18"));
+    persistAccount("Dan", "USD", new BigDecimal("80.02"));
+    var appending = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    doThrow(new IllegalStateException("Journal full"))
+        .doAnswer(invocation -> {
+          appending.countDown();
+          release.await();
+          return invocation.callRealMethod();
+        })
+        .doCallRealMethod()
+        .when(blockingJournal).appendTransfer(any());
+
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.00")));
+    var inFlight = CompletableFuture.supplyAsync(() -> persistenceService.makeTransfer(
+        newTransfer(1L, 2L, "USD", new BigDecimal("5.00"))));
+    appending.await();
+    persistenceService.makeTransfer(newTransfer(3L, 4L, "USD", new BigDecimal("1.00")));
+
+    assertTrue(exportTransferIds(0L, Instant.EPOCH).isEmpty());
+    release.countDown();
+    assertTrue(inFlight.get(5, TimeUnit.SECONDS).isSuccess());
+    assertEquals(List.of(2L, 3L), exportTransferIds(0L, Instant.EPOCH));
+  }
+
+  private List<Long> exportTransferIds(long afterTransferId, Instant since) {
+    var transfers = new ArrayList<Transfer>();
+    persistenceService.forEachTransfer(afterTransferId, since, Instant.MAX, transfers::add);
+    return transfers.stream()
+        .map(Transfer::getId)
+        .collect(toList());
+  }
+
+  private BigDecimal balanceAt(long accountId, Instant at) {
+    return persistenceService.getAccountBalanceAt(accountId, at)
+        .orElseThrow()
+        .getBalance();
+  }
+
+  @Test
+  void testFailedJournalAppendLeavesLedgerUnchanged() throws IOException {
+    var failingJournal = spy(journal);
+    persistenceService = InMemoryPersistenceService.recover(failingJournal, clock);
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    doThrow(new IllegalStateException("Journal full")).when(failingJournal)
+        .appendTransfer(any());
+
+    Try<Transfer> result = persistenceService.makeTransfer(newTransfer(1L, 2L, "USD",
+        new BigDecimal("10.12")));
+
+    assertTrue(result.isFailure());
+    assertTrue(persistenceService.getTransfersByAccountId(1L).isEmpty());
+    assertEquals(new BigDecimal("100.21"), balanceOf(1L));
+    assertEquals(new BigDecimal("35.17"), balanceOf(2L));
+  }
+
+  @Test
+  void testFailedJournalSyncRejectsLaterWrites() throws IOException {
+    var failingJournal = spy(journal);
+    persistenceService = InMemoryPersistenceService.recover(failingJournal, clock);
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    doThrow(new IOException("Disk failed")).when(failingJournal).sync(anyLong());
+
+    Try<Transfer> failed = persistenceService.makeTransfer(newTransfer(1L, 2L, "USD",
+        new BigDecimal("10.12")));
+    Try<Transfer> rejected = persistenceService.makeTransfer(newTransfer(1L, 2L, "USD",
+        new BigDecimal("1.00")));
+
+    assertEquals("Journal write failed", failed.getThrowable().getMessage());
+    assertEquals("Ledger is read-only after a failed journal write",
+        rejected.getThrowable().getMessage());
+    assertThrows(IllegalStateException.class, () -> persistAccount("John", "USD",
+        BigDecimal.ONE));
+  }
+
+  @Test
+  void testRecoverFromJournal() throws IOException {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    persistAccount("Joe", "USD", new BigDecimal("100.21"));
+    persistAccount("Steve", "USD", new BigDecimal("35.17"));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("10.12")));
+    journal.close();
+
+    journal = LedgerJournal.open(tempDir.resolve("ledger.journal"), REGION_SIZE);
+    persistenceService = InMemoryPersistenceService.recover(journal, clock);
+    var transfers = persistenceService.getTransfersByAccountId(2L);
+    var nextAccount = persistenceService.persistAccount(Account.newBuilder()
+        .owner("John")
+        .balance(Money.zeroOf("USD"))
+        .build());
+
+    assertEquals(new BigDecimal("90.09"), balanceOf(1L));
+    assertEquals(new BigDecimal("45.29"), balanceOf(2L));
+    assertEquals(1, transfers.size());
+    assertEquals(TIMESTAMP, transfers.get(0).getTimestamp());
+    assertEquals(3L, nextAccount.getId());
+  }
+}
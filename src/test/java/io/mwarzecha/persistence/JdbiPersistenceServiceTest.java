@@ -1,17 +1,27 @@
 package io.mwarzecha.persistence;
 
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import io.mwarzecha.model.Account;
 import io.mwarzecha.model.Transfer;
 import io.mwarzecha.model.Money;
 import io.mwarzecha.util.Try;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,11 +30,14 @@ import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.h2.H2DatabasePlugin;
 import org.jdbi.v3.core.mapper.RowMapper;
 import org.jdbi.v3.core.mapper.RowMappers;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -38,6 +51,9 @@ class JdbiPersistenceServiceTest {
 
   private static Jdbi jdbi;
 
+  @TempDir
+  Path tempDir;
+
   @Mock
   private Clock clock;
   private JdbiPersistenceService persistenceService;
@@ -111,7 +127,7 @@ class JdbiPersistenceServiceTest {
   private static void insertIntoAccount(Handle handle, long id, String owner, String currency,
       BigDecimal balance) {
     handle.execute("INSERT INTO account (id, owner, currency, balance) VALUES (?, ?, ?, ?)",
-        id, owner, currency, balance);
+        id, owner, currency, Money.of(currency, balance).getMinorUnits());
   }
 
   @Test
@@ -261,6 +277,387 @@ class JdbiPersistenceServiceTest {
     assertEquals(new BigDecimal("100.21"), joeAccount.getBalance());
   }
 
+  @Test
+  void testMakeTransfers() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("10.00"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("5.00"));
+      insertIntoAccount(handle, 3L, "Dan", "EUR", new BigDecimal("80.02"));
+    });
+
+    List<Try<Transfer>> results = persistenceService.makeTransfers(List.of(
+        newTransfer(1L, 2L, "USD", new BigDecimal("8.00")),
+        newTransfer(1L, 2L, "USD", new BigDecimal("8.00")),
+        newTransfer(2L, 3L, "USD", new BigDecimal("1.00")),
+        newTransfer(2L, 1L, "USD", new BigDecimal("13.00"))));
+
+    Map<Long, Account> accountsById = selectFromAccountMappedById();
+    List<Transfer> transfers = selectFromTransfer();
+
+    assertEquals(4, results.size());
+    assertTrue(results.get(0).isSuccess());
+    assertEquals("Insufficient funds", results.get(1).getThrowable().getMessage());
+    assertEquals("Invalid account id 3 or currency USD",
+        results.get(2).getThrowable().getMessage());
+    assertTrue(results.get(3).isSuccess());
+    assertEquals(2, transfers.size());
+    assertTransferEquals(transfers.get(0), results.get(0).getResult());
+    assertTransferEquals(transfers.get(1), results.get(3).getResult());
+    assertEquals(new BigDecimal("15.00"), accountsById.get(1L).getBalance());
+    assertEquals(new BigDecimal("0.00"), accountsById.get(2L).getBalance());
+    assertEquals(new BigDecimal("80.02"), accountsById.get(3L).getBalance());
+  }
+
+  @Test
+  void testMakeTransferWithIdempotencyKeyOnlyOnce() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("10.00"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("5.00"));
+    });
+    var transfer = newTransfer(1L, 2L, "USD", new BigDecimal("4.00"));
+
+    Try<Transfer> first = persistenceService.makeTransfer(transfer, "key-1");
+    Try<Transfer> retried = persistenceService.makeTransfer(transfer, "key-1");
+    Try<Transfer> reused = persistenceService.makeTransfer(
+        newTransfer(1L, 2L, "USD", new BigDecimal("5.00")), "key-1");
+
+    Map<Long, Account> accountsById = selectFromAccountMappedById();
+    List<Transfer> transfers = selectFromTransfer();
+
+    assertTrue(first.isSuccess());
+    assertTransferEquals(first.getResult(), retried.getResult());
+    assertEquals("Idempotency key key-1 was used for a different transfer",
+        reused.getThrowable().getMessage());
+    assertEquals(1, transfers.size());
+    assertEquals(new BigDecimal("6.00"), accountsById.get(1L).getBalance());
+    assertEquals(new BigDecimal("9.00"), accountsById.get(2L).getBalance());
+  }
+
+  @Test
+  void testSetBalanceSlots() {
+    jdbi.useHandle(handle -> insertIntoAccount(handle, 1L, "Joe", "USD",
+        new BigDecimal("10.01")));
+
+    var sharded = persistenceService.setBalanceSlots(1L, 4);
+
+    assertEquals(new BigDecimal("10.01"), sharded.orElseThrow().getBalance());
+    assertEquals(List.of(251L, 250L, 250L, 250L), selectSlotBalances(1L));
+    assertEquals(new BigDecimal("10.01"), persistenceService.getAccountById(1L).orElseThrow()
+        .getBalance());
+
+    persistenceService.setBalanceSlots(1L, 1);
+
+    assertTrue(selectSlotBalances(1L).isEmpty());
+    assertEquals(new BigDecimal("10.01"), selectFromAccount().get(0).getBalance());
+    assertTrue(persistenceService.setBalanceSlots(2L, 4).isEmpty());
+  }
+
+  @Test
+  void testPersistAccounts() {
+    var accounts = persistenceService.persistAccounts(List.of(
+        Account.newBuilder().balance(Money.zeroOf("USD")).owner("Mike").build(),
+        Account.newBuilder().balance(Money.parse("EUR", "5.00")).owner("Joe").build()));
+
+    assertEquals(List.of(1L, 2L), accounts.stream().map(Account::getId).collect(toList()));
+    assertEquals(new BigDecimal("5.00"), selectFromAccountMappedById().get(2L).getBalance());
+    assertTrue(persistenceService.persistAccounts(List.of()).isEmpty());
+  }
+
+  @Test
+  void testMakeTransfersWithBalanceSlots() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("10.00"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("5.00"));
+    });
+    persistenceService.setBalanceSlots(1L, 2);
+
+    var spread = persistenceService.makeTransfer(
+        newTransfer(1L, 2L, "USD", new BigDecimal("7.00")));
+    var insufficient = persistenceService.makeTransfer(
+        newTransfer(1L, 2L, "USD", new BigDecimal("4.00")));
+    var wrongCurrency = persistenceService.makeTransfer(
+        newTransfer(2L, 1L, "EUR", new BigDecimal("1.00")));
+    var batch = persistenceService.makeTransfers(List.of(
+        newTransfer(2L, 1L, "USD", new BigDecimal("2.00")),
+        newTransfer(1L, 2L, "USD", new BigDecimal("1.50"))));
+
+    assertTrue(spread.isSuccess());
+    assertEquals("Insufficient funds", insufficient.getThrowable().getMessage());
+    assertEquals("Invalid account id 1 or currency EUR",
+        wrongCurrency.getThrowable().getMessage());
+    assertTrue(batch.stream().allMatch(Try::isSuccess));
+    assertEquals(new BigDecimal("3.50"), persistenceService.getAccountById(1L).orElseThrow()
+        .getBalance());
+    assertEquals(350L, selectSlotBalances(1L).stream().mapToLong(Long::longValue).sum());
+    assertEquals(new BigDecimal("11.50"), selectFromAccountMappedById().get(2L).getBalance());
+  }
+
+  @Test
+  void testTransfersFromOneThreadSpreadOverSlots() {
+    when(clock.instant()).thenReturn(TIMESTAMP);
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("10.00"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("0.00"));
+    });
+    persistenceService.setBalanceSlots(2L, 4);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(persistenceService.makeTransfer(
+          newTransfer(1L, 2L, "USD", new BigDecimal("1.00"))).isSuccess());
+    }
+
+    assertEquals(List.of(100L, 100L, 100L, 100L), selectSlotBalances(2L));
+  }
+
+  @Test
+  void testBatchChecksFundsAgainstLockedSlots() {
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("10.00"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("5.00"));
+    });
+    persistenceService.setBalanceSlots(1L, 2);
+
+    var results = jdbi.inTransaction(handle -> {
+      var locked = AccountDao.withHandle(handle).getAccountsByIdForUpdate(List.of(1L, 2L));
+      assertEquals(new BigDecimal("10.00"), locked.get(1L).getBalance());
+      try (var other = jdbi.open()) {
+        other.execute("SET LOCK_TIMEOUT 100");
+        assertThrows(UnableToExecuteStatementException.class, () -> other.execute(
+            "UPDATE account_balance_slot SET balance = 0 WHERE account_id = 1 AND slot = 1"));
+      }
+      return JdbiPersistenceService.applyTransfers(handle, List.of(
+          newTransfer(1L, 2L, "USD", new BigDecimal("6.00")),
+          newTransfer(1L, 2L, "USD", new BigDecimal("6.00"))), TIMESTAMP);
+    });
+
+    assertTrue(results.get(0).isSuccess());
+    assertEquals("Insufficient funds", results.get(1).getThrowable().getMessage());
+    assertEquals(400L, selectSlotBalances(1L).stream().mapToLong(Long::longValue).sum());
+  }
+
+  @Test
+  void testGetDailyRollups() {
+    makeTransfersAroundMidnight();
+
+    assertEquals(List.of("2024-03-01 1.00 3.50 3", "2024-03-02 0.00 2.00 1"),
+        selectDailyRollups(1L));
+    assertEquals(List.of("2024-03-01 3.50 1.00 3", "2024-03-02 2.00 0.00 1"),
+        selectDailyRollups(2L));
+    assertTrue(persistenceService.getDailyRollups(1L, LocalDate.of(2024, 3, 3),
+        LocalDate.of(2024, 3, 31)).isEmpty());
+  }
+
+  @Test
+  void testBackfillDailyRollups() {
+    makeTransfersAroundMidnight();
+    jdbi.useHandle(handle -> handle.execute("DELETE FROM account_daily_rollup"));
+
+    long rebuilt = new DailyRollupBackfill(jdbi, 2, 1).run();
+
+    assertEquals(4, rebuilt);
+    assertEquals(List.of("2024-03-01 1.00 3.50 3", "2024-03-02 0.00 2.00 1"),
+        selectDailyRollups(1L));
+    assertEquals(List.of("2024-03-01 3.50 1.00 3", "2024-03-02 2.00 0.00 1"),
+        selectDailyRollups(2L));
+  }
+
+  @Test
+  void testGetAccountBalanceAt() {
+    makeTransfersAroundMidnight();
+
+    assertEquals(List.of("10.00", "7.00", "7.50", "5.50"), selectBalancesAroundMidnight(1L));
+    assertEquals(List.of("5.00", "8.00", "7.50", "9.50"), selectBalancesAroundMidnight(2L));
+    assertTrue(persistenceService.getAccountBalanceAt(3L, Instant.parse("2024-03-02T00:00:00Z"))
+        .isEmpty());
+  }
+
+  @Test
+  void testGetAccountBalanceAtFromCheckpoints() throws InterruptedException {
+    makeTransfersAroundMidnight();
+
+    try (var checkpointer = new BalanceCheckpointer(jdbi, TransferArchive.none(),
+        Clock.fixed(Instant.parse("2024-03-02T00:00:30Z"), ZoneOffset.UTC),
+        Duration.ofSeconds(30), 2)) {
+      assertEquals(2, checkpointer.run());
+      assertEquals(0, checkpointer.run());
+      assertEquals(2, checkpointer.getCheckpointCount());
+    }
+
+    assertEquals(List.of("1970-01-01T00:00:00Z 1000", "2024-03-02T00:00:00Z 750"),
+        selectCheckpoints(1L));
+    assertEquals(List.of("10.00", "7.00", "7.50", "5.50"), selectBalancesAroundMidnight(1L));
+    assertEquals(List.of("5.00", "8.00", "7.50", "9.50"), selectBalancesAroundMidnight(2L));
+  }
+
+  @Test
+  void testBalanceCheckpointerOnlyVisitsAccountsWithNewTransfers()
+      throws InterruptedException {
+    makeTransfersAroundMidnight();
+    jdbi.useHandle(handle -> insertIntoAccount(handle, 3L, "John", "USD", BigDecimal.ZERO));
+    var checkpointClock = mock(Clock.class);
+    when(checkpointClock.instant()).thenReturn(Instant.parse("2024-03-02T00:01:30Z"),
+        Instant.parse("2024-03-02T00:03:00Z"));
+
+    try (var checkpointer = new BalanceCheckpointer(jdbi, TransferArchive.none(),
+        checkpointClock, Duration.ofSeconds(30), 1)) {
+      assertEquals(2, checkpointer.run());
+      when(clock.instant()).thenReturn(Instant.parse("2024-03-02T00:02:00Z"));
+      persistenceService.makeTransfer(newTransfer(1L, 3L, "USD", new BigDecimal("1.00")));
+      // due again, but without a transfer since the previous run
+      jdbi.useHandle(handle -> handle.execute("DELETE FROM balance_checkpoint "
+          + "WHERE account_id = 2 AND as_of > ?", Instant.EPOCH));
+      assertEquals(2, checkpointer.run());
+    }
+
+    assertEquals(List.of("1970-01-01T00:00:00Z 1000", "2024-03-02T00:01:00Z 550",
+        "2024-03-02T00:02:30Z 450"), selectCheckpoints(1L));
+    assertEquals(List.of("1970-01-01T00:00:00Z 500"), selectCheckpoints(2L));
+    assertEquals(List.of("1970-01-01T00:00:00Z 0", "2024-03-02T00:02:30Z 100"),
+        selectCheckpoints(3L));
+  }
+
+  @Test
+  void testArchiveTransfers() throws InterruptedException, IOException {
+    makeTransfersAroundMidnight();
+    var archive = TransferArchive.open(tempDir);
+    persistenceService = new JdbiPersistenceService(jdbi, clock, new PersistenceStats(),
+        TransactionIsolationLevel.READ_COMMITTED, archive);
+
+    try (var archiver = new TransferArchiver(jdbi, archive,
+        Clock.fixed(Instant.parse("2024-03-02T00:00:30Z"), ZoneOffset.UTC),
+        Duration.ofSeconds(30), 2)) {
+      assertEquals(3, archiver.run());
+      assertEquals(0, archiver.run());
+    }
+
+    assertEquals(3L, archive.maxTransferId());
+    assertEquals(List.of(4L), transferIdsOf(selectFromTransfer()));
+    assertEquals(List.of(1L, 2L, 3L, 4L), transferIdsOf(
+        persistenceService.getTransfersByAccountId(1L)));
+    assertEquals(List.of(2L, 3L), transferIdsOf(
+        persistenceService.getTransfersByAccountId(1L, 1L, 2)));
+    assertEquals(List.of(3L, 4L), transferIdsOf(
+        persistenceService.getTransfersByAccountId(2L, 2L, 5)));
+    assertEquals(new BigDecimal("0.50"), persistenceService.getTransferByIdAndAccountId(3L, 2L)
+        .orElseThrow().getAmount());
+    assertTrue(persistenceService.getTransferByIdAndAccountId(3L, 3L).isEmpty());
+    assertEquals(List.of("10.00", "7.00", "7.50", "5.50"), selectBalancesAroundMidnight(1L));
+    assertEquals(List.of("2024-03-01 1.00 3.50 3", "2024-03-02 0.00 2.00 1"),
+        selectDailyRollups(1L));
+    assertEquals(List.of(1L, 2L, 3L, 4L), exportTransferIds(0L, Instant.EPOCH));
+    assertEquals(List.of(3L, 4L), exportTransferIds(2L, Instant.EPOCH));
+    assertEquals(List.of(2L, 3L, 4L), exportTransferIds(0L,
+        Instant.parse("2024-03-01T23:59:30Z")));
+    assertEquals(List.of(4L), exportTransferIds(0L, Instant.parse("2024-03-02T00:00:00Z")));
+    assertEquals(List.of(1L), exportTransferIds(0L, Instant.EPOCH,
+        Instant.parse("2024-03-01T23:59:00Z")));
+    assertEquals(List.of(2L, 3L), exportTransferIds(1L, Instant.EPOCH,
+        Instant.parse("2024-03-02T00:00:00Z")));
+
+    jdbi.useHandle(handle -> handle.execute("DELETE FROM account_daily_rollup"));
+    assertEquals(2, new DailyRollupBackfill(jdbi, archive, 1, 10).run());
+    assertEquals(List.of("2024-03-02 0.00 2.00 1"), selectDailyRollups(1L));
+  }
+
+  @Test
+  void testArchivedTransfersNotYetRemovedAreReadOnce() throws IOException {
+    makeTransfersAroundMidnight();
+    var archive = TransferArchive.open(tempDir);
+    persistenceService = new JdbiPersistenceService(jdbi, clock, new PersistenceStats(),
+        TransactionIsolationLevel.READ_COMMITTED, archive);
+
+    archive.append(selectFromTransfer().stream()
+        .filter(transfer -> transfer.getId() <= 3L)
+        .sorted(Comparator.comparingLong(Transfer::getId))
+        .collect(toList()));
+
+    var streamed = new ArrayList<Transfer>();
+    persistenceService.forEachTransferByAccountId(1L, streamed::add);
+    assertEquals(List.of(1L, 2L, 3L, 4L), transferIdsOf(streamed));
+    assertEquals(List.of(1L, 2L, 3L, 4L), transferIdsOf(
+        persistenceService.getTransfersByAccountId(1L)));
+    assertEquals(List.of("10.00", "7.00", "7.50", "5.50"), selectBalancesAroundMidnight(1L));
+    assertEquals(List.of(1L, 2L, 3L, 4L), exportTransferIds(0L, Instant.EPOCH));
+  }
+
+  private List<Long> exportTransferIds(long afterTransferId, Instant since) {
+    return exportTransferIds(afterTransferId, since, Instant.MAX);
+  }
+
+  private List<Long> exportTransferIds(long afterTransferId, Instant since, Instant until) {
+    var transfers = new ArrayList<Transfer>();
+    persistenceService.forEachTransfer(afterTransferId, since, until, transfers::add);
+    return transferIdsOf(transfers);
+  }
+
+  private static List<Long> transferIdsOf(List<Transfer> transfers) {
+    return transfers.stream()
+        .map(Transfer::getId)
+        .collect(toList());
+  }
+
+  private List<String> selectBalancesAroundMidnight(long accountId) {
+    return List.of("2024-03-01T23:58:00Z", "2024-03-01T23:59:00Z", "2024-03-02T00:00:00Z",
+        "2024-03-02T00:05:00Z")
+        .stream()
+        .map(at -> persistenceService.getAccountBalanceAt(accountId, Instant.parse(at))
+            .orElseThrow()
+            .getBalance()
+            .toPlainString())
+        .collect(toList());
+  }
+
+  private static List<String> selectCheckpoints(long accountId) {
+    return jdbi.withHandle(handle -> handle
+        .select("SELECT as_of, balance FROM balance_checkpoint WHERE account_id = ? "
+            + "ORDER BY as_of", accountId)
+        .map((rs, ctx) -> rs.getTimestamp("as_of").toInstant() + " " + rs.getLong("balance"))
+        .list());
+  }
+
+  private void makeTransfersAroundMidnight() {
+    when(clock.instant()).thenReturn(Instant.parse("2024-03-01T23:59:00Z"),
+        Instant.parse("2024-03-01T23:59:30Z"), Instant.parse("2024-03-02T00:01:00Z"));
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("10.00"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("5.00"));
+    });
+    persistenceService.setBalanceSlots(2L, 2);
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("3.00")));
+    persistenceService.makeTransfers(List.of(
+        newTransfer(2L, 1L, "USD", new BigDecimal("1.00")),
+        newTransfer(1L, 2L, "USD", new BigDecimal("0.50"))));
+    persistenceService.makeTransfer(newTransfer(1L, 2L, "USD", new BigDecimal("2.00")));
+  }
+
+  private List<String> selectDailyRollups(long accountId) {
+    return persistenceService.getDailyRollups(accountId, LocalDate.of(2024, 3, 1),
+        LocalDate.of(2024, 3, 2))
+        .stream()
+        .map(rollup -> rollup.getDate() + " " + rollup.getInflow() + " " + rollup.getOutflow()
+            + " " + rollup.getTransferCount())
+        .collect(toList());
+  }
+
+  private static List<Long> selectSlotBalances(long accountId) {
+    return jdbi.withHandle(handle -> handle
+        .select("SELECT balance FROM account_balance_slot WHERE account_id = ? ORDER BY slot",
+            accountId)
+        .mapTo(Long.class)
+        .list());
+  }
+
+  private static Transfer newTransfer(long from, long to, String currency, BigDecimal amount) {
+    return Transfer.newBuilder()
+        .fromAccountId(from)
+        .toAccountId(to)
+        .amount(Money.of(currency, amount))
+        .build();
+  }
+
   @Test
   void testGetTransfersByAccountId() {
     jdbi.useTransaction(handle -> {
@@ -279,6 +676,34 @@ class JdbiPersistenceServiceTest {
     assertEquals(2, steveTransfers.size());
   }
 
+  @Test
+  void testGetTransfersByAccountIdPaginated() {
+    jdbi.useTransaction(handle -> {
+      insertIntoAccount(handle, 1L, "Joe", "USD", new BigDecimal("100.21"));
+      insertIntoAccount(handle, 2L, "Steve", "USD", new BigDecimal("35.17"));
+      insertIntoAccount(handle, 3L, "John", "USD", new BigDecimal("45.18"));
+      insertIntoTransfer(handle, 1L, 1L, 2L, "USD", new BigDecimal("10.00"));
+      insertIntoTransfer(handle, 2L, 1L, 3L, "USD", new BigDecimal("15.00"));
+      insertIntoTransfer(handle, 3L, 3L, 2L, "USD", new BigDecimal("30.00"));
+      insertIntoTransfer(handle, 4L, 2L, 1L, "USD", new BigDecimal("5.00"));
+    });
+
+    List<Transfer> firstPage = persistenceService.getTransfersByAccountId(2L, 0L, 2);
+    List<Transfer> secondPage = persistenceService.getTransfersByAccountId(2L, 3L, 2);
+    var streamed = new ArrayList<Transfer>();
+    persistenceService.forEachTransferByAccountId(1L, streamed::add);
+
+    assertEquals(List.of(1L, 3L), idsOf(firstPage));
+    assertEquals(List.of(4L), idsOf(secondPage));
+    assertEquals(List.of(1L, 2L, 4L), idsOf(streamed));
+  }
+
+  private static List<Long> idsOf(List<Transfer> transfers) {
+    return transfers.stream()
+        .map(Transfer::getId)
+        .collect(toList());
+  }
+
   @Test
   void testGetTransferByIdAndAccountId() {
     jdbi.useTransaction(handle -> {
@@ -328,8 +753,11 @@ class JdbiPersistenceServiceTest {
   }
 
   private static void insertIntoTransfer(Handle handle, long id, long from, long to,
-      String currency, BigDecimal amount) {
+      String currency, BigDecimal value) {
+    long amount = Money.of(currency, value).getMinorUnits();
     handle.execute("INSERT INTO transfer (id, from_account, to_account, currency, amount, timestamp) VALUES (?, ?, ?, ?, ?, ?)",
         id, from, to, currency, amount, JdbiPersistenceServiceTest.TIMESTAMP);
+    handle.execute("INSERT INTO ledger_entry (account_id, transfer_id, amount) VALUES (?, ?, ?), (?, ?, ?)",
+        from, id, -amount, to, id, amount);
   }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JdbiPersistenceService#makeTransfer(Transfer)} throughput against in-memory H2
+ * behind a default DBCP pool, as configured by {@link Persistence}. Accounts are drawn either
+ * uniformly or from a Zipfian distribution, where a handful of hot accounts take part in most
+ * transfers and row lock contention dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JdbiTransferBenchmark {
+
+  private static final int ACCOUNTS = 10_000;
+  private static final double ZIPF_EXPONENT = 0.99;
+
+  @Param({"uniform", "zipfian"})
+  public String distribution;
+
+  private BasicDataSource dataSource;
+  private JdbiPersistenceService persistenceService;
+  private double[] zipfCumulativeProbabilities;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    dataSource = new BasicDataSource();
+    dataSource.setDriverClassName("org.h2.Driver");
+    dataSource.setUrl("jdbc:h2:mem:transferBench;DB_CLOSE_DELAY=-1");
+    dataSource.setUsername("sa");
+    dataSource.setPassword("");
+    var jdbi = Jdbi.create(dataSource);
+    jdbi.installPlugin(new H2DatabasePlugin());
+    jdbi.useHandle(handle -> {
+      new DbSchemaBootstrap().accept(handle);
+      insertAccounts(handle);
+    });
+    persistenceService = new JdbiPersistenceService(jdbi, Clock.systemUTC());
+    zipfCumulativeProbabilities = zipfCumulativeProbabilities();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    dataSource.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Try<Transfer> makeTransfer1Thread() {
+    return makeTransfer();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Try<Transfer> makeTransfer8Threads() {
+    return makeTransfer();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Try<Transfer> makeTransfer64Threads() {
+    return makeTransfer();
+  }
+
+  private Try<Transfer> makeTransfer() {
+    long from = nextAccountId();
+    long to = nextAccountId();
+    while (to == from) {
+      to = nextAccountId();
+    }
+    return persistenceService.makeTransfer(Transfer.newBuilder()
+        .fromAccountId(from)
+        .toAccountId(to)
+        .amount(Money.ofMinorUnits("USD", 1L))
+        .build());
+  }
+
+  private long nextAccountId() {
+    var random = ThreadLocalRandom.current();
+    if ("uniform".equals(distribution)) {
+      return 1 + random.nextInt(ACCOUNTS);
+    }
+    int rank = Arrays.binarySearch(zipfCumulativeProbabilities, random.nextDouble());
+    return 1 + (rank >= 0 ? rank : Math.min(ACCOUNTS - 1, -rank - 1));
+  }
+
+  private static double[] zipfCumulativeProbabilities() {
+    var probabilities = new double[ACCOUNTS];
+    double sum = 0;
+    for (int rank = 0; rank < ACCOUNTS; rank++) {
+      sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+      probabilities[rank] = sum;
+    }
+    for (int rank = 0; rank < ACCOUNTS; rank++) {
+      probabilities[rank] /= sum;
+    }
+    return probabilities;
+  }
+
+  private static void insertAccounts(Handle handle) {
+    var batch = handle.prepareBatch(
+        "INSERT INTO account (id, owner, currency, balance) VALUES (?, ?, ?, ?)");
+    for (long id = 1; id <= ACCOUNTS; id++) {
+      batch.add(id, "owner" + id, "USD", 1_000_000_000L);
+    }
+    batch.execute();
+  }
+}
@@ -0,0 +1,121 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Transfer;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.h2.H2DatabasePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures history page reads and point lookups against transfer tables of growing size. With
+ * lookups going through the {@code ledger_entry} primary key the latency should stay flat as the
+ * table grows. The sending account of every transfer is derived from its id, so point lookups
+ * always ask for a transfer together with an account it belongs to.
+ *
+ * <p>Reaching 10^8 transfers needs a file-backed URL and a few GB of disk, e.g.
+ * {@code -p transfers=100000000 -p url=jdbc:h2:/tmp/ledgerBench}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedgerEntryLookupBenchmark {
+
+  private static final int ACCOUNTS = 10_000;
+  private static final int INSERT_BATCH_SIZE = 10_000;
+
+  @Param({"10000", "100000", "1000000"})
+  public long transfers;
+
+  @Param("jdbc:h2:mem:ledgerBench;DB_CLOSE_DELAY=-1")
+  public String url;
+
+  private JdbiPersistenceService persistenceService;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    var jdbi = Jdbi.create(url, "sa", "");
+    jdbi.installPlugin(new H2DatabasePlugin());
+    jdbi.useHandle(handle -> {
+      handle.execute("DROP ALL OBJECTS");
+      new DbSchemaBootstrap().accept(handle);
+      insertAccounts(handle);
+      insertTransfers(handle, transfers);
+    });
+    persistenceService = new JdbiPersistenceService(jdbi, Clock.systemUTC());
+  }
+
+  @Benchmark
+  public List<Transfer> pageRead() {
+    return persistenceService.getTransfersByAccountId(
+        1 + ThreadLocalRandom.current().nextInt(ACCOUNTS), 0L, 20);
+  }
+
+  @Benchmark
+  public Optional<Transfer> pointRead() {
+    var random = ThreadLocalRandom.current();
+    long transferId = 1 + random.nextLong(transfers);
+    long accountId = random.nextBoolean()
+        ? fromAccountOf(transferId)
+        : toAccountOf(transferId);
+    return persistenceService.getTransferByIdAndAccountId(transferId, accountId);
+  }
+
+  private static long fromAccountOf(long transferId) {
+    long hash = transferId * 0x9E3779B97F4A7C15L;
+    return 1 + Math.floorMod(hash ^ (hash >>> 32), ACCOUNTS);
+  }
+
+  private static long toAccountOf(long transferId) {
+    return fromAccountOf(transferId) % ACCOUNTS + 1;
+  }
+
+  private static void insertAccounts(Handle handle) {
+    var batch = handle.prepareBatch(
+        "INSERT INTO account (id, owner, currency, balance) VALUES (?, ?, ?, ?)");
+    for (long id = 1; id <= ACCOUNTS; id++) {
+      batch.add(id, "owner" + id, "USD", 100_000_000L);
+    }
+    batch.execute();
+  }
+
+  private static void insertTransfers(Handle handle, long transfers) {
+    long amount = 100L;
+    var timestamp = Instant.now();
+    for (long start = 1; start <= transfers; start += INSERT_BATCH_SIZE) {
+      long end = Math.min(transfers, start + INSERT_BATCH_SIZE - 1);
+      var transferBatch = handle.prepareBatch("INSERT INTO transfer"
+          + " (id, from_account, to_account, currency, amount, timestamp)"
+          + " VALUES (?, ?, ?, ?, ?, ?)");
+      var entryBatch = handle.prepareBatch(
+          "INSERT INTO ledger_entry (account_id, transfer_id, amount) VALUES (?, ?, ?)");
+      for (long id = start; id <= end; id++) {
+        long from = fromAccountOf(id);
+        long to = toAccountOf(id);
+        transferBatch.add(id, from, to, "USD", amount, timestamp);
+        entryBatch.add(from, id, -amount).add(to, id, amount);
+      }
+      transferBatch.execute();
+      entryBatch.execute();
+    }
+  }
+}
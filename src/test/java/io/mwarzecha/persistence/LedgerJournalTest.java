@@ -0,0 +1,142 @@
+package io.mwarzecha.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LedgerJournalTest {
+
+  private static final int REGION_SIZE = 4096;
+  private static final Instant TIMESTAMP = Instant.ofEpochSecond(123123L, 456L);
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testReplayAcrossRegions() throws IOException {
+    var path = tempDir.resolve("ledger.journal");
+    try (var journal = LedgerJournal.open(path, REGION_SIZE)) {
+      journal.replay(account -> {}, transfer -> {});
+      journal.appendAccount(newAccount(1L));
+      long sequence = 0;
+      for (int i = 1; i <= 500; i++) {
+        sequence = journal.appendTransfer(newTransfer(i));
+      }
+      journal.sync(sequence);
+    }
+
+    var accounts = new ArrayList<Account>();
+    var transfers = new ArrayList<Transfer>();
+    try (var journal = LedgerJournal.open(path, REGION_SIZE)) {
+      journal.replay(accounts::add, transfers::add);
+      assertEquals(501L, journal.durableSequence());
+    }
+
+    assertEquals(1, accounts.size());
+    assertEquals("Joe", accounts.get(0).getOwner());
+    assertEquals(500, transfers.size());
+    assertEquals(500L, transfers.get(499).getId());
+    assertEquals(1500L, transfers.get(499).getAmountMinorUnits());
+    assertEquals(TIMESTAMP, transfers.get(499).getTimestamp());
+    assertTrue(Files.size(path) > REGION_SIZE);
+  }
+
+  @Test
+  void testReplayStopsAtCorruptRecordAndAppendsAfterLastGoodOne() throws IOException {
+    var path = tempDir.resolve("ledger.journal");
+    try (var journal = LedgerJournal.open(path, REGION_SIZE)) {
+      journal.replay(account -> {}, transfer -> {});
+      journal.appendTransfer(newTransfer(1L));
+      journal.sync(journal.appendTransfer(newTransfer(2L)));
+    }
+    try (var file = new RandomAccessFile(path.toFile(), "rw")) {
+      // flip a byte inside the payload of the second record
+      file.seek(Long.BYTES + 2 * recordSize() - 1);
+      file.write(0x7F);
+    }
+
+    try (var journal = LedgerJournal.open(path, REGION_SIZE)) {
+      var transfers = replayTransfers(journal);
+      assertEquals(List.of(1L), ids(transfers));
+      journal.sync(journal.appendTransfer(newTransfer(3L)));
+    }
+    try (var journal = LedgerJournal.open(path, REGION_SIZE)) {
+      assertEquals(List.of(1L, 3L), ids(replayTransfers(journal)));
+    }
+  }
+
+  @Test
+  void testCursorOnlySeesDurableRecords() throws IOException {
+    try (var journal = LedgerJournal.open(tempDir.resolve("ledger.journal"), REGION_SIZE)) {
+      journal.replay(account -> {}, transfer -> {});
+      var cursor = journal.cursor();
+      var transfers = new ArrayList<Transfer>();
+      journal.appendTransfer(newTransfer(1L));
+      long second = journal.appendTransfer(newTransfer(2L));
+
+      assertEquals(0, cursor.poll(10, account -> {}, transfers::add));
+
+      journal.sync(second);
+
+      assertEquals(1, cursor.poll(1, account -> {}, transfers::add));
+      assertEquals(1, cursor.poll(10, account -> {}, transfers::add));
+      assertEquals(2L, cursor.sequence());
+      assertEquals(List.of(1L, 2L), ids(transfers));
+    }
+  }
+
+  @Test
+  void testOpenRejectsUnknownFormat() throws IOException {
+    var path = tempDir.resolve("ledger.journal");
+    Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+    assertThrows(IOException.class, () -> LedgerJournal.open(path, REGION_SIZE));
+  }
+
+  private static List<Transfer> replayTransfers(LedgerJournal journal) throws IOException {
+    var transfers = new ArrayList<Transfer>();
+    journal.replay(account -> {}, transfers::add);
+    return transfers;
+  }
+
+  private static List<Long> ids(List<Transfer> transfers) {
+    var ids = new ArrayList<Long>();
+    transfers.forEach(transfer -> ids.add(transfer.getId()));
+    return ids;
+  }
+
+  private static int recordSize() {
+    return Integer.BYTES + Byte.BYTES + Integer.BYTES + 5 * Long.BYTES + 3 + Integer.BYTES;
+  }
+
+  private static Account newAccount(long id) {
+    return Account.newBuilder()
+        .id(id)
+        .owner("Joe")
+        .balance(Money.ofMinorUnits("USD", 10_000L))
+        .build();
+  }
+
+  private static Transfer newTransfer(long id) {
+    return Transfer.newBuilder()
+        .id(id)
+        .fromAccountId(1L)
+        .toAccountId(2L)
+        .amount(Money.ofMinorUnits("USD", 1000L + id))
+        .timestamp(TIMESTAMP)
+        .build();
+  }
+}
@@ -0,0 +1,50 @@
+package io.mwarzecha.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LimitingConnectionFactoryTest {
+
+  @Mock
+  private DataSource dataSource;
+  @Mock
+  private Connection connection;
+
+  @Test
+  void testWaitsForReleasedConnection() throws SQLException {
+    when(dataSource.getConnection()).thenReturn(connection);
+    var connectionFactory = new LimitingConnectionFactory(dataSource, 1, 10);
+
+    var first = connectionFactory.openConnection();
+
+    assertThrows(SQLTransientConnectionException.class, connectionFactory::openConnection);
+
+    connectionFactory.closeConnection(first);
+
+    verify(connection).close();
+    assertSame(connection, connectionFactory.openConnection());
+  }
+
+  @Test
+  void testPermitIsReleasedWhenPoolFails() throws SQLException {
+    when(dataSource.getConnection()).thenThrow(new SQLException("pool exhausted"))
+        .thenReturn(connection);
+    var connectionFactory = new LimitingConnectionFactory(dataSource, 1, 10);
+
+    assertThrows(SQLException.class, connectionFactory::openConnection);
+
+    assertSame(connection, connectionFactory.openConnection());
+  }
+}
@@ -0,0 +1,74 @@
+package io.mwarzecha.persistence;
+
+import io.mwarzecha.model.Account;
+import io.mwarzecha.model.Transfer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mapping one row with {@link AccountRowMapper} and {@link TransferRowMapper}. Rows come
+ * from H2's in-memory {@link SimpleResultSet}, so columns are still looked up by name and
+ * converted the way a driver result set would, without any query cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+
+  private final AccountRowMapper accountRowMapper = new AccountRowMapper();
+  private final TransferRowMapper transferRowMapper = new TransferRowMapper();
+  private SimpleResultSet accountRow;
+  private SimpleResultSet transferRow;
+
+  @Setup
+  public void setUp() {
+    accountRow = new SimpleResultSet();
+    accountRow.setAutoClose(false);
+    accountRow.addColumn("id", Types.BIGINT, 19, 0);
+    accountRow.addColumn("owner", Types.VARCHAR, 255, 0);
+    accountRow.addColumn("currency", Types.VARCHAR, 3, 0);
+    accountRow.addColumn("balance", Types.BIGINT, 19, 0);
+    accountRow.addRow(42L, "Joe", "USD", 123_45L);
+
+    transferRow = new SimpleResultSet();
+    transferRow.setAutoClose(false);
+    transferRow.addColumn("id", Types.BIGINT, 19, 0);
+    transferRow.addColumn("from_account", Types.BIGINT, 19, 0);
+    transferRow.addColumn("to_account", Types.BIGINT, 19, 0);
+    transferRow.addColumn("currency", Types.VARCHAR, 3, 0);
+    transferRow.addColumn("amount", Types.BIGINT, 19, 0);
+    transferRow.addColumn("timestamp", Types.TIMESTAMP, 26, 6);
+    transferRow.addRow(7L, 1L, 2L, "USD", 10_12L, Timestamp.from(Instant.now()));
+  }
+
+  @Benchmark
+  public Account mapAccount() throws SQLException {
+    accountRow.beforeFirst();
+    accountRow.next();
+    return accountRowMapper.map(accountRow, null);
+  }
+
+  @Benchmark
+  public Transfer mapTransfer() throws SQLException {
+    transferRow.beforeFirst();
+    transferRow.next();
+    return transferRowMapper.map(transferRow, null);
+  }
+}
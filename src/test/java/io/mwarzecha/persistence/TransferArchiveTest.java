@@ -0,0 +1,125 @@
+package io.mwarzecha.persistence;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TransferArchiveTest {
+
+  private static final Instant TIMESTAMP = Instant.parse("2024-03-01T12:00:00.123456789Z");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testSegmentRoundTrip() throws IOException {
+    var path = tempDir.resolve("segment.seg");
+    var transfers = List.of(
+        newTransfer(1_000_000_000L, 7L, 1L << 40, "USD", Long.MAX_VALUE, TIMESTAMP),
+        newTransfer(1_000_000_003L, 1L << 40, 7L, "EUR", 1L, TIMESTAMP.minusSeconds(90)),
+        newTransfer(1_000_000_004L, 9L, 7L, "USD", 250L, TIMESTAMP.plusNanos(1)));
+
+    TransferSegment.write(path, transfers);
+    var segment = TransferSegment.open(path);
+
+    assertEquals(1_000_000_000L, segment.getMinTransferId());
+    assertEquals(1_000_000_004L, segment.getMaxTransferId());
+    assertEquals(TIMESTAMP.plusNanos(1), segment.getMaxTimestamp());
+    assertEquals(transfers.stream().map(TransferArchiveTest::describe).collect(toList()),
+        transfersOf(segment, 7L).stream().map(TransferArchiveTest::describe).collect(toList()));
+    assertEquals(List.of(1_000_000_004L), transfersOf(segment, 9L).stream()
+        .map(Transfer::getId)
+        .collect(toList()));
+    assertTrue(transfersOf(segment, 8L).isEmpty());
+    assertTrue(segment.mayContainAccount(7L) && segment.mayContainAccount(9L));
+    assertTrue(!segment.mayContainAccount(6L) && !segment.mayContainAccount((1L << 40) + 1));
+    assertTrue(segment.mayContainTimestamps(TIMESTAMP.minusSeconds(100),
+        TIMESTAMP.minusSeconds(90)));
+    assertTrue(!segment.mayContainTimestamps(TIMESTAMP.plusNanos(1), Instant.MAX));
+  }
+
+  @Test
+  void testArchiveReadsAcrossSegments() throws IOException {
+    var archive = TransferArchive.open(tempDir);
+    archive.append(transfersFrom(1L, 100L));
+    archive.append(transfersFrom(101L, 250L));
+
+    var reopened = TransferArchive.open(tempDir);
+
+    assertEquals(250L, reopened.maxTransferId());
+    assertEquals(List.of(99L, 101L, 103L), reopened.getTransfersByAccountId(1L, 97L, 3).stream()
+        .map(Transfer::getId)
+        .collect(toList()));
+    assertEquals(125, reopened.getTransfersByAccountId(1L, 0L, Integer.MAX_VALUE).size());
+    assertEquals(202L, reopened.getTransferByIdAndAccountId(202L, 2L).orElseThrow().getId());
+    assertTrue(reopened.getTransferByIdAndAccountId(202L, 1L).isEmpty());
+    assertTrue(reopened.getTransferByIdAndAccountId(251L, 2L).isEmpty());
+    var inWindow = new ArrayList<Long>();
+    reopened.forEachTransferByAccountId(2L, TIMESTAMP.plusSeconds(240),
+        TIMESTAMP.plusSeconds(244), transfer -> inWindow.add(transfer.getId()));
+    assertEquals(List.of(242L, 244L), inWindow);
+  }
+
+  @Test
+  void testSegmentFiltersAccounts() throws IOException {
+    var path = tempDir.resolve("segment.seg");
+    var transfers = LongStream.rangeClosed(1L, 1000L)
+        .mapToObj(id -> newTransfer(id, 2 * id, 2 * id + 2000, "USD", id, TIMESTAMP))
+        .collect(toList());
+
+    TransferSegment.write(path, transfers);
+    var segment = TransferSegment.open(path);
+
+    assertTrue(LongStream.rangeClosed(1L, 1000L).allMatch(id ->
+        segment.mayContainAccount(2 * id) && segment.mayContainAccount(2 * id + 2000)));
+    long falsePositives = LongStream.rangeClosed(1L, 2000L)
+        .filter(id -> segment.mayContainAccount(2 * id + 1))
+        .count();
+    assertTrue(falsePositives < 60, falsePositives + " false positives");
+  }
+
+  private static List<Transfer> transfersOf(TransferSegment segment, long accountId) {
+    var transfers = new ArrayList<Transfer>();
+    segment.forEachTransferByAccountId(accountId, transfers::add);
+    return transfers;
+  }
+
+  /**
+   * Transfers with the given ids, odd ones from account 1 and even ones from account 2 to
+   * account 3, one second apart.
+   */
+  private static List<Transfer> transfersFrom(long fromId, long toId) {
+    return LongStream.rangeClosed(fromId, toId)
+        .mapToObj(id -> newTransfer(id, 2L - id % 2, 3L, "USD", id,
+            TIMESTAMP.plusSeconds(id)))
+        .collect(toList());
+  }
+
+  private static Transfer newTransfer(long id, long fromAccountId, long toAccountId,
+      String currency, long amount, Instant timestamp) {
+    return Transfer.newBuilder()
+        .id(id)
+        .fromAccountId(fromAccountId)
+        .toAccountId(toAccountId)
+        .amount(Money.ofMinorUnits(currency, amount))
+        .timestamp(timestamp)
+        .build();
+  }
+
+  private static String describe(Transfer transfer) {
+    return transfer.getId() + " " + transfer.getFromAccountId() + " " + transfer.getToAccountId()
+        + " " + transfer.getAmountMinorUnits() + " " + transfer.getCurrency() + " "
+        + transfer.getTimestamp();
+  }
+}
@@ -2,16 +2,15 @@ package io.mwarzecha.rest;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import io.mwarzecha.json.AccountSerde;
 import io.mwarzecha.json.TransferSerde;
 import io.mwarzecha.model.Account;
 import io.mwarzecha.model.Transfer;
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.time.Instant;
 
 class GsonFactory {
@@ -23,43 +22,45 @@ class GsonFactory {
         .create();
   }
 
-  private static class AccountWithIdSerde extends AccountSerde {
+  private static class AccountWithIdSerde extends TypeAdapter<Account> {
+
+    private final AccountSerde accountSerde = new AccountSerde();
 
     @Override
-    public JsonElement serialize(Account account, Type type, JsonSerializationContext ctx) {
-      var jsonObject = new JsonObject();
-      jsonObject.addProperty("owner", account.getOwner());
-      jsonObject.addProperty("balance", account.getBalance().toPlainString());
-      jsonObject.addProperty("currency", account.getCurrency());
-      return jsonObject;
+    public void write(JsonWriter out, Account account) throws IOException {
+      out.beginObject();
+      out.name("owner").value(account.getOwner());
+      out.name("balance").value(account.getBalance().toPlainString());
+      out.name("currency").value(account.getCurrency());
+      out.endObject();
     }
 
     @Override
-    public Account deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext ctx)
-        throws JsonParseException {
-      var jsonObject = jsonElement.getAsJsonObject();
-      return super.deserialize(jsonElement, type, ctx)
+    public Account read(JsonReader in) throws IOException {
+      var jsonObject = TypeAdapters.JSON_ELEMENT.read(in).getAsJsonObject();
+      return accountSerde.fromJsonTree(jsonObject)
           .withId(jsonObject.get("id").getAsLong());
     }
   }
 
-  private static class TransferWithIdAndTimestampSerde extends TransferSerde {
+  private static class TransferWithIdAndTimestampSerde extends TypeAdapter<Transfer> {
+
+    private final TransferSerde transferSerde = new TransferSerde();
 
     @Override
-    public JsonElement serialize(Transfer transfer, Type type, JsonSerializationContext ctx) {
-      var jsonObject = new JsonObject();
-      jsonObject.addProperty("from_account", transfer.getFromAccountId());
-      jsonObject.addProperty("to_account", transfer.getToAccountId());
-      jsonObject.addProperty("amount", transfer.getAmount().toPlainString());
-      jsonObject.addProperty("currency", transfer.getCurrency());
-      return jsonObject;
+    public void write(JsonWriter out, Transfer transfer) throws IOException {
+      out.beginObject();
+      out.name("from_account").value(transfer.getFromAccountId());
+      out.name("to_account").value(transfer.getToAccountId());
+      out.name("amount").value(transfer.getAmount().toPlainString());
+      out.name("currency").value(transfer.getCurrency());
+      out.endObject();
     }
 
     @Override
-    public Transfer deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext ctx)
-        throws JsonParseException {
-      var jsonObject = jsonElement.getAsJsonObject();
-      return super.deserialize(jsonElement, type, ctx)
+    public Transfer read(JsonReader in) throws IOException {
+      var jsonObject = TypeAdapters.JSON_ELEMENT.read(in).getAsJsonObject();
+      return transferSerde.fromJsonTree(jsonObject)
           .withIdAndTimestamp(
               jsonObject.get("id").getAsLong(),
               Instant.parse(jsonObject.get("timestamp").getAsString()));
@@ -0,0 +1,109 @@
+package io.mwarzecha.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.util.Try;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class IdempotencyCacheTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final IdempotencyCache cache = new IdempotencyCache(Duration.ofSeconds(10), 100,
+      nanoTime::get);
+  private final AtomicInteger executions = new AtomicInteger();
+
+  @Test
+  void testCollapsesConcurrentRequestsWithTheSameKey() {
+    var pending = new CompletableFuture<Try<Transfer>>();
+
+    var first = cache.makeTransfer("key", newTransfer("4.00"), counted(t -> pending));
+    var second = cache.makeTransfer("key", newTransfer("4.00"), counted(t -> pending));
+
+    assertFalse(second.isDone());
+    pending.complete(Try.success(newTransfer("4.00").withIdAndTimestamp(7L, Instant.EPOCH)));
+    assertEquals(7L, first.join().getResult().getId());
+    assertSame(first.join(), second.join());
+    assertEquals(1, executions.get());
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  void testForgetsKeysAfterTtl() {
+    cache.makeTransfer("key", newTransfer("4.00"), counted(this::succeeded));
+    nanoTime.addAndGet(Duration.ofSeconds(9).toNanos());
+    cache.makeTransfer("key", newTransfer("4.00"), counted(this::succeeded));
+
+    assertEquals(1, executions.get());
+
+    nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+    cache.makeTransfer("key", newTransfer("4.00"), counted(this::succeeded));
+
+    assertEquals(2, executions.get());
+  }
+
+  @Test
+  void testForgetsKeysOfFailedTransfers() {
+    var failed = cache.makeTransfer("key", newTransfer("4.00"), counted(t ->
+        CompletableFuture.completedFuture(Try.failure(new IllegalStateException("failed")))));
+    var retried = cache.makeTransfer("key", newTransfer("4.00"), counted(this::succeeded));
+
+    assertTrue(failed.join().isFailure());
+    assertTrue(retried.join().isSuccess());
+    assertEquals(2, executions.get());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void testRejectsKeyReusedForDifferentTransfer() {
+    cache.makeTransfer("key", newTransfer("4.00"), counted(this::succeeded));
+
+    var reused = cache.makeTransfer("key", newTransfer("5.00"), counted(this::succeeded));
+
+    assertEquals("Idempotency key key was used for a different transfer",
+        reused.join().getThrowable().getMessage());
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  void testSweepsExpiredKeys() {
+    cache.makeTransfer("expired", newTransfer("4.00"), counted(this::succeeded));
+    nanoTime.addAndGet(Duration.ofSeconds(10).toNanos());
+
+    cache.makeTransfer("fresh", newTransfer("4.00"), counted(this::succeeded));
+
+    assertEquals(1, cache.size());
+  }
+
+  private Function<Transfer, CompletableFuture<Try<Transfer>>> counted(
+      Function<Transfer, CompletableFuture<Try<Transfer>>> execution) {
+    return transfer -> {
+      executions.incrementAndGet();
+      return execution.apply(transfer);
+    };
+  }
+
+  private CompletableFuture<Try<Transfer>> succeeded(Transfer transfer) {
+    return CompletableFuture.completedFuture(Try.success(
+        transfer.withIdAndTimestamp(executions.get(), Instant.EPOCH)));
+  }
+
+  private static Transfer newTransfer(String amount) {
+    return Transfer.newBuilder()
+        .fromAccountId(1L)
+        .toAccountId(2L)
+        .amount(Money.of("USD", new BigDecimal(amount)))
+        .build();
+  }
+}
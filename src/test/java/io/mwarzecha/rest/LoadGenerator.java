@@ -0,0 +1,288 @@
+package io.mwarzecha.rest;
+
+import com.google.gson.JsonParser;
+import io.mwarzecha.config.Config;
+import io.mwarzecha.metrics.MetricsRegistry;
+import io.mwarzecha.persistence.Persistence;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Open-loop HTTP load generator for the REST API. Requests are issued on a fixed schedule derived
+ * from the target rate, whether or not earlier ones have completed, and latency is measured from
+ * each request's scheduled start rather than from when it was actually sent, so a stalled server
+ * shows up in the percentiles instead of silently lowering the offered load (coordinated
+ * omission).
+ *
+ * <p>Without {@code load.port} a {@link ServerRunner} is started in-process on
+ * {@code load.localPort}, configured by {@link Config#load()} like the application itself. Settings, all system properties:
+ * <ul>
+ *   <li>{@code load.port} - port of a running server to target instead</li>
+ *   <li>{@code load.accounts} - number of accounts created before the run (1000)</li>
+ *   <li>{@code load.rate} - requests per second (1000)</li>
+ *   <li>{@code load.warmupSeconds} / {@code load.durationSeconds} - unrecorded and recorded
+ *   run length (5 / 30)</li>
+ *   <li>{@code load.mix} - relative weights of the request types
+ *   ({@code transfer=70,account=20,history=10})</li>
+ *   <li>{@code load.skew} - Zipf exponent of account selection, 0 for uniform (0)</li>
+ * </ul>
+ */
+class LoadGenerator {
+
+  private static final long ACCOUNT_BALANCE = 1_000_000_000L;
+  private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+  private final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .build();
+  private final String basePath;
+  private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+  private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+  private final AtomicLong inFlight = new AtomicLong();
+  private final int[] mixWeights;
+  private final double[] accountCumulativeProbabilities;
+  private long[] accountIds;
+
+  private LoadGenerator(String basePath, int[] mixWeights, int accounts, double skew) {
+    this.basePath = basePath;
+    this.mixWeights = mixWeights;
+    this.accountCumulativeProbabilities = zipfCumulativeProbabilities(accounts, skew);
+    for (var operation : Operation.values()) {
+      latencies.put(operation, new ConcurrentHistogram(3));
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int accounts = Integer.getInteger("load.accounts", 1000);
+    int rate = Integer.getInteger("load.rate", 1000);
+    int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+    int durationSeconds = Integer.getInteger("load.durationSeconds", 30);
+    var mix = parseMix(System.getProperty("load.mix", "transfer=70,account=20,history=10"));
+    double skew = Double.parseDouble(System.getProperty("load.skew", "0"));
+    var port = Integer.getInteger("load.port");
+
+    ServerRunner serverRunner = null;
+    if (port == null) {
+      port = Integer.getInteger("load.localPort", 7002);
+      var config = Config.load();
+      var metrics = new MetricsRegistry();
+      serverRunner = ServerRunner
+          .create(Persistence.persistenceService(config, metrics), null, metrics, config)
+          .start(port);
+    }
+    try {
+      var generator = new LoadGenerator("http://localhost:" + port + "/api", mix, accounts,
+          skew);
+      generator.createAccounts(accounts);
+      generator.run(rate, TimeUnit.SECONDS.toNanos(warmupSeconds),
+          TimeUnit.SECONDS.toNanos(durationSeconds));
+      generator.report(durationSeconds);
+    } finally {
+      if (serverRunner != null) {
+        serverRunner.stop();
+      }
+    }
+  }
+
+  private void createAccounts(int accounts) throws IOException, InterruptedException {
+    accountIds = new long[accounts];
+    for (int i = 0; i < accounts; i++) {
+      var response = httpClient.send(post("/accounts",
+          "{\"owner\":\"load" + i + "\",\"currency\":\"USD\",\"balance\":\""
+              + ACCOUNT_BALANCE + "\"}"), BodyHandlers.ofString());
+      if (response.statusCode() != 201) {
+        throw new IllegalStateException("Cannot create account: " + response.statusCode() + " "
+            + response.body());
+      }
+      accountIds[i] = new JsonParser().parse(response.body())
+          .getAsJsonObject()
+          .get("id")
+          .getAsLong();
+    }
+  }
+
+  private void run(int rate, long warmupNanos, long durationNanos) throws InterruptedException {
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime();
+    long recordFrom = start + warmupNanos;
+    long end = recordFrom + durationNanos;
+    for (long scheduled = start; scheduled < end; scheduled += intervalNanos) {
+      long delay = scheduled - System.nanoTime();
+      if (delay > 0) {
+        LockSupport.parkNanos(delay);
+      }
+      send(nextOperation(), scheduled, scheduled >= recordFrom);
+    }
+    long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+    while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private void send(Operation operation, long scheduled, boolean record) {
+    inFlight.incrementAndGet();
+    httpClient.sendAsync(request(operation), BodyHandlers.discarding())
+        .whenComplete((response, throwable) -> {
+          inFlight.decrementAndGet();
+          if (record) {
+            record(operation, scheduled, response, throwable);
+          }
+        });
+  }
+
+  private void record(Operation operation, long scheduled, HttpResponse<?> response,
+      Throwable throwable) {
+    latencies.get(operation).recordValue(System.nanoTime() - scheduled);
+    if (throwable != null) {
+      var cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+      errors.computeIfAbsent(operation.name + " " + cause.getClass().getSimpleName(),
+          key -> new LongAdder()).increment();
+    } else if (response.statusCode() >= 400) {
+      errors.computeIfAbsent(operation.name + " " + response.statusCode(),
+          key -> new LongAdder()).increment();
+    }
+  }
+
+  private HttpRequest request(Operation operation) {
+    long accountId = nextAccountId();
+    switch (operation) {
+      case TRANSFER:
+        long toAccountId = nextAccountId();
+        while (toAccountId == accountId) {
+          toAccountId = nextAccountId();
+        }
+        return post("/transfers", "{\"from_account\":" + accountId + ",\"to_account\":"
+            + toAccountId + ",\"currency\":\"USD\",\"amount\":\"0.01\"}");
+      case ACCOUNT:
+        return get("/accounts/" + accountId);
+      case HISTORY:
+        return get("/accounts/" + accountId + "/transfers?limit=20");
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  private HttpRequest get(String path) {
+    return HttpRequest.newBuilder()
+        .uri(URI.create(basePath + path))
+        .GET()
+        .build();
+  }
+
+  private HttpRequest post(String path, String body) {
+    return HttpRequest.newBuilder()
+        .uri(URI.create(basePath + path))
+        .header("Content-Type", "application/json")
+        .POST(BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private Operation nextOperation() {
+    int pick = ThreadLocalRandom.current().nextInt(mixWeights[mixWeights.length - 1]);
+    int index = 0;
+    while (pick >= mixWeights[index]) {
+      index++;
+    }
+    return Operation.values()[index];
+  }
+
+  private long nextAccountId() {
+    int rank = Arrays.binarySearch(accountCumulativeProbabilities,
+        ThreadLocalRandom.current().nextDouble());
+    return accountIds[Math.min(accountIds.length - 1, rank >= 0 ? rank : -rank - 1)];
+  }
+
+  private void report(int durationSeconds) {
+    System.out.printf("%-10s %10s %10s %10s %10s %10s %10s%n", "request", "count", "req/s",
+        "p50 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)");
+    latencies.forEach((operation, histogram) -> System.out.printf(
+        "%-10s %10d %10.1f %10.2f %10.2f %10.2f %10.2f%n", operation.name,
+        histogram.getTotalCount(), (double) histogram.getTotalCount() / durationSeconds,
+        millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+        millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue())));
+    if (inFlight.get() > 0) {
+      System.out.printf("%d requests still in flight after %s%n", inFlight.get(),
+          DRAIN_TIMEOUT);
+    }
+    if (errors.isEmpty()) {
+      System.out.println("no errors");
+      return;
+    }
+    System.out.println("errors:");
+    new TreeMap<>(errors).forEach((error, count) ->
+        System.out.printf("  %-30s %10d%n", error, count.sum()));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /**
+   * Turns {@code name=weight} pairs into cumulative weights indexed by {@link Operation}.
+   */
+  private static int[] parseMix(String mix) {
+    var weights = new int[Operation.values().length];
+    for (var pair : mix.split(",")) {
+      var nameAndWeight = pair.split("=");
+      weights[Operation.named(nameAndWeight[0].trim()).ordinal()] =
+          Integer.parseInt(nameAndWeight[1].trim());
+    }
+    for (int i = 1; i < weights.length; i++) {
+      weights[i] += weights[i - 1];
+    }
+    if (weights[weights.length - 1] <= 0) {
+      throw new IllegalArgumentException("Request mix has no positive weight: " + mix);
+    }
+    return weights;
+  }
+
+  private static double[] zipfCumulativeProbabilities(int size, double exponent) {
+    var probabilities = new double[size];
+    double sum = 0;
+    for (int rank = 0; rank < size; rank++) {
+      sum += 1 / Math.pow(rank + 1, exponent);
+      probabilities[rank] = sum;
+    }
+    for (int rank = 0; rank < size; rank++) {
+      probabilities[rank] /= sum;
+    }
+    return probabilities;
+  }
+
+  private enum Operation {
+    TRANSFER("transfer"),
+    ACCOUNT("account"),
+    HISTORY("history");
+
+    private final String name;
+
+    Operation(String name) {
+      this.name = name;
+    }
+
+    static Operation named(String name) {
+      return Arrays.stream(values())
+          .filter(operation -> operation.name.equals(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Unknown request type " + name));
+    }
+  }
+}
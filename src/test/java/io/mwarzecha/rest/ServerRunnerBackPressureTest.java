@@ -0,0 +1,132 @@
+package io.mwarzecha.rest;
+
+import static java.net.http.HttpClient.newHttpClient;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.config.Config;
+import io.mwarzecha.metrics.MetricsRegistry;
+import io.mwarzecha.persistence.PersistenceService;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ServerRunnerBackPressureTest {
+
+  private static final int PORT = 7004;
+
+  @Mock
+  private PersistenceService persistenceService;
+
+  @Test
+  void testRejectsRequestsWhenExecutorQueueIsFull() throws Exception {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    when(persistenceService.getAllAccounts()).thenAnswer(invocation -> {
+      started.countDown();
+      release.await();
+      return List.of();
+    });
+    var config = Config.defaults().with(Map.of(
+        "persistence.executor.threads", "1",
+        "persistence.executor.queueSize", "1"));
+    var metrics = new MetricsRegistry();
+    var serverRunner = ServerRunner
+        .create(persistenceService, null, metrics, config)
+        .start(PORT);
+    try {
+      var httpClient = newHttpClient();
+      var request = HttpRequest.newBuilder()
+          .uri(URI.create("http://localhost:" + PORT + "/api/accounts"))
+          .GET()
+          .build();
+      var running = httpClient.sendAsync(request, BodyHandlers.ofString());
+      started.await();
+      var queued = httpClient.sendAsync(request, BodyHandlers.ofString());
+      while (!metrics.scrape().contains("db_executor_queued_calls 1\n")) {
+        Thread.sleep(10);
+      }
+      var rejected = httpClient.send(request, BodyHandlers.ofString());
+
+      assertEquals(503, rejected.statusCode());
+      assertEquals("1", rejected.headers().firstValue("Retry-After").orElseThrow());
+
+      release.countDown();
+      assertEquals(200, running.get(5, TimeUnit.SECONDS).statusCode());
+      assertEquals(200, queued.get(5, TimeUnit.SECONDS).statusCode());
+    } finally {
+      release.countDown();
+      serverRunner.stop();
+    }
+  }
+
+  @Test
+  void testRejectsExportsBeyondTheirOwnExecutor() throws Exception {
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      started.countDown();
+      release.await();
+      return null;
+    }).when(persistenceService).forEachTransfer(anyLong(), any(), any(), any());
+    when(persistenceService.getAllAccounts()).thenReturn(List.of());
+    var config = Config.defaults().with(Map.of(
+        "persistence.executor.threads", "1",
+        "transfers.export.maxConcurrent", "1"));
+    var serverRunner = ServerRunner
+        .create(persistenceService, null, new MetricsRegistry(), config)
+        .start(PORT);
+    try {
+      var httpClient = newHttpClient();
+      var running = httpClient.sendAsync(request("/transfers/export"), BodyHandlers.ofString());
+      started.await();
+      var rejected = httpClient.send(request("/transfers/export"), BodyHandlers.ofString());
+
+      assertEquals(503, rejected.statusCode());
+      assertEquals(200, httpClient.send(request("/accounts"), BodyHandlers.ofString())
+          .statusCode());
+
+      release.countDown();
+      assertEquals(200, running.get(5, TimeUnit.SECONDS).statusCode());
+    } finally {
+      release.countDown();
+      serverRunner.stop();
+    }
+  }
+
+  @Test
+  void testExportFailsWithoutPartialBodyWhenReadFails() throws Exception {
+    doThrow(new IllegalStateException("Database unavailable"))
+        .when(persistenceService).forEachTransfer(anyLong(), any(), any(), any());
+    var serverRunner = ServerRunner.create(persistenceService).start(PORT);
+    try {
+      var response = newHttpClient().send(request("/transfers/export"), BodyHandlers.ofString());
+
+      assertEquals(500, response.statusCode());
+      assertFalse(response.body().startsWith("{"));
+    } finally {
+      serverRunner.stop();
+    }
+  }
+
+  private static HttpRequest request(String path) {
+    return HttpRequest.newBuilder()
+        .uri(URI.create("http://localhost:" + PORT + "/api" + path))
+        .GET()
+        .build();
+  }
+}
@@ -1,15 +1,27 @@
 package io.mwarzecha.rest;
 
 import static java.net.http.HttpClient.newHttpClient;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import io.mwarzecha.binary.BinaryCodec;
+import io.mwarzecha.config.Config;
+import io.mwarzecha.metrics.MetricsRegistry;
 import io.mwarzecha.model.Account;
 import io.mwarzecha.model.Transfer;
 import io.mwarzecha.model.Money;
 import io.mwarzecha.persistence.Persistence;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
@@ -19,8 +31,11 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.StreamSupport;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
@@ -42,8 +57,10 @@ class ServerRunnerIntegrationTest {
 
   @BeforeAll
   static void setUpClass() {
+    var metrics = new MetricsRegistry();
+    var config = Config.defaults().with(Map.of("transfers.export.settleSeconds", "0"));
     serverRunner = ServerRunner
-        .create(Persistence.persistenceService())
+        .create(Persistence.persistenceService(config, metrics), null, metrics, config)
         .start(PORT);
     httpClient = newHttpClient();
   }
@@ -298,4 +315,289 @@ class ServerRunnerIntegrationTest {
 
     assertEquals(404, response.statusCode());
   }
-}
\ No newline at end of file
+
+  @Test
+  @Order(13)
+  void testMakeTransfersBatch() throws IOException, InterruptedException {
+    var transfers = List.of(
+        newTransfer(1L, 2L, "USD", new BigDecimal("4.50")),
+        newTransfer(2L, 1L, "USD", new BigDecimal("1000.00")),
+        newTransfer(3L, 4L, "EUR", new BigDecimal("1.00")));
+    var httpResponse = post("/transfers/batch", GSON.toJson(transfers));
+    JsonArray results = GSON.fromJson(httpResponse.body(), JsonArray.class);
+
+    assertEquals(200, httpResponse.statusCode());
+    assertEquals(3, results.size());
+    assertEquals(201, results.get(0).getAsJsonObject().get("status").getAsInt());
+    assertEquals(400, results.get(1).getAsJsonObject().get("status").getAsInt());
+    assertEquals(201, results.get(2).getAsJsonObject().get("status").getAsInt());
+    assertEquals(4L, results.get(0).getAsJsonObject().getAsJsonObject("transfer")
+        .get("id").getAsLong());
+    assertEquals(5L, results.get(2).getAsJsonObject().getAsJsonObject("transfer")
+        .get("id").getAsLong());
+    assertPostBadRequest("/transfers/batch", "{}");
+  }
+
+  @Test
+  @Order(14)
+  void testGetAccountTransfersPaginated() throws IOException, InterruptedException {
+    assertGetAccountTransferIds("/accounts/1/transfers?limit=2", 1L, 2L);
+    assertGetAccountTransferIds("/accounts/1/transfers?after=2&limit=2", 4L);
+    assertGetAccountTransferIds("/accounts/1/transfers?after=4", new long[0]);
+    assertGetAccountTransferIds("/accounts/1/transfers?stream=true", 1L, 2L, 4L);
+    assertEquals(400, get("/accounts/1/transfers?limit=0").statusCode());
+  }
+
+  private static void assertGetAccountTransferIds(String path, long... expectedIds)
+      throws IOException, InterruptedException {
+    var httpResponse = get(path);
+    List<Transfer> transfers = GSON.fromJson(httpResponse.body(), TRANSFER_LIST_TYPE);
+
+    assertEquals(200, httpResponse.statusCode());
+    assertArrayEquals(expectedIds, transfers.stream().mapToLong(Transfer::getId).toArray());
+  }
+
+  @Test
+  @Order(15)
+  void testBinaryWireFormat() throws IOException, InterruptedException {
+    var accountsResponse = getBinary("/accounts");
+    var accounts = BinaryCodec.readAccounts(new ByteArrayInputStream(accountsResponse.body()));
+    var transfers = BinaryCodec.readTransfers(new ByteArrayInputStream(
+        getBinary("/accounts/1/transfers?stream=true").body()));
+    var bytes = new ByteArrayOutputStream();
+    BinaryCodec.writeTransfer(new DataOutputStream(bytes),
+        newTransfer(1L, 2L, "USD", new BigDecimal("1.00")));
+    var transferResponse = postBinary("/transfers", bytes.toByteArray());
+    var transfer = BinaryCodec.readTransfer(new DataInputStream(
+        new ByteArrayInputStream(transferResponse.body())));
+
+    assertEquals(BinaryCodec.MEDIA_TYPE,
+        accountsResponse.headers().firstValue("Content-Type").orElseThrow());
+    assertEquals(4, accounts.size());
+    assertEquals("Joe", accounts.get(0).getOwner());
+    assertArrayEquals(new long[] {1L, 2L, 4L},
+        transfers.stream().mapToLong(Transfer::getId).toArray());
+    assertEquals(201, transferResponse.statusCode());
+    assertEquals(6L, transfer.getId());
+    assertEquals(new BigDecimal("1.00"), transfer.getAmount());
+    assertEquals(400, postBinary("/transfers", new byte[] {1, 2, 3}).statusCode());
+  }
+
+  @Test
+  @Order(16)
+  void testMetrics() throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder()
+        .uri(URI.create("http://localhost:" + PORT + "/metrics"))
+        .GET()
+        .build();
+    var response = httpClient.send(request, BodyHandlers.ofString());
+    var body = response.body();
+
+    assertEquals(200, response.statusCode());
+    assertTrue(body.contains("# TYPE http_request_duration_seconds histogram"));
+    assertTrue(body.contains("http_request_duration_seconds_count{method=\"POST\","
+        + "route=\"/api/transfers\",status=\"201\"}"));
+    assertTrue(body.contains("db_pool_connections{state=\"idle\"}"));
+    assertTrue(body.contains("db_transactions_total{outcome=\"commit\"}"));
+    assertTrue(body.contains("transfer_failures_total{reason=\"insufficient_funds\"}"));
+  }
+
+  @Test
+  @Order(17)
+  void testIdempotentTransfer() throws IOException, InterruptedException {
+    var transfer = GSON.toJson(newTransfer(1L, 2L, "USD", new BigDecimal("0.10")));
+
+    var first = postWithIdempotencyKey("/transfers", transfer, "retry-1");
+    var retried = postWithIdempotencyKey("/transfers", transfer, "retry-1");
+    var reused = postWithIdempotencyKey("/transfers",
+        GSON.toJson(newTransfer(1L, 2L, "USD", new BigDecimal("0.20"))), "retry-1");
+
+    assertEquals(201, first.statusCode());
+    assertEquals(201, retried.statusCode());
+    assertEquals(7L, GSON.fromJson(first.body(), Transfer.class).getId());
+    assertEquals(7L, GSON.fromJson(retried.body(), Transfer.class).getId());
+    assertEquals(400, reused.statusCode());
+    assertGetAccountTransferIds("/accounts/2/transfers?after=6", 7L);
+    assertEquals(400, postWithIdempotencyKey("/transfers", transfer, " ").statusCode());
+  }
+
+  @Test
+  @Order(18)
+  void testBalanceSlots() throws IOException, InterruptedException {
+    var balance = GSON.fromJson(get("/accounts/1").body(), Account.class).getBalance();
+
+    var sharded = put("/accounts/1/balance-slots", "4");
+    var transfer = post("/transfers",
+        GSON.toJson(newTransfer(1L, 2L, "USD", new BigDecimal("0.01"))));
+
+    assertEquals(200, sharded.statusCode());
+    assertEquals(balance, GSON.fromJson(sharded.body(), Account.class).getBalance());
+    assertEquals(201, transfer.statusCode());
+    assertEquals(balance.subtract(new BigDecimal("0.01")),
+        GSON.fromJson(get("/accounts/1").body(), Account.class).getBalance());
+    assertEquals(400, put("/accounts/1/balance-slots", "0").statusCode());
+    assertEquals(404, put("/accounts/9/balance-slots", "2").statusCode());
+  }
+
+  @Test
+  @Order(19)
+  void testDailyRollups() throws IOException, InterruptedException {
+    var today = LocalDate.now(ZoneOffset.UTC);
+    var transfers = GSON.fromJson(get("/accounts/2/transfers").body(), JsonArray.class);
+
+    var response = get("/accounts/2/rollups?from=" + today.minusDays(1) + "&to=" + today);
+    var rollups = GSON.fromJson(response.body(), JsonArray.class);
+
+    assertEquals(200, response.statusCode());
+    assertEquals(transfers.size(), StreamSupport.stream(rollups.spliterator(), false)
+        .mapToInt(rollup -> rollup.getAsJsonObject().get("transfer_count").getAsInt())
+        .sum());
+    assertEquals(400, get("/accounts/2/rollups?from=" + today + "&to=" + today.minusDays(1))
+        .statusCode());
+    assertEquals(400, get("/accounts/2/rollups?to=" + today).statusCode());
+  }
+
+  @Test
+  @Order(20)
+  void testAccountBalanceAt() throws IOException, InterruptedException {
+    var current = GSON.fromJson(get("/accounts/3").body(), Account.class).getBalance();
+
+    var now = get("/accounts/3/balance");
+    var opening = get("/accounts/3/balance?at=2000-01-01T00:00:00Z");
+
+    assertEquals(200, now.statusCode());
+    assertEquals(current, GSON.fromJson(now.body(), Account.class).getBalance());
+    assertEquals(200, opening.statusCode());
+    assertEquals(new BigDecimal("89.11"),
+        GSON.fromJson(opening.body(), Account.class).getBalance());
+    assertEquals(400, get("/accounts/3/balance?at=yesterday").statusCode());
+    assertEquals(404, get("/accounts/9/balance").statusCode());
+  }
+
+  @Test
+  @Order(21)
+  void testImportAccounts() throws IOException, InterruptedException {
+    var ndjson = postImport("application/x-ndjson", String.join("\n",
+        "{\"owner\":\"Ann\",\"currency\":\"USD\",\"balance\":\"10.00\"}",
+        "",
+        "{\"owner\":\"Ben\",\"currency\":\"USD\",\"balance\":\"-1.00\"}",
+        "{\"owner\":\"Cid\"}",
+        "{\"owner\":\"Dan\",\"currency\":\"EUR\",\"balance\":\"2.50\"}"));
+    var csv = postImport("text/csv", String.join("\n",
+        "owner,currency,balance",
+        "\"Doe, \"\"Jr\"\"\",GBP,3.00",
+        "A".repeat(51) + ",USD,1.00",
+        "Eve,USD"));
+    var overlong = postImport("text/csv", String.join("\n",
+        "Fay,USD,1.00",
+        "G".repeat(10_000) + ",USD,1.00"));
+
+    assertEquals(200, ndjson.statusCode());
+    assertEquals("application/x-ndjson",
+        ndjson.headers().firstValue("Content-Type").orElseThrow());
+    var results = ndjson.body().lines()
+        .map(line -> GSON.fromJson(line, JsonObject.class))
+        .collect(toList());
+    assertEquals(List.of(1, 3, 4, 5), results.stream()
+        .map(result -> result.get("line").getAsInt())
+        .collect(toList()));
+    long annId = results.get(0).get("id").getAsLong();
+    assertEquals(annId + 1, results.get(3).get("id").getAsLong());
+    assertEquals("Line 3 invalid - Negative account balance",
+        results.get(1).get("error").getAsString());
+    assertEquals("Line 4 invalid - Missing field currency",
+        results.get(2).get("error").getAsString());
+    assertEquals(new BigDecimal("2.50"), GSON.fromJson(get("/accounts/" + (annId + 1)).body(),
+        Account.class).getBalance());
+
+    assertEquals(200, csv.statusCode());
+    results = csv.body().lines()
+        .map(line -> GSON.fromJson(line, JsonObject.class))
+        .collect(toList());
+    assertEquals(3, results.size());
+    var doe = GSON.fromJson(get("/accounts/" + results.get(0).get("id").getAsLong()).body(),
+        Account.class);
+    assertEquals("Doe, \"Jr\"", doe.getOwner());
+    assertEquals("GBP", doe.getCurrency());
+    assertEquals("Line 3 invalid - Owner name characters limit exceeded",
+        results.get(1).get("error").getAsString());
+    assertEquals("Line 4 invalid - Expected 3 fields but found 2",
+        results.get(2).get("error").getAsString());
+
+    assertEquals(400, overlong.statusCode());
+    assertEquals("Line 2 exceeds 4096 characters", overlong.body());
+  }
+
+  @Test
+  @Order(22)
+  void testExportTransfers() throws IOException, InterruptedException {
+    var all = get("/transfers/export");
+
+    assertEquals(200, all.statusCode());
+    assertEquals("application/x-ndjson", all.headers().firstValue("Content-Type").orElseThrow());
+    var ids = transferIdsOf(all);
+    assertTrue(ids.size() > 2);
+    assertEquals(ids.stream().sorted().distinct().collect(toList()), ids);
+    assertEquals(ids.subList(2, ids.size()),
+        transferIdsOf(get("/transfers/export?since=" + ids.get(1))));
+    assertEquals(ids, transferIdsOf(get("/transfers/export?since=2000-01-01T00:00:00Z")));
+    assertTrue(transferIdsOf(get("/transfers/export?since=2999-01-01T00:00:00Z")).isEmpty());
+    assertEquals(400, get("/transfers/export?since=yesterday").statusCode());
+  }
+
+  private static List<Long> transferIdsOf(HttpResponse<String> export) {
+    return export.body().lines()
+        .map(line -> GSON.fromJson(line, Transfer.class).getId())
+        .collect(toList());
+  }
+
+  private static HttpResponse<String> postImport(String contentType, String body)
+      throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder()
+        .uri(URI.create(BASE_PATH + "/accounts/import"))
+        .header("Content-Type", contentType)
+        .POST(BodyPublishers.ofString(body))
+        .build();
+    return httpClient.send(request, BodyHandlers.ofString());
+  }
+
+  private static HttpResponse<String> put(String path, String body)
+      throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder()
+        .uri(URI.create(BASE_PATH + path))
+        .PUT(BodyPublishers.ofString(body))
+        .build();
+    return httpClient.send(request, BodyHandlers.ofString());
+  }
+
+  private static HttpResponse<String> postWithIdempotencyKey(String path, String body,
+      String idempotencyKey) throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder()
+        .uri(URI.create(BASE_PATH + path))
+        .header("Idempotency-Key", idempotencyKey)
+        .POST(BodyPublishers.ofString(body))
+        .build();
+    return httpClient.send(request, BodyHandlers.ofString());
+  }
+
+  private static HttpResponse<byte[]> getBinary(String path)
+      throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder()
+        .uri(URI.create(BASE_PATH + path))
+        .header("Accept", BinaryCodec.MEDIA_TYPE)
+        .GET()
+        .build();
+    return httpClient.send(request, BodyHandlers.ofByteArray());
+  }
+
+  private static HttpResponse<byte[]> postBinary(String path, byte[] body)
+      throws IOException, InterruptedException {
+    var request = HttpRequest.newBuilder()
+        .uri(URI.create(BASE_PATH + path))
+        .header("Accept", BinaryCodec.MEDIA_TYPE)
+        .header("Content-Type", BinaryCodec.MEDIA_TYPE)
+        .POST(BodyPublishers.ofByteArray(body))
+        .build();
+    return httpClient.send(request, BodyHandlers.ofByteArray());
+  }
+}
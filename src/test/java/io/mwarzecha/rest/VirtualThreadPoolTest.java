@@ -0,0 +1,76 @@
+package io.mwarzecha.rest;
+
+import static java.net.http.HttpClient.newHttpClient;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import io.mwarzecha.config.Config;
+import io.mwarzecha.metrics.MetricsRegistry;
+import io.mwarzecha.persistence.Persistence;
+import io.mwarzecha.util.VirtualThreads;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VirtualThreadPoolTest {
+
+  private static final int PORT = 7003;
+
+  @BeforeEach
+  void setUp() {
+    assumeTrue(VirtualThreads.isSupported(), "virtual threads need Java 21");
+  }
+
+  @Test
+  void testTasksRunOnVirtualThreads() throws Exception {
+    var threadPool = new VirtualThreadPool();
+    threadPool.start();
+    var thread = new CompletableFuture<Thread>();
+
+    threadPool.execute(() -> thread.complete(Thread.currentThread()));
+
+    assertTrue(isVirtual(thread.get(5, TimeUnit.SECONDS)));
+    threadPool.stop();
+  }
+
+  @Test
+  void testServerHandlesRequestsOnVirtualThreads() throws Exception {
+    var config = Config.defaults().with(Map.of(
+        "server.virtualThreads", "true",
+        "db.url", "jdbc:h2:mem:virtualThreadsDB;DB_CLOSE_DELAY=-1"));
+    var metrics = new MetricsRegistry();
+    var serverRunner = ServerRunner
+        .create(Persistence.persistenceService(config, metrics), null, metrics, config)
+        .start(PORT);
+    try {
+      var httpClient = newHttpClient();
+      var created = httpClient.send(HttpRequest.newBuilder()
+          .uri(URI.create("http://localhost:" + PORT + "/api/accounts"))
+          .POST(BodyPublishers.ofString(
+              "{\"owner\":\"Joe\",\"currency\":\"USD\",\"balance\":\"10.00\"}"))
+          .build(), BodyHandlers.ofString());
+      var accounts = httpClient.send(HttpRequest.newBuilder()
+          .uri(URI.create("http://localhost:" + PORT + "/api/accounts"))
+          .GET()
+          .build(), BodyHandlers.ofString());
+
+      assertEquals(201, created.statusCode());
+      assertEquals(200, accounts.statusCode());
+      assertTrue(accounts.body().contains("\"owner\":\"Joe\""));
+      assertTrue(metrics.scrape().contains("db_limiter_waiting_threads 0"));
+    } finally {
+      serverRunner.stop();
+    }
+  }
+
+  private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+    return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+}
@@ -0,0 +1,127 @@
+package io.mwarzecha.sequencer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.mwarzecha.model.Money;
+import io.mwarzecha.model.Transfer;
+import io.mwarzecha.persistence.PersistenceService;
+import io.mwarzecha.util.Try;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TransferSequencerTest {
+
+  @Mock
+  private PersistenceService persistenceService;
+  private TransferSequencer transferSequencer;
+
+  @BeforeEach
+  void setUp() {
+    transferSequencer = TransferSequencer.create(persistenceService, 4, 8);
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    transferSequencer.close();
+  }
+
+  @Test
+  void testSubmitWithinPartition() throws Exception {
+    var transfer = newTransfer(1L, 5L);
+    when(persistenceService.makeTransfer(transfer)).thenReturn(Try.ofFailable(() -> transfer));
+
+    Try<Transfer> result = transferSequencer.submit(transfer).get(5, TimeUnit.SECONDS);
+
+    assertTrue(result.isSuccess());
+    assertEquals(transfer, result.getResult());
+  }
+
+  @Test
+  void testSubmitAcrossPartitions() throws Exception {
+    var transfer = newTransfer(3L, 2L);
+    when(persistenceService.makeTransfer(transfer)).thenReturn(Try.ofFailable(() -> {
+      throw new IllegalStateException("Insufficient funds");
+    }));
+
+    Try<Transfer> result = transferSequencer.submit(transfer).get(5, TimeUnit.SECONDS);
+
+    assertTrue(result.isFailure());
+    assertEquals("Insufficient funds", result.getThrowable().getMessage());
+  }
+
+  @Test
+  void testSubmitMoreThanRingSize() throws Exception {
+    when(persistenceService.makeTransfer(any()))
+        .thenAnswer(invocation -> Try.ofFailable(() -> invocation.getArgument(0)));
+    var futures = new ArrayList<CompletableFuture<Try<Transfer>>>();
+
+    for (long i = 0; i < 100; i++) {
+      futures.add(transferSequencer.submit(newTransfer(i, i + 1)));
+    }
+    CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+    assertTrue(futures.stream().allMatch(future -> future.join().isSuccess()));
+    verify(persistenceService, times(100)).makeTransfer(any());
+  }
+
+  @Test
+  void testCloseFailsQueuedTransfers() throws Exception {
+    var applying = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var first = newTransfer(1L, 5L);
+    when(persistenceService.makeTransfer(first)).thenAnswer(invocation -> {
+      applying.countDown();
+      release.await();
+      return Try.ofFailable(() -> first);
+    });
+    var firstResult = transferSequencer.submit(first);
+    applying.await();
+    var queued = transferSequencer.submit(newTransfer(1L, 2L));
+    var closer = new Thread(() -> {
+      try {
+        transferSequencer.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    closer.start();
+    while (closer.getState() != Thread.State.WAITING) {
+      Thread.onSpinWait();
+    }
+    release.countDown();
+    closer.join();
+
+    assertTrue(firstResult.get(5, TimeUnit.SECONDS).isSuccess());
+    var failure = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+    assertTrue(failure.getCause() instanceof RejectedExecutionException);
+    var late = transferSequencer.submit(newTransfer(4L, 8L));
+    assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS));
+  }
+
+  private static Transfer newTransfer(long from, long to) {
+    return Transfer.newBuilder()
+        .fromAccountId(from)
+        .toAccountId(to)
+        .amount(Money.of("USD", BigDecimal.ONE))
+        .build();
+  }
+}